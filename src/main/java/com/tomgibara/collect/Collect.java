@@ -1,15 +1,33 @@
 package com.tomgibara.collect;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Collection;
-import java.util.Random;
+import java.util.Map;
 
 import com.tomgibara.storage.Storage;
+import com.tomgibara.storage.Store;
 import com.tomgibara.storage.StoreType;
+import com.tomgibara.streams.ReadStream;
+import com.tomgibara.streams.StreamDeserializer;
+import com.tomgibara.streams.StreamSerializer;
+import com.tomgibara.streams.WriteStream;
 
 /**
+ * <p>
  * Provides static method for creating equivalence collections from equivalences.
  * Serves as the entrypoint for the API.
  *
+ * <p>
+ * Only sets of <code>int</code> and <code>long</code> values may be held in
+ * memory outside of the Java heap, either in memory allocated for them (see
+ * {@link Sets#newDirectIntSet()}) or in a file mapped into memory (see
+ * {@link #mapIntSet(Path)}). Memory allocated for a set is relinquished when
+ * the set is closed and reclaimed by the garbage collector. All other
+ * collections, including maps with primitive keys or values, are held in
+ * their storage, which has no means of being closed, and which holds its
+ * values on the heap unless a custom storage is supplied.
+ *
  * @author Tom Gibara
  */
 
@@ -54,6 +72,98 @@ public final class Collect {
 		return new Sets<>(storage);
 	}
 
+	/**
+	 * <p>
+	 * Writes an int set to a file from which it can later be mapped into
+	 * memory with {@link #mapIntSet(Path)}. The file records the slots of the
+	 * set exactly as they are laid out in memory, together with the
+	 * configuration needed to locate values within them.
+	 *
+	 * <p>
+	 * The layout of sets created by {@link Sets#newIntSet()} and its variants
+	 * is written as is; other sets are first copied into a set with the
+	 * default configuration.
+	 *
+	 * @param set
+	 *            the set to be written
+	 * @param path
+	 *            the file to which the set is written, replacing any existing
+	 *            contents
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+
+	public static void writeIntSet(IntEquivalenceSet set, Path path) throws IOException {
+		if (set == null) throw new IllegalArgumentException("null set");
+		if (path == null) throw new IllegalArgumentException("null path");
+		CuckooIntEquivalenceSet.of(set).write(path, Integer.BYTES);
+	}
+
+	/**
+	 * <p>
+	 * Maps an int set from a file written by
+	 * {@link #writeIntSet(IntEquivalenceSet, Path)}. Mapping takes a constant
+	 * amount of time irrespective of the size of the set: no values are read
+	 * until they are looked up, and lookups are served directly from the
+	 * mapped file. Processes that map the same file share its pages.
+	 *
+	 * <p>
+	 * The returned set is immutable and must not be used if the file is
+	 * subsequently modified. Mutable copies of the set are held on the heap.
+	 * The set cannot be closed; the file remains mapped until the set has
+	 * been garbage collected.
+	 *
+	 * @param path
+	 *            a file containing an int set
+	 * @return an immutable set backed by the file
+	 * @throws IOException
+	 *             if the file could not be mapped, or does not contain an int
+	 *             set
+	 */
+
+	public static IntEquivalenceSet mapIntSet(Path path) throws IOException {
+		if (path == null) throw new IllegalArgumentException("null path");
+		return new CuckooIntEquivalenceSet(PrimitiveCuckooSet.map(path, Integer.BYTES));
+	}
+
+	/**
+	 * Writes a long set to a file from which it can later be mapped into
+	 * memory with {@link #mapLongSet(Path)}.
+	 *
+	 * @param set
+	 *            the set to be written
+	 * @param path
+	 *            the file to which the set is written, replacing any existing
+	 *            contents
+	 * @throws IOException
+	 *             if the file could not be written
+	 * @see #writeIntSet(IntEquivalenceSet, Path)
+	 */
+
+	public static void writeLongSet(LongEquivalenceSet set, Path path) throws IOException {
+		if (set == null) throw new IllegalArgumentException("null set");
+		if (path == null) throw new IllegalArgumentException("null path");
+		CuckooLongEquivalenceSet.of(set).write(path, Long.BYTES);
+	}
+
+	/**
+	 * Maps a long set from a file written by
+	 * {@link #writeLongSet(LongEquivalenceSet, Path)}.
+	 *
+	 * @param path
+	 *            a file containing a long set
+	 * @return an immutable set backed by the file
+	 * @throws IOException
+	 *             if the file could not be mapped, or does not contain a long
+	 *             set
+	 * @see #mapIntSet(Path)
+	 */
+
+	public static LongEquivalenceSet mapLongSet(Path path) throws IOException {
+		if (path == null) throw new IllegalArgumentException("null path");
+		return new CuckooLongEquivalenceSet(PrimitiveCuckooSet.map(path, Long.BYTES));
+	}
+
 	/**
 	 * <p>
 	 * Creates new sets. The sets produced by this object do not support the
@@ -73,17 +183,20 @@ public final class Collect {
 
 		private final Storage<E> storage;
 		private final Equivalence<E> equivalence;
-		private Cuckoo<E> trivialCuckoo = null;
+		private final Cuckoo.Settings settings;
+		private Cuckoo<E> cuckoo = null;
 		private EquivalenceSet<E> emptySet = null;
 
 		Sets(Storage<E> storage) {
 			this.storage = storage;
 			this.equivalence = Equivalence.equality();
+			this.settings = Cuckoo.Settings.DEFAULT;
 		}
 
-		private Sets(Sets<E> sets, Equivalence<E> equivalence) {
+		private Sets(Sets<E> sets, Equivalence<E> equivalence, Cuckoo.Settings settings) {
 			this.storage = sets.storage;
 			this.equivalence = equivalence;
+			this.settings = settings;
 		}
 
 		/**
@@ -124,13 +237,279 @@ public final class Collect {
 			return under(equivalence);
 		}
 
+		/**
+		 * <p>
+		 * Creates sets that use the specified number of hash functions to
+		 * locate each element. The storage and equivalence of the sets are
+		 * unchanged.
+		 *
+		 * <p>
+		 * Fewer hashes reduce the number of slots that must be examined to
+		 * establish that an element is absent, more hashes allow sets to
+		 * operate at higher load factors before growing. Three hashes are
+		 * used by default.
+		 *
+		 * @param hashCount
+		 *            the number of hashes used per element, at least two and at
+		 *            most 64
+		 * @return sets using the specified number of hashes
+		 */
+
+		public Sets<E> withHashCount(int hashCount) {
+			if (hashCount < 2) throw new IllegalArgumentException("hashCount less than two");
+			if (hashCount > Cuckoo.MAX_HASH_COUNT) throw new IllegalArgumentException("hashCount exceeds " + Cuckoo.MAX_HASH_COUNT);
+			return with(settings.withHashCount(hashCount));
+		}
+
+		/**
+		 * <p>
+		 * Creates sets in which each hash identifies a bucket of adjacent
+		 * slots, any of which may hold the element. The storage and
+		 * equivalence of the sets are unchanged.
+		 *
+		 * <p>
+		 * Buckets of several slots allow sets to be filled to a much greater
+		 * extent before they need to grow, at the cost of examining more slots
+		 * per lookup. Since the slots of a bucket are adjacent, a bucket that
+		 * fits within a cache line can be scanned cheaply. By default, buckets
+		 * consist of a single slot.
+		 *
+		 * @param bucketSize
+		 *            the number of slots per bucket, at least one and at most
+		 *            1024
+		 * @return sets with the specified bucket size
+		 */
+
+		public Sets<E> withBucketSize(int bucketSize) {
+			if (bucketSize < 1) throw new IllegalArgumentException("non-positive bucketSize");
+			if (bucketSize > Cuckoo.MAX_BUCKET_SIZE) throw new IllegalArgumentException("bucketSize exceeds " + Cuckoo.MAX_BUCKET_SIZE);
+			return with(settings.withBucketSize(bucketSize));
+		}
+
+		/**
+		 * <p>
+		 * Creates sets that will displace at most the specified number of
+		 * elements to accommodate a new element. The storage and equivalence
+		 * of the sets are unchanged.
+		 *
+		 * <p>
+		 * When all of the slots available to a new element are occupied, the
+		 * shortest sequence of displacements that frees one of them is sought.
+		 * Only if no such sequence exists within this depth is the set
+		 * enlarged. Deeper searches allow sets to become fuller before they
+		 * grow, at the cost of slower insertions into crowded sets. By
+		 * default, at most five elements are displaced.
+		 *
+		 * @param evictionDepth
+		 *            the greatest number of elements displaced by an
+		 *            insertion, at least one
+		 * @return sets with the specified eviction depth
+		 */
+
+		public Sets<E> withEvictionDepth(int evictionDepth) {
+			if (evictionDepth < 1) throw new IllegalArgumentException("non-positive evictionDepth");
+			return with(settings.withEvictionDepth(evictionDepth));
+		}
+
+		/**
+		 * <p>
+		 * Creates sets that reserve the specified number of slots for elements
+		 * which cannot otherwise be accommodated. The storage and equivalence
+		 * of the sets are unchanged.
+		 *
+		 * <p>
+		 * Without a stash, a set must be enlarged whenever a single element
+		 * cannot be placed. With one, a few such elements can be held until
+		 * they can be returned to their regular slots, at the cost of
+		 * examining the stash on lookups. By default, sets have no stash.
+		 *
+		 * @param stashSize
+		 *            the number of slots in the stash, possibly zero
+		 * @return sets with a stash of the specified size
+		 */
+
+		public Sets<E> withStashSize(int stashSize) {
+			if (stashSize < 0) throw new IllegalArgumentException("negative stashSize");
+			return with(settings.withStashSize(stashSize));
+		}
+
+		/**
+		 * <p>
+		 * Creates sets that grow incrementally. The storage and equivalence
+		 * of the sets are unchanged.
+		 *
+		 * <p>
+		 * By default, a set that must grow moves all of its elements into
+		 * enlarged storage within a single operation. When growing
+		 * incrementally, the enlarged storage is used immediately, and each
+		 * subsequent addition migrates elements from the specified number of
+		 * slots in the original storage, until none remain. This bounds the
+		 * cost of any single addition, at the cost of lookups examining both
+		 * storages during migration.
+		 *
+		 * @param migrationRate
+		 *            the number of slots migrated per addition, or zero to
+		 *            grow sets in a single operation
+		 * @return sets that grow incrementally at the specified rate
+		 */
+
+		public Sets<E> withIncrementalResizing(int migrationRate) {
+			if (migrationRate < 0) throw new IllegalArgumentException("negative migrationRate");
+			return with(settings.withMigrationRate(migrationRate));
+		}
+
+		/**
+		 * <p>
+		 * Creates sets that halve their storage when the proportion of
+		 * occupied slots falls below the specified low water mark. The storage
+		 * and equivalence of the sets are unchanged.
+		 *
+		 * <p>
+		 * By default, sets never shrink automatically, though their storage
+		 * may always be reduced explicitly with
+		 * {@link EquivalenceSet#compact()}. To avoid repeatedly shrinking and
+		 * growing, the low water mark may not exceed one quarter.
+		 *
+		 * @param lowWaterMark
+		 *            the proportion of occupied slots below which sets shrink,
+		 *            or zero for sets that never shrink automatically
+		 * @return sets that shrink at the specified low water mark
+		 */
+
+		public Sets<E> withLowWaterMark(float lowWaterMark) {
+			if (lowWaterMark < 0f) throw new IllegalArgumentException("negative lowWaterMark");
+			if (lowWaterMark > 0.25f) throw new IllegalArgumentException("lowWaterMark exceeds one quarter");
+			return with(settings.withLowWaterMark(lowWaterMark));
+		}
+
+		/**
+		 * <p>
+		 * Creates sets that retain the hash of the element in every occupied
+		 * slot. The storage and equivalence of the sets are unchanged.
+		 *
+		 * <p>
+		 * Before testing an element for equivalence with the occupant of a
+		 * slot, the hash of the element is compared with the retained hash,
+		 * so that the equivalence is only consulted for elements that are
+		 * very likely to be equivalent. When a set is enlarged or shrunk, the
+		 * retained hashes are used to relocate its elements without hashing
+		 * them again. This is worthwhile when elements are expensive to hash
+		 * or to compare, as with serialization-based equivalences or large
+		 * arrays, at the cost of an additional <code>int</code> per slot. By
+		 * default, hashes are not retained.
+		 *
+		 * @param hashCaching
+		 *            whether the hashes of elements should be retained
+		 * @return sets that retain hashes as specified
+		 */
+
+		public Sets<E> withHashCaching(boolean hashCaching) {
+			return with(settings.withHashCaching(hashCaching));
+		}
+
+		/**
+		 * Creates sets that tag every slot with a byte derived from the hash
+		 * of its occupant. The storage and equivalence of the sets is
+		 * unchanged.
+		 *
+		 * <p>
+		 * When searching a bucket for an element, the tags of up to eight
+		 * slots are compared with the tag of the element at once, and only
+		 * the occupants of slots with matching tags are tested for
+		 * equivalence. Tags also locate empty slots without reading the
+		 * backing store. This is most effective in combination with large
+		 * buckets, at the cost of an additional byte per slot. By default,
+		 * slots are not tagged.
+		 *
+		 * @param slotTagging
+		 *            whether slots should be tagged
+		 * @return sets that tag slots as specified
+		 */
+
+		public Sets<E> withSlotTagging(boolean slotTagging) {
+			return with(settings.withSlotTagging(slotTagging));
+		}
+
 		/**
 		 * Creates a new mutable empty set.
 		 *
 		 * @return an empty set
 		 */
 		public EquivalenceSet<E> newSet() {
-			return new CuckooEquivalenceSet<>(new Cuckoo<>(new Random(0L), equivalence), storage, DEFAULT_CAPACITY);
+			return new CuckooEquivalenceSet<>(cuckoo(), storage, DEFAULT_CAPACITY);
+		}
+
+		/**
+		 * <p>
+		 * Creates a new mutable empty set of <code>int</code> values which
+		 * may be accessed without boxing. The set is backed by a primitive
+		 * array and is under equality, irrespective of the storage and
+		 * equivalence of these sets; the hash count, bucket size, eviction
+		 * depth, stash size and low water mark are observed, but resizing is
+		 * never incremental.
+		 *
+		 * @return an empty int set
+		 */
+
+		public IntEquivalenceSet newIntSet() {
+			return new CuckooIntEquivalenceSet(cuckoo(), false, DEFAULT_CAPACITY);
+		}
+
+		/**
+		 * Creates a new mutable empty set of <code>long</code> values which
+		 * may be accessed without boxing.
+		 *
+		 * @return an empty long set
+		 * @see #newIntSet()
+		 */
+
+		public LongEquivalenceSet newLongSet() {
+			return new CuckooLongEquivalenceSet(cuckoo(), false, DEFAULT_CAPACITY);
+		}
+
+		/**
+		 * <p>
+		 * Creates a new mutable empty set of <code>int</code> values held in
+		 * memory outside of the Java heap. The set is otherwise configured as
+		 * if by {@link #newIntSet()}.
+		 *
+		 * <p>
+		 * The memory is relinquished when the set is closed, or when the set
+		 * itself is garbage collected, and is then reclaimed by the garbage
+		 * collector. No other collections created here can be closed;
+		 * maps, including those created by {@link Maps#newLongValuedMap()}, hold
+		 * their entries in storage as other collections do.
+		 *
+		 * @return an empty int set held outside the heap
+		 */
+
+		public DirectIntEquivalenceSet newDirectIntSet() {
+			return new CuckooDirectIntEquivalenceSet(cuckoo(), DEFAULT_CAPACITY);
+		}
+
+		/**
+		 * Creates a new mutable empty set of <code>long</code> values held in
+		 * memory outside of the Java heap.
+		 *
+		 * @return an empty long set held outside the heap
+		 * @see #newDirectIntSet()
+		 */
+
+		public DirectLongEquivalenceSet newDirectLongSet() {
+			return new CuckooDirectLongEquivalenceSet(cuckoo(), DEFAULT_CAPACITY);
+		}
+
+		/**
+		 * Creates a new mutable empty bag that counts occurrences of elements
+		 * of these sets. The counts are held in a primitive array parallel to
+		 * the elements, and an element is located only once to update its
+		 * count. Resizing is never incremental.
+		 *
+		 * @return an empty bag
+		 */
+
+		public EquivalenceBag<E> newBag() {
+			return new CuckooEquivalenceBag<>(cuckoo(), storage, DEFAULT_CAPACITY);
 		}
 
 		/**
@@ -142,31 +521,101 @@ public final class Collect {
 
 		public EquivalenceSet<E> newSet(Collection<? extends E> es) {
 			if (es == null) throw new IllegalArgumentException("null es");
-			int capacity;
-			int size = es.size();
-			if (size < 2) {
-				capacity = size;
-			} else if (size < 10) {
-				capacity = size + 2;
-			} else {
-				capacity = Math.round(es.size() * 1.2f);
-			}
-			//TODO should be a more efficient way of doing this
-			EquivalenceSet<E> set = new CuckooEquivalenceSet<>(new Cuckoo<>(new Random(0L), equivalence), storage.mutable(), capacity);
-			set.addAll(es);
+			EquivalenceSet<E> set = new CuckooEquivalenceSet<>(cuckoo(), storage.mutable(), es);
+			return storage.isStorageMutable() ? set : set.immutableView();
+		}
+
+		/**
+		 * <p>
+		 * Creates a new immutable set containing the supplied elements, in
+		 * which each element is located by a minimal perfect hash. Every
+		 * lookup examines exactly one slot and no storage is wasted on empty
+		 * slots, which makes these sets well suited to reference data that is
+		 * queried far more often than it is built.
+		 *
+		 * <p>
+		 * Constructing a perfect hash is considerably slower than
+		 * constructing an ordinary set. Inequivalent elements with equal hash
+		 * values cannot be separated by a perfect hash; all but one of them
+		 * occupy additional slots which are examined when looking up such an
+		 * element. Only for pathological hashes, where no arrangement is
+		 * found, is an ordinary immutable set returned instead.
+		 *
+		 * @param es
+		 *            the elements the set should contain
+		 * @return an immutable set containing those elements
+		 */
+
+		public EquivalenceSet<E> newPerfectSet(Collection<? extends E> es) {
+			if (es == null) throw new IllegalArgumentException("null es");
+			// eliminates equivalent elements
+			EquivalenceSet<E> set = new CuckooEquivalenceSet<>(cuckoo(), storage.mutable(), es);
+			Object[] elements = set.toArray();
+			Perfect<E> perfect = Perfect.arrange(equivalence, elements, null);
+			if (perfect == null) return set.immutable();
+			return new PerfectEquivalenceSet<>(perfect, cuckoo(), storage, newStore(storage, elements));
+		}
+
+		/**
+		 * <p>
+		 * Writes a set to a stream from which it can be read with
+		 * {@link #readSet(StreamDeserializer, ReadStream)}. The elements of
+		 * sets created by these objects are written in the order of the slots
+		 * they occupy, together with the configuration that determined those
+		 * slots.
+		 *
+		 * <p>
+		 * Reading the set back with sets of the same configuration under the
+		 * same equivalence restores every element to its slot, without
+		 * computing any hashes beyond those of a few sampled elements, which
+		 * confirm that the elements hash as they did when written. Otherwise,
+		 * and always for sets under identity, the elements are rehashed as
+		 * they are read.
+		 *
+		 * @param set
+		 *            the set to be written
+		 * @param serializer
+		 *            writes the elements of the set
+		 * @param stream
+		 *            the stream to which the set is written
+		 */
+
+		public void writeSet(EquivalenceSet<E> set, StreamSerializer<E> serializer, WriteStream stream) {
+			if (set == null) throw new IllegalArgumentException("null set");
+			if (serializer == null) throw new IllegalArgumentException("null serializer");
+			if (stream == null) throw new IllegalArgumentException("null stream");
+			CuckooEquivalenceSet.write(set, serializer, stream);
+		}
+
+		/**
+		 * Reads a new set from a stream to which a set was written with
+		 * {@link #writeSet(EquivalenceSet, StreamSerializer, WriteStream)}.
+		 * The set is mutable if the storage of these sets is mutable.
+		 *
+		 * @param deserializer
+		 *            reads the elements of the set
+		 * @param stream
+		 *            the stream from which the set is read
+		 * @return a new set containing the elements that were written
+		 */
+
+		public EquivalenceSet<E> readSet(StreamDeserializer<E> deserializer, ReadStream stream) {
+			if (deserializer == null) throw new IllegalArgumentException("null deserializer");
+			if (stream == null) throw new IllegalArgumentException("null stream");
+			EquivalenceSet<E> set = CuckooEquivalenceSet.read(cuckoo(), storage.mutable(), deserializer, stream);
 			return storage.isStorageMutable() ? set : set.immutableView();
 		}
 
 		public EquivalenceSet<E> singletonSet(E el) {
 			if (el == null) throw new IllegalArgumentException("null el");
-			EquivalenceSet<E> set = new CuckooEquivalenceSet<>(trivialCuckoo(), storage.mutable(), 1);
+			EquivalenceSet<E> set = new CuckooEquivalenceSet<>(cuckoo(), storage.mutable(), 1);
 			set.add(el);
 			return set.immutable();
 		}
 
 		public EquivalenceSet<E> emptySet() {
 			//note: must be given a non-zero capacity, because hashes cannot be zero sized
-			return emptySet == null ? emptySet = new CuckooEquivalenceSet<>(trivialCuckoo(), storage, 1).immutable() : emptySet;
+			return emptySet == null ? emptySet = new CuckooEquivalenceSet<>(cuckoo(), storage, 1).immutable() : emptySet;
 		}
 
 		/**
@@ -204,12 +653,26 @@ public final class Collect {
 			return new Maps<>(this, storage);
 		}
 
-		private Cuckoo<E> trivialCuckoo() {
-			return trivialCuckoo == null ? trivialCuckoo = new Cuckoo<>(FauxRandom.INSTANCE, equivalence) : trivialCuckoo;
+		// an immutable store containing the supplied values
+		@SuppressWarnings("unchecked")
+		static <T> Store<T> newStore(Storage<T> storage, Object[] values) {
+			Store<T> store = storage.mutable().newStore(values.length);
+			for (int i = 0; i < values.length; i++) {
+				store.set(i, (T) values[i]);
+			}
+			return store.immutable();
+		}
+
+		private Cuckoo<E> cuckoo() {
+			return cuckoo == null ? cuckoo = settings.cuckoo(equivalence) : cuckoo;
 		}
 
 		private Sets<E> under(Equivalence<E> equivalence) {
-			return this.equivalence == equivalence ? this : new Sets<>(this, equivalence);
+			return this.equivalence == equivalence ? this : new Sets<>(this, equivalence, settings);
+		}
+
+		private Sets<E> with(Cuckoo.Settings settings) {
+			return this.settings == settings ? this : new Sets<>(this, equivalence, settings);
 		}
 	}
 
@@ -220,31 +683,342 @@ public final class Collect {
 	public static final class Maps<K,V> {
 
 		private static final int DEFAULT_CAPACITY = 16;
+		private static final int DEFAULT_SEGMENT_COUNT = 16;
 
 		final Sets<K> sets;
 		final Storage<V> storage;
 		final Equivalence<V> equivalence;
+		final boolean valueIndexing;
 		private EquivalenceMap<K,V> empty = null;
 
 		Maps(Sets<K> sets, Storage<V> storage) {
 			this.sets = sets;
 			this.storage = storage;
 			this.equivalence = Equivalence.equality();
+			this.valueIndexing = false;
 		}
 
-		private Maps(Maps<K,V> that, Equivalence<V> equivalence) {
-			this.sets = that.sets;
+		private Maps(Maps<K,V> that, Sets<K> sets, Equivalence<V> equivalence, boolean valueIndexing) {
+			this.sets = sets;
 			this.storage = that.storage;
 			this.equivalence = equivalence;
+			this.valueIndexing = valueIndexing;
 		}
 
 		public EquivalenceMap<K, V> newMap() {
-			return new CuckooEquivalenceMap<>(new Cuckoo<>(new Random(0L), sets.equivalence), sets.storage, storage, equivalence, DEFAULT_CAPACITY);
+			return indexed(new CuckooEquivalenceMap<>(sets.cuckoo(), sets.storage, storage, equivalence, DEFAULT_CAPACITY));
+		}
+
+		/**
+		 * <p>
+		 * Creates a new mutable map that may be shared between threads. Keys
+		 * are striped across independently locked segments so that writers
+		 * to different segments do not contend, and readers do not lock
+		 * unless a write to their segment intervenes.
+		 *
+		 * <p>
+		 * Unlike other maps, concurrent maps do not support <code>null</code>
+		 * values.
+		 *
+		 * @return an empty concurrent map
+		 */
+
+		public ConcurrentEquivalenceMap<K, V> newConcurrentMap() {
+			return new ConcurrentCuckooEquivalenceMap<>(sets.cuckoo(), sets.storage, storage, equivalence, DEFAULT_SEGMENT_COUNT, DEFAULT_CAPACITY);
+		}
+
+		/**
+		 * <p>
+		 * Creates a new mutable map in which no two keys are associated with
+		 * equivalent values, and which can be viewed in reverse through
+		 * {@link EquivalenceBiMap#inverse()}. Values are held in a table laid
+		 * out like that of the keys, but under the value equivalence, and
+		 * each entry links the slots of its key and value, so that a lookup
+		 * in either direction locates a single element.
+		 *
+		 * <p>
+		 * Bidirectional maps do not support <code>null</code> values.
+		 *
+		 * @return an empty bidirectional map
+		 */
+
+		public EquivalenceBiMap<K, V> newBiMap() {
+			Cuckoo<K> cuckoo = sets.cuckoo();
+			return new CuckooEquivalenceBiMap<>(cuckoo, sets.storage, cuckoo.under(equivalence), storage, DEFAULT_CAPACITY);
+		}
+
+		/**
+		 * Creates a new mutable multimap, in which each key may be associated
+		 * with several values. The values of all keys are packed into a
+		 * single store obtained from the value storage of these maps, so that
+		 * no object is allocated per key.
+		 *
+		 * @return an empty multimap
+		 */
+
+		public EquivalenceMultimap<K, V> newMultimap() {
+			return new CuckooEquivalenceMultimap<>(sets.cuckoo(), sets.storage, storage, equivalence, DEFAULT_CAPACITY);
+		}
+
+		/**
+		 * Creates a new mutable empty map from keys to <code>long</code>
+		 * values. The keys are held as they are by other maps, but the values
+		 * are held in a primitive array, and may be read and updated without
+		 * boxing; the value storage and value equivalence of these maps are
+		 * not used. Resizing is never incremental.
+		 *
+		 * @return an empty long valued map
+		 */
+
+		public LongValuedEquivalenceMap<K> newLongValuedMap() {
+			return new CuckooLongValuedEquivalenceMap<>(sets.cuckoo(), sets.storage, DEFAULT_CAPACITY);
+		}
+
+		/**
+		 * Creates a new mutable map initially containing the entries of the
+		 * supplied map. Where several keys of the supplied map are equivalent
+		 * under the key equivalence of the new map, the value of the last is
+		 * retained.
+		 *
+		 * @param map
+		 *            the entries the map should contain
+		 * @return a new map containing those entries
+		 */
+
+		public EquivalenceMap<K, V> newMap(Map<? extends K, ? extends V> map) {
+			if (map == null) throw new IllegalArgumentException("null map");
+			EquivalenceMap<K, V> newMap = indexed(new CuckooEquivalenceMap<>(sets.cuckoo(), sets.storage.mutable(), storage.mutable(), equivalence, map));
+			return sets.storage.isStorageMutable() && storage.isStorageMutable() ? newMap : newMap.immutableView();
+		}
+
+		/**
+		 * Creates a new immutable map containing the entries of the supplied
+		 * map, in which each key is located by a minimal perfect hash. Where
+		 * several keys of the supplied map are equivalent, the value of the
+		 * last is retained.
+		 *
+		 * @param map
+		 *            the entries the map should contain
+		 * @return an immutable map containing those entries
+		 * @see Sets#newPerfectSet(Collection)
+		 */
+
+		public EquivalenceMap<K, V> newPerfectMap(Map<? extends K, ? extends V> map) {
+			if (map == null) throw new IllegalArgumentException("null map");
+			// eliminates equivalent keys
+			EquivalenceMap<K, V> newMap = new CuckooEquivalenceMap<>(sets.cuckoo(), sets.storage.mutable(), storage.mutable(), equivalence, map);
+			int size = newMap.size();
+			Object[] keys = new Object[size];
+			Object[] values = new Object[size];
+			int j = 0;
+			for (Map.Entry<K, V> entry : newMap.entrySet()) {
+				keys[j] = entry.getKey();
+				values[j] = entry.getValue();
+				j++;
+			}
+			Perfect<K> perfect = Perfect.arrange(sets.equivalence, keys, values);
+			if (perfect == null) return newMap.immutable();
+			return new PerfectEquivalenceMap<>(perfect, sets.cuckoo(), sets.storage, storage, equivalence, Sets.newStore(sets.storage, keys), Sets.newStore(storage, values));
+		}
+
+		/**
+		 * Writes a map to a stream from which it can be read with
+		 * {@link #readMap(StreamDeserializer, StreamDeserializer, ReadStream)}.
+		 * Values may be null.
+		 *
+		 * @param map
+		 *            the map to be written
+		 * @param keySerializer
+		 *            writes the keys of the map
+		 * @param valueSerializer
+		 *            writes the non-null values of the map
+		 * @param stream
+		 *            the stream to which the map is written
+		 * @see Sets#writeSet(EquivalenceSet, StreamSerializer, WriteStream)
+		 */
+
+		public void writeMap(EquivalenceMap<K, V> map, StreamSerializer<K> keySerializer, StreamSerializer<V> valueSerializer, WriteStream stream) {
+			if (map == null) throw new IllegalArgumentException("null map");
+			if (keySerializer == null) throw new IllegalArgumentException("null keySerializer");
+			if (valueSerializer == null) throw new IllegalArgumentException("null valueSerializer");
+			if (stream == null) throw new IllegalArgumentException("null stream");
+			CuckooEquivalenceMap.write(map, keySerializer, valueSerializer, stream);
+		}
+
+		/**
+		 * Reads a new map from a stream to which a map was written with
+		 * {@link #writeMap(EquivalenceMap, StreamSerializer, StreamSerializer, WriteStream)}.
+		 * If the keys were laid out with the same configuration, and under the
+		 * same equivalence, as the keys of these maps, they are restored to
+		 * their slots without being rehashed.
+		 *
+		 * @param keyDeserializer
+		 *            reads the keys of the map
+		 * @param valueDeserializer
+		 *            reads the non-null values of the map
+		 * @param stream
+		 *            the stream from which the map is read
+		 * @return a new map containing the entries that were written
+		 * @see Sets#readSet(StreamDeserializer, ReadStream)
+		 */
+
+		public EquivalenceMap<K, V> readMap(StreamDeserializer<K> keyDeserializer, StreamDeserializer<V> valueDeserializer, ReadStream stream) {
+			if (keyDeserializer == null) throw new IllegalArgumentException("null keyDeserializer");
+			if (valueDeserializer == null) throw new IllegalArgumentException("null valueDeserializer");
+			if (stream == null) throw new IllegalArgumentException("null stream");
+			EquivalenceMap<K, V> map = indexed(CuckooEquivalenceMap.read(sets.cuckoo(), sets.storage.mutable(), storage.mutable(), equivalence, keyDeserializer, valueDeserializer, stream));
+			return sets.storage.isStorageMutable() && storage.isStorageMutable() ? map : map.immutableView();
 		}
 
 		public EquivalenceMap<K, V> emptyMap() {
 			//note: must be given a non-zero capacity, because hashes cannot be zero sized
-			return empty == null ? empty = new CuckooEquivalenceMap<>(sets.trivialCuckoo(), sets.storage, storage, equivalence, 1).immutable() : empty;
+			return empty == null ? empty = new CuckooEquivalenceMap<>(sets.cuckoo(), sets.storage, storage, equivalence, 1).immutable() : empty;
+		}
+
+		/**
+		 * Creates maps that use the specified number of hash functions to
+		 * locate each key. The storage and equivalences of the maps are
+		 * unchanged.
+		 *
+		 * @param hashCount
+		 *            the number of hashes used per key, at least two
+		 * @return maps using the specified number of hashes
+		 * @see Sets#withHashCount(int)
+		 */
+
+		public Maps<K,V> withHashCount(int hashCount) {
+			return with(sets.withHashCount(hashCount));
+		}
+
+		/**
+		 * Creates maps in which each key hash identifies a bucket of adjacent
+		 * slots. The storage and equivalences of the maps are unchanged.
+		 *
+		 * @param bucketSize
+		 *            the number of slots per bucket, at least one and at most
+		 *            1024
+		 * @return maps with the specified bucket size
+		 * @see Sets#withBucketSize(int)
+		 */
+
+		public Maps<K,V> withBucketSize(int bucketSize) {
+			return with(sets.withBucketSize(bucketSize));
+		}
+
+		/**
+		 * Creates maps that will displace at most the specified number of
+		 * keys to accommodate a new key. The storage and equivalences of the
+		 * maps are unchanged.
+		 *
+		 * @param evictionDepth
+		 *            the greatest number of keys displaced by an insertion, at
+		 *            least one
+		 * @return maps with the specified eviction depth
+		 * @see Sets#withEvictionDepth(int)
+		 */
+
+		public Maps<K,V> withEvictionDepth(int evictionDepth) {
+			return with(sets.withEvictionDepth(evictionDepth));
+		}
+
+		/**
+		 * Creates maps that reserve the specified number of slots for keys
+		 * which cannot otherwise be accommodated. The storage and
+		 * equivalences of the maps are unchanged.
+		 *
+		 * @param stashSize
+		 *            the number of slots in the stash, possibly zero
+		 * @return maps with a stash of the specified size
+		 * @see Sets#withStashSize(int)
+		 */
+
+		public Maps<K,V> withStashSize(int stashSize) {
+			return with(sets.withStashSize(stashSize));
+		}
+
+		/**
+		 * Creates maps that grow incrementally. The storage and equivalences
+		 * of the maps are unchanged.
+		 *
+		 * @param migrationRate
+		 *            the number of slots migrated per put, or zero to grow maps
+		 *            in a single operation
+		 * @return maps that grow incrementally at the specified rate
+		 * @see Sets#withIncrementalResizing(int)
+		 */
+
+		public Maps<K,V> withIncrementalResizing(int migrationRate) {
+			return with(sets.withIncrementalResizing(migrationRate));
+		}
+
+		/**
+		 * Creates maps that halve their storage when the proportion of
+		 * occupied slots falls below the specified low water mark. The storage
+		 * and equivalences of the maps are unchanged.
+		 *
+		 * @param lowWaterMark
+		 *            the proportion of occupied slots below which maps shrink,
+		 *            or zero for maps that never shrink automatically
+		 * @return maps that shrink at the specified low water mark
+		 * @see Sets#withLowWaterMark(float)
+		 */
+
+		public Maps<K,V> withLowWaterMark(float lowWaterMark) {
+			return with(sets.withLowWaterMark(lowWaterMark));
+		}
+
+		/**
+		 * Creates maps that retain the hash of the key in every occupied slot.
+		 * The storage and equivalences of the maps are unchanged.
+		 *
+		 * @param hashCaching
+		 *            whether the hashes of keys should be retained
+		 * @return maps that retain hashes as specified
+		 * @see Sets#withHashCaching(boolean)
+		 */
+
+		public Maps<K,V> withHashCaching(boolean hashCaching) {
+			return with(sets.withHashCaching(hashCaching));
+		}
+
+		/**
+		 * Creates maps that tag every slot with a byte derived from the hash
+		 * of its key. The storage and equivalences of the maps are unchanged.
+		 *
+		 * @param slotTagging
+		 *            whether slots should be tagged
+		 * @return maps that tag slots as specified
+		 * @see Sets#withSlotTagging(boolean)
+		 */
+
+		public Maps<K,V> withSlotTagging(boolean slotTagging) {
+			return with(sets.withSlotTagging(slotTagging));
+		}
+
+		/**
+		 * <p>
+		 * Creates maps that index their values, so that
+		 * {@link Map#containsValue(Object)} and the removal of values through
+		 * the {@link Map#values()} collection do not examine every entry. The
+		 * storage and equivalences of the maps are unchanged.
+		 *
+		 * <p>
+		 * The index records, for each value under the value equivalence, one
+		 * key through which the value is located, and links together the keys
+		 * which share a value, so that another is recorded when that key is
+		 * removed. Maps that index their values are never resized
+		 * incrementally. Maintaining the index adds to the cost of every
+		 * modification of a map, and to its memory footprint. By default,
+		 * values are not indexed. Concurrent and perfect maps are never
+		 * indexed.
+		 *
+		 * @param valueIndexing
+		 *            whether values should be indexed
+		 * @return maps that index values as specified
+		 */
+
+		public Maps<K,V> withValueIndexing(boolean valueIndexing) {
+			return valueIndexing == this.valueIndexing ? this : new Maps<>(this, sets, equivalence, valueIndexing);
 		}
 
 		public Maps<K,V> underEquality() {
@@ -261,7 +1035,15 @@ public final class Collect {
 		}
 
 		private Maps<K,V> under(Equivalence<V> equivalence) {
-			return equivalence == this.equivalence ? this : new Maps<>(this, equivalence);
+			return equivalence == this.equivalence ? this : new Maps<>(this, sets, equivalence, valueIndexing);
+		}
+
+		private Maps<K,V> with(Sets<K> sets) {
+			return sets == this.sets ? this : new Maps<>(this, sets, equivalence, valueIndexing);
+		}
+
+		private CuckooEquivalenceMap<K, V> indexed(CuckooEquivalenceMap<K, V> map) {
+			return valueIndexing ? map.indexValues() : map;
 		}
 
 	}
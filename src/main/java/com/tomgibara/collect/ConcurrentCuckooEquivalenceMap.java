@@ -0,0 +1,691 @@
+package com.tomgibara.collect;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+
+import com.tomgibara.storage.Storage;
+
+// stripes keys across independently locked cuckoo maps; writers hold the
+// write lock of a single segment, while readers proceed optimistically and
+// only take the read lock if a write to the segment intervened
+final class ConcurrentCuckooEquivalenceMap<K, V> extends AbstractMap<K, V> implements ConcurrentEquivalenceMap<K, V> {
+
+	private static final Object[] NO_OBJECTS = new Object[0];
+
+	private final Cuckoo<K> cuckoo;
+	private final Storage<K> keyStorage;
+	private final Storage<V> valueStorage;
+	private final Equivalence<V> equ;
+	private final Segment[] segments;
+
+	private Entries entries = null;
+	private Keys keys = null;
+	private Values values = null;
+
+	@SuppressWarnings("unchecked")
+	ConcurrentCuckooEquivalenceMap(Cuckoo<K> cuckoo, Storage<K> keyStorage, Storage<V> valueStorage, Equivalence<V> equ, int segmentCount, int initialCapacity) {
+		this.cuckoo = cuckoo;
+		this.keyStorage = keyStorage;
+		this.valueStorage = valueStorage;
+		this.equ = equ;
+		segments = new ConcurrentCuckooEquivalenceMap.Segment[segmentCount];
+		int capacity = Math.max(1, initialCapacity / segmentCount);
+		for (int i = 0; i < segmentCount; i++) {
+			segments[i] = new Segment(new CuckooEquivalenceMap<>(cuckoo, keyStorage, valueStorage, equ, capacity));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private ConcurrentCuckooEquivalenceMap(ConcurrentCuckooEquivalenceMap<K, V> that) {
+		this.cuckoo = that.cuckoo;
+		this.keyStorage = that.keyStorage;
+		this.valueStorage = that.valueStorage;
+		this.equ = that.equ;
+		int segmentCount = that.segments.length;
+		segments = new ConcurrentCuckooEquivalenceMap.Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			segments[i] = new Segment(that.segments[i].copy());
+		}
+	}
+
+	// equivalence methods
+
+	@Override
+	public Equivalence<K> getKeyEquivalence() {
+		return cuckoo.equ;
+	}
+
+	@Override
+	public Equivalence<V> getValueEquivalence() {
+		return equ;
+	}
+
+	// map methods
+
+	@Override
+	public boolean containsKey(Object key) {
+		Segment segment = segmentFor(key);
+		return segment != null && segment.containsKey(key);
+	}
+
+	@Override
+	public V get(Object key) {
+		Segment segment = segmentFor(key);
+		return segment == null ? null : segment.get(key);
+	}
+
+	@Override
+	public V getOrDefault(Object key, V defaultValue) {
+		V value = get(key);
+		return value == null ? defaultValue : value;
+	}
+
+	@Override
+	public int size() {
+		long size = 0L;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		return (int) Math.min(size, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		for (Segment segment : segments) {
+			if (segment.size() != 0) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean containsValue(Object value) {
+		if (value == null) return false;
+		for (Segment segment : segments) {
+			if (segment.containsValue(value)) return true;
+		}
+		return false;
+	}
+
+	@Override
+	public V put(K key, V value) {
+		checkValue(value);
+		return checkedSegmentFor(key).put(key, value);
+	}
+
+	@Override
+	public V putIfAbsent(K key, V value) {
+		checkValue(value);
+		return checkedSegmentFor(key).putIfAbsent(key, value);
+	}
+
+	@Override
+	public V remove(Object key) {
+		Segment segment = segmentFor(key);
+		return segment == null ? null : segment.remove(key);
+	}
+
+	@Override
+	public boolean remove(Object key, Object value) {
+		if (value == null) return false;
+		Segment segment = segmentFor(key);
+		return segment != null && segment.remove(key, value);
+	}
+
+	@Override
+	public V replace(K key, V value) {
+		checkValue(value);
+		return checkedSegmentFor(key).replace(key, value);
+	}
+
+	@Override
+	public boolean replace(K key, V oldValue, V newValue) {
+		checkValue(newValue);
+		if (oldValue == null) return false;
+		return checkedSegmentFor(key).replace(key, oldValue, newValue);
+	}
+
+	@Override
+	public void clear() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	@Override
+	public Set<Entry<K, V>> entrySet() {
+		return entries == null ? entries = new Entries() : entries;
+	}
+
+	@Override
+	public EquivalenceSet<K> keySet() {
+		return keys == null ? keys = new Keys() : keys;
+	}
+
+	@Override
+	public Collection<V> values() {
+		return values == null ? values = new Values() : values;
+	}
+
+	// equivalence map methods
+
+	@Override
+	public void compact() {
+		for (Segment segment : segments) {
+			segment.compact();
+		}
+	}
+
+	// mutability methods
+
+	@Override
+	public boolean isMutable() {
+		return true;
+	}
+
+	@Override
+	public EquivalenceMap<K, V> mutable() {
+		return this;
+	}
+
+	@Override
+	public EquivalenceMap<K, V> immutable() {
+		return immutableView();
+	}
+
+	@Override
+	public ConcurrentEquivalenceMap<K, V> mutableCopy() {
+		return new ConcurrentCuckooEquivalenceMap<>(this);
+	}
+
+	@Override
+	public EquivalenceMap<K, V> immutableCopy() {
+		// each segment is copied under its read lock, though the copy is not atomic across segments
+		Object[][][] snapshots = new Object[segments.length][][];
+		int size = 0;
+		for (int i = 0; i < segments.length; i++) {
+			snapshots[i] = segments[i].snapshot();
+			size += snapshots[i][0].length;
+		}
+		Object[] keys = new Object[size];
+		Object[] values = new Object[size];
+		int j = 0;
+		for (Object[][] snapshot : snapshots) {
+			int length = snapshot[0].length;
+			System.arraycopy(snapshot[0], 0, keys, j, length);
+			System.arraycopy(snapshot[1], 0, values, j, length);
+			j += length;
+		}
+		return new CuckooEquivalenceMap<>(cuckoo, keyStorage.mutable(), valueStorage.mutable(), equ, keys, values).immutable();
+	}
+
+	@Override
+	public EquivalenceMap<K, V> immutableView() {
+		return new ImmutableEquivalenceMap<>(this);
+	}
+
+	// private helper methods
+
+	// the segment that may contain the key, or null if the key cannot be hashed
+	@SuppressWarnings("unchecked")
+	private Segment segmentFor(Object key) {
+		if (key == null) return null;
+		// we don't really have a way of avoiding these possible exceptions
+		try {
+			return segments[Cuckoo.bucket(cuckoo.hash((K) key), -1, segments.length)];
+		} catch (ClassCastException|IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private Segment checkedSegmentFor(K key) {
+		if (key == null) throw new IllegalArgumentException("null key");
+		return segments[Cuckoo.bucket(cuckoo.hash(key), -1, segments.length)];
+	}
+
+	private void checkValue(V value) {
+		if (value == null) throw new IllegalArgumentException("null value");
+	}
+
+	// inner classes
+
+	// a cuckoo map guarded by its own lock
+	private final class Segment {
+
+		private final StampedLock lock = new StampedLock();
+		private final CuckooEquivalenceMap<K, V> map;
+
+		Segment(CuckooEquivalenceMap<K, V> map) {
+			this.map = map;
+		}
+
+		// reads
+
+		// a write may leave the map momentarily inconsistent, so any outcome
+		// of an optimistic read, including an exception, is only trusted if
+		// the stamp remains valid
+		V get(Object key) {
+			long stamp = lock.tryOptimisticRead();
+			if (stamp != 0L) try {
+				V value = map.get(key);
+				if (lock.validate(stamp)) return value;
+			} catch (RuntimeException e) {
+				/* retried under the read lock */
+			}
+			stamp = lock.readLock();
+			try {
+				return map.get(key);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		boolean containsKey(Object key) {
+			long stamp = lock.tryOptimisticRead();
+			if (stamp != 0L) try {
+				boolean contained = map.containsKey(key);
+				if (lock.validate(stamp)) return contained;
+			} catch (RuntimeException e) {
+				/* retried under the read lock */
+			}
+			stamp = lock.readLock();
+			try {
+				return map.containsKey(key);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		K key(K key) {
+			long stamp = lock.readLock();
+			try {
+				return map.keySet().get(key);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		int size() {
+			long stamp = lock.tryOptimisticRead();
+			if (stamp != 0L) try {
+				int size = map.size();
+				if (lock.validate(stamp)) return size;
+			} catch (RuntimeException e) {
+				/* retried under the read lock */
+			}
+			stamp = lock.readLock();
+			try {
+				return map.size();
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		boolean containsValue(Object value) {
+			long stamp = lock.readLock();
+			try {
+				return map.containsValue(value);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		K some() {
+			long stamp = lock.readLock();
+			try {
+				return map.keySet().some();
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		// the keys and values of the segment, taken together
+		Object[][] snapshot() {
+			long stamp = lock.readLock();
+			try {
+				int size = map.size();
+				Object[] keys = new Object[size];
+				Object[] values = new Object[size];
+				int i = 0;
+				for (Entry<K, V> entry : map.entrySet()) {
+					keys[i] = entry.getKey();
+					values[i] = entry.getValue();
+					i++;
+				}
+				return new Object[][] { keys, values };
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		CuckooEquivalenceMap<K, V> copy() {
+			long stamp = lock.readLock();
+			try {
+				return (CuckooEquivalenceMap<K, V>) map.mutableCopy();
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		// writes
+
+		V put(K key, V value) {
+			long stamp = lock.writeLock();
+			try {
+				return map.put(key, value);
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		V putIfAbsent(K key, V value) {
+			long stamp = lock.writeLock();
+			try {
+				return map.putIfAbsent(key, value);
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		V remove(Object key) {
+			long stamp = lock.writeLock();
+			try {
+				return map.remove(key);
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		boolean remove(Object key, Object value) {
+			long stamp = lock.writeLock();
+			try {
+				return map.remove(key, value);
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		V replace(K key, V value) {
+			long stamp = lock.writeLock();
+			try {
+				return map.replace(key, value);
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		boolean replace(K key, V oldValue, V newValue) {
+			long stamp = lock.writeLock();
+			try {
+				return map.replace(key, oldValue, newValue);
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		void clear() {
+			long stamp = lock.writeLock();
+			try {
+				map.clear();
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		void compact() {
+			long stamp = lock.writeLock();
+			try {
+				map.compact();
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+	}
+
+	// iterates over a snapshot of each segment in turn
+	private final class Snapshots<T> implements Iterator<T> {
+
+		private final BiFunction<K, V, T> transform;
+		private int segment = 0;
+		private Object[] keys = NO_OBJECTS;
+		private Object[] values = NO_OBJECTS;
+		private int index = 0;
+		private K last = null;
+
+		Snapshots(BiFunction<K, V, T> transform) {
+			this.transform = transform;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (index == keys.length) {
+				if (segment == segments.length) return false;
+				Object[][] snapshot = segments[segment++].snapshot();
+				keys = snapshot[0];
+				values = snapshot[1];
+				index = 0;
+			}
+			return true;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public T next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			last = (K) keys[index];
+			V value = (V) values[index];
+			index++;
+			return transform.apply(last, value);
+		}
+
+		@Override
+		public void remove() {
+			if (last == null) throw new IllegalStateException("no element");
+			ConcurrentCuckooEquivalenceMap.this.remove(last);
+			last = null;
+		}
+	}
+
+	private final class Keys extends AbstractSet<K> implements EquivalenceSet<K> {
+
+		// equivalence methods
+
+		@Override
+		public Equivalence<K> getEquivalence() {
+			return cuckoo.equ;
+		}
+
+		@Override
+		public K get(K e) {
+			if (e == null) throw new IllegalArgumentException("null e");
+			return checkedSegmentFor(e).key(e);
+		}
+
+		@Override
+		public K some() {
+			for (Segment segment : segments) {
+				K key = segment.some();
+				if (key != null) return key;
+			}
+			return null;
+		}
+
+		// set methods
+
+		@Override
+		public int size() {
+			return ConcurrentCuckooEquivalenceMap.this.size();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return ConcurrentCuckooEquivalenceMap.this.isEmpty();
+		}
+
+		@Override
+		public void clear() {
+			ConcurrentCuckooEquivalenceMap.this.clear();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return containsKey(o);
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			Segment segment = segmentFor(o);
+			if (segment == null) return false;
+			// values are never null, so this identifies a removal
+			return segment.remove(o) != null;
+		}
+
+		@Override
+		public Iterator<K> iterator() {
+			return new Snapshots<>((k, v) -> k);
+		}
+
+		// equivalence set methods
+
+		@Override
+		public void compact() {
+			ConcurrentCuckooEquivalenceMap.this.compact();
+		}
+
+		// mutability methods
+
+		@Override
+		public boolean isMutable() {
+			return true;
+		}
+
+		@Override
+		public EquivalenceSet<K> mutableCopy() {
+			return new CuckooEquivalenceSet<>(cuckoo, keyStorage.mutable(), this);
+		}
+
+		@Override
+		public EquivalenceSet<K> immutableCopy() {
+			return mutableCopy().immutable();
+		}
+
+		@Override
+		public EquivalenceSet<K> immutableView() {
+			return ConcurrentCuckooEquivalenceMap.this.immutableView().keySet();
+		}
+	}
+
+	private final class Values extends AbstractCollection<V> {
+
+		@Override
+		public int size() {
+			return ConcurrentCuckooEquivalenceMap.this.size();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return ConcurrentCuckooEquivalenceMap.this.isEmpty();
+		}
+
+		@Override
+		public void clear() {
+			ConcurrentCuckooEquivalenceMap.this.clear();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return containsValue(o);
+		}
+
+		@Override
+		public Iterator<V> iterator() {
+			return new Snapshots<>((k, v) -> v);
+		}
+
+	}
+
+	private final class Entries extends AbstractSet<Entry<K, V>> {
+
+		@Override
+		public int size() {
+			return ConcurrentCuckooEquivalenceMap.this.size();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return ConcurrentCuckooEquivalenceMap.this.isEmpty();
+		}
+
+		@Override
+		public void clear() {
+			ConcurrentCuckooEquivalenceMap.this.clear();
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public boolean contains(Object o) {
+			if (!(o instanceof Entry)) return false;
+			Entry<?,?> e = (Entry<?,?>) o;
+			Object v = e.getValue();
+			if (v == null) return false;
+			V value = get(e.getKey());
+			if (value == null) return false;
+			try {
+				return equ.isEquivalent(value, (V) v);
+			} catch (IllegalArgumentException|ClassCastException ex) {
+				return false;
+			}
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			if (!(o instanceof Entry)) return false;
+			Entry<?,?> e = (Entry<?,?>) o;
+			return ConcurrentCuckooEquivalenceMap.this.remove(e.getKey(), e.getValue());
+		}
+
+		@Override
+		public Iterator<Entry<K, V>> iterator() {
+			return new Snapshots<>((k, v) -> new ConcurrentEntry(k, v));
+		}
+	}
+
+	// entries write through to the map, but retain the value they were created with
+	private final class ConcurrentEntry extends AbstractMapEntry<K, V> {
+
+		private final K key;
+		private V value;
+
+		ConcurrentEntry(K key, V value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		@Override
+		public K getKey() {
+			return key;
+		}
+
+		@Override
+		public V getValue() {
+			return value;
+		}
+
+		@Override
+		public V setValue(V value) {
+			if (value == null) throw new IllegalArgumentException("null value");
+			V previous = this.value;
+			put(key, value);
+			this.value = value;
+			return previous;
+		}
+
+	}
+}
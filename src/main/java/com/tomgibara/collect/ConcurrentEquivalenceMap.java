@@ -0,0 +1,33 @@
+package com.tomgibara.collect;
+
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * An {@link EquivalenceMap} that may be safely accessed and modified by
+ * multiple threads. Keys are distinguished by the key equivalence of the map,
+ * and the atomicity guarantees of {@link ConcurrentMap} apply under that
+ * equivalence.
+ *
+ * <p>
+ * As with other concurrent maps, <code>null</code> values are not supported.
+ * The key set, values and entries of the map are weakly consistent views:
+ * their iterators never throw
+ * {@link java.util.ConcurrentModificationException} but may not reflect
+ * modifications made after their creation.
+ *
+ * @author Tom Gibara
+ *
+ * @param <K>
+ *            the keys type under equivalence
+ * @param <V>
+ *            the value type under equivalence
+ * @see Collect.Maps#newConcurrentMap()
+ */
+
+public interface ConcurrentEquivalenceMap<K, V> extends EquivalenceMap<K, V>, ConcurrentMap<K, V> {
+
+	@Override
+	ConcurrentEquivalenceMap<K, V> mutableCopy();
+
+}
@@ -1,214 +1,666 @@
 package com.tomgibara.collect;
 
-import java.util.Random;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 
-import com.tomgibara.hashing.HashCode;
-import com.tomgibara.hashing.HashSize;
 import com.tomgibara.hashing.Hasher;
 import com.tomgibara.storage.Store;
+import com.tomgibara.streams.ReadStream;
+import com.tomgibara.streams.WriteStream;
 
-//TODO hash count should be adjustable
 final class Cuckoo<E> {
 
 	// statics
-	
+
 	//hack to overcome lack of union return types in Java
-	
+
 	// indicates value was successfully added to store
 	static final Object SUCCESS = new Object();
 	// indicates value could not be added to store because it was already present
 	static final Object FAILURE = new Object();
-	
-	private static final int HASH_COUNT = 3;
-	private static final int RETRY_LIMIT = 3;
-	
+
+	// the number of hashes used if none is specified
+	static final int DEFAULT_HASH_COUNT = 3;
+	// the number of slots in each bucket if none is specified
+	static final int DEFAULT_BUCKET_SIZE = 1;
+	// the greatest number of hashes that may be used, bounding the work done per lookup
+	static final int MAX_HASH_COUNT = 64;
+	// the greatest number of slots in a bucket, bounding the work done per lookup
+	static final int MAX_BUCKET_SIZE = 1024;
+	// the greatest number of elements displaced by an insertion if none is specified
+	static final int DEFAULT_EVICTION_DEPTH = 5;
+	// the number of slots reserved for elements that cannot be placed if none is specified
+	static final int DEFAULT_STASH_SIZE = 0;
+	// the number of slots migrated per insertion after a resize, zero if resizing is not incremental
+	static final int DEFAULT_MIGRATION_RATE = 0;
+	// the proportion of slots below which occupancy causes a table to shrink, zero if tables never shrink
+	static final float DEFAULT_LOW_WATER_MARK = 0f;
+	// whether the hashes of elements are retained if not specified
+	static final boolean DEFAULT_HASH_CACHING = false;
+	// whether slots are tagged with hash bits if not specified
+	static final boolean DEFAULT_SLOT_TAGGING = false;
+
+	// tags are packed eight to a long, with bytes in ascending slot order from the least significant
+	private static final long LOW_BITS = 0x0101010101010101L;
+	private static final long HIGH_BITS = 0x8080808080808080L;
+	private static final long LOWER_BITS = 0x7f7f7f7f7f7f7f7fL;
+
+	// bounds the breadth-first search for an eviction path, regardless of its depth
+	private static final int SEARCH_LIMIT = 512;
+
+	// the fewest slots in a range that a spliterator will split
+	private static final int SPLIT_THRESHOLD = 1024;
+
+	// returned when locating a slot if no slot could be freed for an element
+	static final int NO_SLOT = Integer.MIN_VALUE;
+
+	// identifies the streams to which collections are written, followed by a version
+	private static final int STREAM_MAGIC = 0x43554b4f; // "CUKO"
+	private static final int STREAM_VERSION = 1;
+	// the number of occupied slots whose hashes are recorded to check a layout
+	static final int LAYOUT_SAMPLES = 8;
+
+	// writes a header for elements that are not laid out by a cuckoo, and so must be rehashed
+	static void writeUnordered(WriteStream s, int count) {
+		s.writeInt(STREAM_MAGIC);
+		s.writeInt(STREAM_VERSION);
+		// a zero hash count identifies elements that are not laid out
+		s.writeInt(0);
+		s.writeInt(0);
+		s.writeInt(0);
+		s.writeInt(count);
+		s.writeInt(0);
+	}
+
+	// a cuckoo under equality with the default configuration
+	static <E> Cuckoo<E> standard() {
+		return standard(Equivalence.equality());
+	}
+
+	// a cuckoo under the specified equivalence with the default configuration
+	static <E> Cuckoo<E> standard(Equivalence<E> equ) {
+		return Settings.DEFAULT.cuckoo(equ);
+	}
+
 	// fields
-	
-	final Random random;
+
 	final Equivalence<E> equ;
-	private final Hasher<E> basis;
+	final int hashCount;
+	final int bucketSize;
+	final int evictionDepth;
+	final int stashSize;
+	final int migrationRate;
+	final float lowWaterMark;
+	// whether the hash of the element in each slot is retained
+	final boolean hashCaching;
+	// whether each slot is tagged with bits of its element's hash
+	final boolean slotTagging;
+	private final Hasher<E> hasher;
 
 	// constructors
-	
-	Cuckoo(Random random, Equivalence<E> equ) {
-		this.random = random;
+
+	Cuckoo(Equivalence<E> equ, int hashCount, int bucketSize, int evictionDepth, int stashSize, int migrationRate, float lowWaterMark, boolean hashCaching, boolean slotTagging) {
 		this.equ = equ;
-		basis = equ.getHasher().ints();
+		this.hashCount = hashCount;
+		this.bucketSize = bucketSize;
+		this.evictionDepth = evictionDepth;
+		this.stashSize = stashSize;
+		this.migrationRate = migrationRate;
+		this.lowWaterMark = lowWaterMark;
+		this.hashCaching = hashCaching;
+		this.slotTagging = slotTagging;
+		hasher = equ.getHasher();
 	}
-	
+
 	// package scoped methods
 
-	Hasher<E> updateHasher(Hasher<E> oldHasher, int newCapacity) {
-		return oldHasher != null && oldHasher.getSize().asInt() == newCapacity ?
-				oldHasher :
-				basis.sized(HashSize.fromInt(newCapacity));
+	// a cuckoo with the same configuration under another equivalence
+	<F> Cuckoo<F> under(Equivalence<F> equ) {
+		return new Cuckoo<>(equ, hashCount, bucketSize, evictionDepth, stashSize, migrationRate, lowWaterMark, hashCaching, slotTagging);
+	}
+
+	// the smallest capacity no less than that requested which accommodates whole buckets
+	// note that the slots of the stash follow those of the buckets and are always additional
+	int capacity(int requestedCapacity) {
+		int remainder = requestedCapacity % bucketSize;
+		int primary = remainder == 0 ? requestedCapacity : requestedCapacity + bucketSize - remainder;
+		return primary + stashSize;
+	}
+
+	// the capacity to which a full store should be enlarged
+	int grownCapacity(int capacity) {
+		return 2 * (capacity - stashSize) + stashSize;
+	}
+
+	// the capacity to which an underused store should be reduced
+	int shrunkCapacity(int capacity) {
+		return capacity((capacity - stashSize) / 2);
+	}
+
+	// the least capacity into which the specified number of elements can be expected to fit
+	int compactCapacity(int count) {
+		// conservative estimates of the loads at which insertions reliably succeed
+		int choices = hashCount * bucketSize;
+		float load = choices == 2 ? 0.45f : choices == 3 ? 0.85f : 0.9f;
+		return capacity(Math.max(1, (int) Math.ceil(count / load)));
+	}
+
+	// writes a header recording the configuration that, with the capacity,
+	// determines where elements lie, to precede the slots of a store; the
+	// header also combines the hashes of the first few elements, so that a
+	// reader can detect a hasher that would place elements differently
+	void writeLayout(WriteStream s, Store<E> store) {
+		s.writeInt(STREAM_MAGIC);
+		s.writeInt(STREAM_VERSION);
+		s.writeInt(hashCount);
+		s.writeInt(bucketSize);
+		s.writeInt(stashSize);
+		s.writeInt(store.size());
+		s.writeInt(sampleHash(store));
+	}
+
+	// reads a header written by writeLayout or writeUnordered
+	Layout readLayout(ReadStream s) {
+		if (s.readInt() != STREAM_MAGIC) throw new IllegalArgumentException("not a serialized collection");
+		if (s.readInt() != STREAM_VERSION) throw new IllegalArgumentException("unsupported serialization version");
+		int hashCount = s.readInt();
+		int bucketSize = s.readInt();
+		int stashSize = s.readInt();
+		int capacity = s.readInt();
+		if (capacity < 0) throw new IllegalArgumentException("negative capacity");
+		int sampleHash = s.readInt();
+		// elements hashed by identity never hash alike once read
+		boolean laidOut =
+				hashCount == this.hashCount && bucketSize == this.bucketSize && stashSize == this.stashSize &&
+				equ != Equivalence.identity();
+		return new Layout(capacity, laidOut, sampleHash);
+	}
+
+	// whether the elements of a store, read in the slots recorded by the
+	// layout, hash as they did when they were written
+	boolean isLaidOut(Layout layout, Store<E> store) {
+		return layout.laidOut && sampleHash(store) == layout.sampleHash;
+	}
+
+	// combines the hashes of the elements in the first occupied slots
+	private int sampleHash(Store<E> store) {
+		int sampleHash = 0;
+		int size = store.size();
+		for (int i = 0, samples = 0; i < size && samples < LAYOUT_SAMPLES; i++) {
+			E e = store.get(i);
+			if (e == null) continue;
+			sampleHash = sampleHash * 31 + hash(e);
+			samples++;
+		}
+		return sampleHash;
+	}
+
+	// the single hash value from which all of an element's buckets are derived
+	int hash(E e) {
+		return hasher.intHashValue(e);
 	}
-	
-	<V> Access<V> access(Store<E> store, Hasher<E> hasher, Resizer<E,V> resize, Store<V> values) {
-		return new Access<V>(store, hasher, resize, values);
+
+	// the hashes of elements destined for bulk construction, computed only once
+	// so that they can be reused if the elements must be laid out again
+	@SuppressWarnings("unchecked")
+	int[] hashes(Object[] es) {
+		int[] hashes = new int[es.length];
+		for (int i = 0; i < es.length; i++) {
+			Object e = es[i];
+			if (e == null) throw new IllegalArgumentException("null element");
+			hashes[i] = hash((E) e);
+		}
+		return hashes;
+	}
+
+	// the tag of an occupied slot: seven bits of the hash and a set high bit, so that a zero tag marks an empty slot
+	static int tag(int hash) {
+		return 0x80 | hash >>> 25;
+	}
+
+	// marks with its high bit each byte of the word that is zero
+	static long zeroBytes(long word) {
+		return ~((word & LOWER_BITS) + LOWER_BITS | word | LOWER_BITS);
+	}
+
+	// the high bits of those bytes of the specified word that lie in the range of slots
+	static long rangeBits(int word, int from, int to) {
+		int lo = Math.max(from - (word << 3), 0);
+		int hi = Math.min(to - (word << 3), 8);
+		long bits = HIGH_BITS & -1L << (lo << 3);
+		return hi == 8 ? bits : bits & (1L << (hi << 3)) - 1L;
+	}
+
+	// the bucket identified by the ith hash of an element
+	static int bucket(int hash, int i, int bucketCount) {
+		// mix in the index of the hash using the golden ratio, then apply the murmur3 finalizer
+		int h = hash + i * 0x9e3779b9;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		// map into range without division
+		return (int) (((h & 0xffffffffL) * bucketCount) >>> 32);
 	}
-	
-	// private utility methods
-	
-	private int[] newHashesArray() {
-		return new int[HASH_COUNT];
+
+	<V> Access<V> access(Store<E> store, Resizer<E,V> resize, Store<V> values) {
+		return new Access<V>(store, resize, values, null, null);
+	}
+
+	// the access will migrate entries from the draining access on subsequent insertions
+	<V> Access<V> access(Store<E> store, Resizer<E,V> resize, Store<V> values, Access<V> draining) {
+		return new Access<V>(store, resize, values, draining, null);
+	}
+
+	// the follower is told of every move so that it can keep data in parallel with the store
+	<V> Access<V> access(Store<E> store, Resizer<E,V> resize, Follower follower) {
+		return new Access<V>(store, resize, null, null, follower);
+	}
+
+	// as above, but with values held in parallel with the store
+	<V> Access<V> access(Store<E> store, Resizer<E,V> resize, Store<V> values, Follower follower) {
+		return new Access<V>(store, resize, values, null, follower);
+	}
+
+	// whether a resize should migrate entries gradually from the supplied access;
+	// shrinking is never incremental, since migration only proceeds on insertion
+	// and the larger table would otherwise be retained by a collection that
+	// is only being reduced
+	boolean isIncremental(Access<?> access, int newCapacity) {
+		return migrationRate > 0 && !access.isDraining() && newCapacity > access.store.size();
 	}
 
 	// inner classes
-	
+
+	// the header that precedes the slots of a serialized collection
+	static final class Layout {
+
+		// the number of slots that follow the header
+		final int capacity;
+		// whether the slots may be retained as they are, subject to the sampled hashes matching
+		final boolean laidOut;
+		private final int sampleHash;
+
+		private Layout(int capacity, boolean laidOut, int sampleHash) {
+			this.capacity = capacity;
+			this.laidOut = laidOut;
+			this.sampleHash = sampleHash;
+		}
+
+	}
+
+	// the configuration of a cuckoo other than its equivalence; each copy
+	// method returns settings that differ in that one value only
+	static final class Settings {
+
+		static final Settings DEFAULT = new Settings(DEFAULT_HASH_COUNT, DEFAULT_BUCKET_SIZE, DEFAULT_EVICTION_DEPTH, DEFAULT_STASH_SIZE, DEFAULT_MIGRATION_RATE, DEFAULT_LOW_WATER_MARK, DEFAULT_HASH_CACHING, DEFAULT_SLOT_TAGGING);
+
+		final int hashCount;
+		final int bucketSize;
+		final int evictionDepth;
+		final int stashSize;
+		final int migrationRate;
+		final float lowWaterMark;
+		final boolean hashCaching;
+		final boolean slotTagging;
+
+		private Settings(int hashCount, int bucketSize, int evictionDepth, int stashSize, int migrationRate, float lowWaterMark, boolean hashCaching, boolean slotTagging) {
+			this.hashCount = hashCount;
+			this.bucketSize = bucketSize;
+			this.evictionDepth = evictionDepth;
+			this.stashSize = stashSize;
+			this.migrationRate = migrationRate;
+			this.lowWaterMark = lowWaterMark;
+			this.hashCaching = hashCaching;
+			this.slotTagging = slotTagging;
+		}
+
+		Settings withHashCount(int hashCount) {
+			return hashCount == this.hashCount ? this : new Settings(hashCount, bucketSize, evictionDepth, stashSize, migrationRate, lowWaterMark, hashCaching, slotTagging);
+		}
+
+		Settings withBucketSize(int bucketSize) {
+			return bucketSize == this.bucketSize ? this : new Settings(hashCount, bucketSize, evictionDepth, stashSize, migrationRate, lowWaterMark, hashCaching, slotTagging);
+		}
+
+		Settings withEvictionDepth(int evictionDepth) {
+			return evictionDepth == this.evictionDepth ? this : new Settings(hashCount, bucketSize, evictionDepth, stashSize, migrationRate, lowWaterMark, hashCaching, slotTagging);
+		}
+
+		Settings withStashSize(int stashSize) {
+			return stashSize == this.stashSize ? this : new Settings(hashCount, bucketSize, evictionDepth, stashSize, migrationRate, lowWaterMark, hashCaching, slotTagging);
+		}
+
+		Settings withMigrationRate(int migrationRate) {
+			return migrationRate == this.migrationRate ? this : new Settings(hashCount, bucketSize, evictionDepth, stashSize, migrationRate, lowWaterMark, hashCaching, slotTagging);
+		}
+
+		Settings withLowWaterMark(float lowWaterMark) {
+			return lowWaterMark == this.lowWaterMark ? this : new Settings(hashCount, bucketSize, evictionDepth, stashSize, migrationRate, lowWaterMark, hashCaching, slotTagging);
+		}
+
+		Settings withHashCaching(boolean hashCaching) {
+			return hashCaching == this.hashCaching ? this : new Settings(hashCount, bucketSize, evictionDepth, stashSize, migrationRate, lowWaterMark, hashCaching, slotTagging);
+		}
+
+		Settings withSlotTagging(boolean slotTagging) {
+			return slotTagging == this.slotTagging ? this : new Settings(hashCount, bucketSize, evictionDepth, stashSize, migrationRate, lowWaterMark, hashCaching, slotTagging);
+		}
+
+		<E> Cuckoo<E> cuckoo(Equivalence<E> equ) {
+			return new Cuckoo<>(equ, hashCount, bucketSize, evictionDepth, stashSize, migrationRate, lowWaterMark, hashCaching, slotTagging);
+		}
+	}
+
 	interface Resizer<E,V> {
-		
-		Cuckoo<E>.Access<V> resize();
-		
+
+		Cuckoo<E>.Access<V> resize(int newCapacity);
+
 	}
 
-	final class Access<V> {
-		
-		private final Store<E> store;
-		private final Hasher<E> hasher;
-		private final Resizer<E,V> resize;
-		private final Store<V> values;
-		
-		Access(Store<E> store, Hasher<E> hasher, Resizer<E,V> resize, Store<V> values) {
-			this.store = store;
-			this.hasher = hasher;
-			this.resize = resize;
-			this.values = values;
+	interface Follower {
+
+		void move(int source, int target);
+
+	}
+
+	// the slots of a table laid out by a cuckoo, exposing only what is needed
+	// to free a slot for an element: whether a slot is empty, the hash of the
+	// element in an occupied slot, and the movement of an element between
+	// slots; through this, tables of objects and of primitives share the
+	// placement, eviction and stashing of elements
+	abstract static class Table {
+
+		private final Cuckoo<?> cuckoo;
+		// the index of the first slot in the stash
+		final int stashStart;
+		final int bucketCount;
+		// the buckets available to an element being inserted
+		final int[] buckets;
+		// working arrays for the eviction search, only allocated if needed
+		private int[] slots = null;
+		private int[] parents = null;
+		private int[] depths = null;
+
+		Table(Cuckoo<?> cuckoo, int size) {
+			this.cuckoo = cuckoo;
+			stashStart = size - cuckoo.stashSize;
+			bucketCount = stashStart / cuckoo.bucketSize;
+			buckets = new int[cuckoo.hashCount];
 		}
 
-		// Note: logic between adding/putting is so very similar, but slightly different
-		// duplication appears to be the only practical option at the moment.
+		// the number of slots, including those of the stash
+		abstract int size();
 
-		boolean add(E e, boolean overwriteIfPresent) {
-			int[] hashes = newHashesArray();
-			int retryCount = 0;
-			boolean first = true;
-
-			while (true) {
-				// initially check e not present
-				HashCode hash = hasher.hash(e);
-				int firstNull = -1;
-				for (int i = 0; i < HASH_COUNT; i++) {
-					int h = hash.intValue();
-					hashes[i] = h;
-					E e2 = store.get(h);
-					if (first) {
-						// on the first pass, the value may not already by present
-						if (e2 == null) {
-							// note can't just break here, e may still be present at another index
-							if (firstNull == -1) firstNull = h;
-						} else if (equ.isEquivalent(e, e2)) {
-							// replace the value if we're overwriting
-							if (overwriteIfPresent) store.set(h, e);
-							return false;
-						}
-					} else {
-						// we know the value is no longer there, because we overwrote it, so just looking for nulls
-						if (e2 == null) {
-							firstNull = h;
-							break;
-						}
-					}
-				}
-				// easy case - we have a null
-				if (firstNull != -1) {
-					store.set(firstNull, e);
-					return true;
-				}
+		abstract boolean isEmpty(int slot);
+
+		// the hash of the element in an occupied slot
+		abstract int slotHash(int slot);
 
-				// there's work to do to find a slot
-				int i = random.nextInt(HASH_COUNT);
-				int h = hashes[i];
-				E e2 = store.get(h);
-				store.set(h, e);
-
-				// this has gone on too long, enlarge the backing store and continue;
-				if (retryCount >= RETRY_LIMIT) {
-					Cuckoo<E>.Access<V> access = resize.resize();
-					access.add(e2, overwriteIfPresent);
-					return true;
+		// moves the element in the source slot to the empty target slot
+		abstract void move(int source, int target);
+
+		// the complement of a free slot into which an element known to be
+		// absent can be placed, or NO_SLOT if no slot could be freed without
+		// resizing
+		int place(int hash) {
+			int hashCount = cuckoo.hashCount;
+			int bucketSize = cuckoo.bucketSize;
+			for (int i = 0; i < hashCount; i++) {
+				int b = bucket(hash, i, bucketCount);
+				buckets[i] = b;
+				int from = b * bucketSize;
+				int to = from + bucketSize;
+				for (int h = from; h < to; h++) {
+					if (isEmpty(h)) return ~h;
 				}
+			}
+			return vacate();
+		}
 
-				// update variables and retry
-				e = e2;
-				first = false;
-				retryCount++;
+		// frees a slot in one of the recorded buckets, or in the stash
+		int vacate() {
+			int slot = evict();
+			if (slot != NO_SLOT) return slot;
+			// last resort before resizing is the stash
+			int size = size();
+			for (int h = stashStart; h < size; h++) {
+				if (isEmpty(h)) return ~h;
 			}
+			return NO_SLOT;
 		}
 
-		// Note: non-recursive add, but resize recurses
-		V put(E e, V v, boolean overwrite) {
-			int[] hashes = new int[HASH_COUNT];
-			V previous = null;
-			int retryCount = 0;
-			boolean first = true;
-
-			outer: while (true) {
-				// initially check e not present
-				HashCode hash = hasher.hash(e);
-				int firstNull = -1;
-				for (int i = 0; i < HASH_COUNT; i++) {
-					int h = hash.intValue();
-					hashes[i] = h;
-					E e2 = store.get(h);
-					if (first) {
-						// on the first pass, the value may not already by present
-						if (e2 == null) {
-							// note can't just break here, e may still be present at another index
-							if (firstNull == -1) firstNull = h;
-						} else if (equ.isEquivalent(e, e2)) {
-							// we can insert the value here
-							if (values != null) {
-								previous = values.get(h);
-								// the key is already present
-								if (overwrite) values.set(h, v);
+		// moves the first stashed element that can occupy the freed slot into it
+		void unstash(int freed) {
+			int hashCount = cuckoo.hashCount;
+			int bucket = freed / cuckoo.bucketSize;
+			int size = size();
+			for (int index = stashStart; index < size; index++) {
+				if (isEmpty(index)) continue;
+				int hash = slotHash(index);
+				for (int i = 0; i < hashCount; i++) {
+					if (bucket(hash, i, bucketCount) == bucket) {
+						move(index, freed);
+						return;
+					}
+				}
+			}
+		}
+
+		// whether a table holding the specified number of elements has fallen below its low water mark
+		boolean isUnderused(int count) {
+			float lowWaterMark = cuckoo.lowWaterMark;
+			return lowWaterMark > 0f && stashStart / 2 >= cuckoo.bucketSize && count < lowWaterMark * stashStart;
+		}
+
+		// performs a breadth-first search for the shortest sequence of
+		// displacements that frees a slot in one of the recorded buckets;
+		// elements are only moved once a free slot has been found
+		private int evict() {
+			int hashCount = cuckoo.hashCount;
+			int bucketSize = cuckoo.bucketSize;
+			int evictionDepth = cuckoo.evictionDepth;
+			int limit = Math.min(SEARCH_LIMIT, stashStart);
+			// the slots visited by the search, and the node from which each was reached
+			if (slots == null) {
+				slots = new int[limit];
+				parents = new int[limit];
+				depths = new int[limit];
+			}
+			int count = 0;
+			// seed the search with every slot available to the new element
+			for (int i = 0; i < hashCount; i++) {
+				int from = buckets[i] * bucketSize;
+				int to = from + bucketSize;
+				for (int h = from; h < to && count < limit; h++) {
+					slots[count] = h;
+					parents[count] = -1;
+					depths[count] = 1;
+					count++;
+				}
+			}
+			for (int node = 0; node < count; node++) {
+				int depth = depths[node];
+				// identify the alternatives available to the element occupying the slot
+				int hash = slotHash(slots[node]);
+				for (int i = 0; i < hashCount; i++) {
+					int from = bucket(hash, i, bucketCount) * bucketSize;
+					int to = from + bucketSize;
+					for (int h = from; h < to; h++) {
+						if (isEmpty(h)) {
+							// found a path, displace elements from its end back to its start
+							int target = h;
+							for (int n = node; n != -1; n = parents[n]) {
+								int source = slots[n];
+								move(source, target);
+								target = source;
 							}
-							break outer;
+							return ~target;
 						}
-					} else {
-						// we know the value is no longer there, because we overwrote it, so just looking for nulls
-						if (e2 == null) {
-							firstNull = h;
-							break;
+						if (depth < evictionDepth && count < limit && !onPath(node, h)) {
+							slots[count] = h;
+							parents[count] = node;
+							depths[count] = depth + 1;
+							count++;
 						}
 					}
 				}
-				// easy case - we have a null
-				if (firstNull != -1) {
-					store.set(firstNull, e);
-					if (values != null) {
-						if (first) previous = values.get(firstNull);
-						values.set(firstNull, v);
-					}
-					break;
-				}
+			}
+			return NO_SLOT;
+		}
 
-				// there's work to do to find a slot
-				int i = random.nextInt(HASH_COUNT);
-				int h = hashes[i];
-				E e2 = store.get(h);
-				V v2 = values == null ? null : values.get(h);
-				store.set(h, e);
-				if (values != null) {
-					if (first) previous = values.get(h);
-					values.set(h, v);
-				}
+		// whether a slot already lies on the path that ends at the specified node
+		private boolean onPath(int node, int slot) {
+			for (int n = node; n != -1; n = parents[n]) {
+				if (slots[n] == slot) return true;
+			}
+			return false;
+		}
+
+	}
 
-				// this has gone on too long, enlarge the backing store and continue;
-				if (retryCount >= RETRY_LIMIT) {
-					Cuckoo<E>.Access<V> access = resize.resize();
-					V result = access.put(e2, v2, false); // overwrite value actually irrelevant since key not 
-					if (first) previous = result;
-					break;
+	// accesses are retained between operations, and reuse their working
+	// arrays, so that lookups and insertions do not allocate; a collection
+	// holds a single access, replacing it only when it replaces its store;
+	// while an access is draining a smaller table after an incremental
+	// resize, indices at or beyond the size of its store identify slots in
+	// the draining table; all indexed operations go through the access so
+	// that this is transparent to collections
+	final class Access<V> extends Table {
+
+		private final Store<E> store;
+		private final Resizer<E,V> resize;
+		private final Store<V> values;
+		private final Follower follower;
+		// the access from which entries are being migrated, or null
+		private Access<V> draining;
+		// the next slot of the draining access to be migrated
+		private int cursor = 0;
+		// the hashes of the elements in each slot, maintained if hashes are
+		// cached, and otherwise only while filling; the hash of an empty slot
+		// is meaningless
+		private int[] slotHashes = null;
+		// the tags of the slots, if slots are tagged; the tag of a slot is
+		// zero only if the slot is empty, but since elements may be removed
+		// directly from the store, a non-zero tag may mark an empty slot
+		private final long[] tags;
+
+		Access(Store<E> store, Resizer<E,V> resize, Store<V> values, Access<V> draining, Follower follower) {
+			super(Cuckoo.this, store.size());
+			this.store = store;
+			this.resize = resize;
+			this.values = values;
+			this.draining = draining;
+			this.follower = follower;
+			int size = store.size();
+			if (hashCaching) slotHashes = new int[size];
+			tags = slotTagging ? new long[(size + 7) >> 3] : null;
+			// the store may already be populated, as when a collection is copied
+			if ((hashCaching || slotTagging) && store.count() > 0) {
+				for (int i = 0; i < size; i++) {
+					E e = store.get(i);
+					if (e == null) continue;
+					int hash = hash(e);
+					if (slotHashes != null) slotHashes[i] = hash;
+					if (tags != null) setTag(i, tag(hash));
 				}
+			}
+		}
 
-				// update variables and retry
-				e = e2;
-				v = v2;
-				first = false;
-				retryCount++;
+		boolean add(E e, boolean overwriteIfPresent) {
+			return add(e, hash(e), overwriteIfPresent);
+		}
+
+		// as per add, but with the hash of the element already known
+		boolean add(E e, int hash, boolean overwriteIfPresent) {
+			Access<V> access = migrate(migrationRate);
+			if (access != this) return access.add(e, hash, overwriteIfPresent);
+			int i = locate(e, hash);
+			if (i >= 0) {
+				// replace the value if we're overwriting
+				if (overwriteIfPresent) setElement(i, e);
+				return false;
+			}
+			// no slot could be freed, enlarge the backing store and continue
+			if (i == NO_SLOT) return grow().add(e, hash, overwriteIfPresent);
+			occupy(~i, e, hash);
+			return true;
+		}
+
+		V put(E e, V v, boolean overwrite) {
+			return put(e, hash(e), v, overwrite);
+		}
+
+		// Note: non-recursive put, but resize recurses
+		V put(E e, int hash, V v, boolean overwrite) {
+			Access<V> access = migrate(migrationRate);
+			if (access != this) return access.put(e, hash, v, overwrite);
+			int i = locate(e, hash);
+			if (i >= 0) {
+				// the key is already present
+				if (values == null) return null;
+				return overwrite ? setValue(i, v) : value(i);
+			}
+			// no slot could be freed, enlarge the backing store and continue
+			if (i == NO_SLOT) return grow().put(e, hash, v, overwrite);
+			i = ~i;
+			occupy(i, e, hash);
+			if (values != null) values.set(i, v);
+			return null;
+		}
+
+		// the index of an element equivalent to e, which is inserted if it is
+		// absent, in which case the complement of its index is returned; the
+		// insertion may resize the collection, replacing its access and any
+		// data it holds in parallel with the slots, so the returned index must
+		// be applied to the replacements
+		int insert(E e) {
+			if (e == null) throw new IllegalArgumentException("null e");
+			return insert(e, hash(e));
+		}
+
+		// as per insert, but with the hash of the element already known
+		int insert(E e, int hash) {
+			Access<V> access = migrate(migrationRate);
+			if (access != this) return access.insert(e, hash);
+			int i = locate(e, hash);
+			if (i >= 0) return i;
+			// no slot could be freed, enlarge the backing store and continue
+			if (i == NO_SLOT) return grow().insert(e, hash);
+			occupy(~i, e, hash);
+			return i;
+		}
+
+		// lays out elements with precomputed hashes in an empty table, without
+		// resizing; as with add and put, a later equivalent element replaces an
+		// earlier one in a set, but only its value in a map; returns false if
+		// an element could not be placed, in which case the access must be
+		// discarded
+		@SuppressWarnings("unchecked")
+		boolean fill(Object[] es, Object[] vs, int[] hashes) {
+			if (!hashCaching) slotHashes = new int[store.size()];
+			try {
+				for (int j = 0; j < es.length; j++) {
+					E e = (E) es[j];
+					int hash = hashes[j];
+					int i = locate(e, hash);
+					if (i == NO_SLOT) return false;
+					if (i < 0) {
+						i = ~i;
+						occupy(i, e, hash);
+					} else if (values == null) {
+						store.set(i, e);
+					}
+					if (values != null) values.set(i, (V) vs[j]);
+				}
+				return true;
+			} finally {
+				if (!hashCaching) slotHashes = null;
 			}
-			return previous;
 		}
 
 		@SuppressWarnings("unchecked")
@@ -221,18 +673,423 @@ final class Cuckoo<E> {
 				return -1;
 			}
 		}
-		
+
 		int checkedIndexOf(E e) {
 			if (e == null) throw new IllegalArgumentException("null e");
-			HashCode hash = hasher.hash(e);
-			for (int i = 0; i < HASH_COUNT; i++) {
-				int index = hash.intValue();
+			return indexOf(e, hash(e));
+		}
+
+		// as per checkedIndexOf, but with the hash of the element already known
+		int indexOf(E e, int hash) {
+			for (int i = 0; i < hashCount; i++) {
+				int from = bucket(hash, i, bucketCount) * bucketSize;
+				int to = from + bucketSize;
+				if (tags != null) {
+					int index = taggedIndexOf(e, hash, from, to);
+					if (index != -1) return index;
+					continue;
+				}
+				for (int index = from; index < to; index++) {
+					E e2 = store.get(index);
+					if (e2 != null && matches(index, hash, e, e2)) return index;
+				}
+			}
+			int index = stashedIndexOf(e, hash);
+			return index == -1 ? drainingIndexOf(e, hash) : index;
+		}
+
+		// removes the element (and any value) at the specified index, the
+		// table may then shrink if it has fallen below its low water mark
+		void remove(int index) {
+			discard(index);
+			trim();
+		}
+
+		// as per remove, but the table is not shrunk so that indices remain
+		// valid; a stashed element may move into the freed slot, so removals
+		// over a range of slots should proceed in descending order of index,
+		// and be followed by a trim
+		void delete(int index) {
+			discard(index);
+		}
+
+		// shrinks the table if it has fallen below its low water mark
+		void trim() {
+			if (draining == null && isUnderused(store.count())) {
+				resize.resize(shrunkCapacity(store.size()));
+			}
+		}
+
+		// indexed access
+
+		// the store into which elements are placed, excluding any draining store
+		Store<E> store() {
+			return store;
+		}
+
+		// the number of indices addressable through this access
+		int capacity() {
+			return draining == null ? store.size() : store.size() + draining.capacity();
+		}
+
+		int count() {
+			return draining == null ? store.count() : store.count() + draining.count();
+		}
+
+		int valueCount() {
+			return draining == null ? values.count() : values.count() + draining.valueCount();
+		}
+
+		// the hash of the element at the specified index, computed only if hashes are not cached
+		int hashAt(int index) {
+			int size = store.size();
+			return index < size ? slotHash(index) : draining.hashAt(index - size);
+		}
+
+		E element(int index) {
+			int size = store.size();
+			return index < size ? store.get(index) : draining.element(index - size);
+		}
+
+		void setElement(int index, E e) {
+			int size = store.size();
+			if (index < size) {
+				store.set(index, e);
+			} else {
+				draining.setElement(index - size, e);
+			}
+		}
+
+		V value(int index) {
+			int size = store.size();
+			return index < size ? values.get(index) : draining.value(index - size);
+		}
+
+		V setValue(int index, V v) {
+			int size = store.size();
+			return index < size ? values.set(index, v) : draining.setValue(index - size, v);
+		}
+
+		E some() {
+			int i = store.population().ones().first();
+			if (i < store.size()) return store.get(i);
+			return draining == null ? null : draining.some();
+		}
+
+		Iterator<E> iterator() {
+			return draining == null ? store.iterator() : new Concatenation<>(store.iterator(), draining.iterator());
+		}
+
+		<T> Iterator<T> transformedIterator(BiFunction<Integer, E, T> transform) {
+			if (draining == null) return store.transformedIterator(transform);
+			int size = store.size();
+			return new Concatenation<>(
+					store.transformedIterator(transform),
+					draining.transformedIterator((i, e) -> transform.apply(i + size, e))
+					);
+		}
+
+		Iterator<V> valueIterator() {
+			return draining == null ? values.iterator() : new Concatenation<>(values.iterator(), draining.valueIterator());
+		}
+
+		// splits on ranges of slot indices, reporting the specified characteristics in addition to those of all slots
+		Spliterator<E> spliterator(int characteristics) {
+			return new Slots<>(null, 0, capacity(), count(), characteristics | Spliterator.NONNULL | Spliterator.SIZED);
+		}
+
+		// as per spliterator, but slots for which the transform returns null are skipped; the count is of the slots not skipped
+		<T> Spliterator<T> transformedSpliterator(BiFunction<Integer, E, T> transform, int count, int characteristics) {
+			return new Slots<>(transform, 0, capacity(), count, characteristics | Spliterator.NONNULL | Spliterator.SIZED);
+		}
+
+		// migration
+
+		boolean isDraining() {
+			return draining != null;
+		}
+
+		// completes any migration, after which the collection's access will not be draining
+		void settle() {
+			for (Access<V> access = this; access.isDraining(); ) {
+				access = access.migrate(Integer.MAX_VALUE);
+			}
+		}
+
+		// table methods
+
+		@Override
+		int size() {
+			return store.size();
+		}
+
+		@Override
+		boolean isEmpty(int slot) {
+			return store.get(slot) == null;
+		}
+
+		@Override
+		int slotHash(int slot) {
+			return slotHashes == null ? hash(store.get(slot)) : slotHashes[slot];
+		}
+
+		@Override
+		void move(int source, int target) {
+			store.set(target, store.set(source, null));
+			if (values != null) values.set(target, values.set(source, null));
+			if (slotHashes != null) slotHashes[target] = slotHashes[source];
+			if (tags != null) {
+				setTag(target, getTag(source));
+				setTag(source, 0);
+			}
+			if (follower != null) follower.move(source, target);
+		}
+
+		// private helper methods
+
+		// whether the element in a slot is equivalent to e, consulting any
+		// hash retained for the slot to avoid comparing inequivalent elements
+		private boolean matches(int index, int hash, E e, E e2) {
+			return (slotHashes == null || slotHashes[index] == hash) && equ.isEquivalent(e, e2);
+		}
+
+		private void occupy(int index, E e, int hash) {
+			store.set(index, e);
+			if (slotHashes != null) slotHashes[index] = hash;
+			if (tags != null) setTag(index, tag(hash));
+		}
+
+		// the index of an element equivalent to e within a range of slots,
+		// found by comparing the tags of up to eight slots at once
+		private int taggedIndexOf(E e, int hash, int from, int to) {
+			long pattern = tag(hash) * LOW_BITS;
+			for (int word = from >> 3; word << 3 < to; word++) {
+				long hits = zeroBytes(tags[word] ^ pattern) & rangeBits(word, from, to);
+				for (; hits != 0L; hits &= hits - 1L) {
+					int index = (word << 3) + (Long.numberOfTrailingZeros(hits) >> 3);
+					E e2 = store.get(index);
+					if (e2 != null && matches(index, hash, e, e2)) return index;
+				}
+			}
+			return -1;
+		}
+
+		// the first empty slot in a range, or -1
+		private int untaggedIndex(int from, int to) {
+			for (int word = from >> 3; word << 3 < to; word++) {
+				long empty = zeroBytes(tags[word]) & rangeBits(word, from, to);
+				if (empty != 0L) return (word << 3) + (Long.numberOfTrailingZeros(empty) >> 3);
+			}
+			// tags may be stale if elements were removed directly from the store
+			for (int index = from; index < to; index++) {
+				if (store.get(index) == null) return index;
+			}
+			return -1;
+		}
+
+		private int getTag(int index) {
+			return (int) (tags[index >> 3] >>> ((index & 7) << 3)) & 0xff;
+		}
+
+		private void setTag(int index, int tag) {
+			int shift = (index & 7) << 3;
+			int word = index >> 3;
+			tags[word] = tags[word] & ~(0xffL << shift) | (long) tag << shift;
+		}
+
+		// returns the index of an equivalent element if there is one,
+		// otherwise the complement of a free slot into which e can be placed,
+		// or NO_SLOT if no slot could be freed without resizing
+		private int locate(E e, int hash) {
+			int firstNull = -1;
+			for (int i = 0; i < hashCount; i++) {
+				int b = bucket(hash, i, bucketCount);
+				buckets[i] = b;
+				int from = b * bucketSize;
+				int to = from + bucketSize;
+				if (tags != null) {
+					int h = taggedIndexOf(e, hash, from, to);
+					if (h != -1) return h;
+					if (firstNull == -1) firstNull = untaggedIndex(from, to);
+					continue;
+				}
+				for (int h = from; h < to; h++) {
+					E e2 = store.get(h);
+					if (e2 == null) {
+						// note can't just break here, e may still be present at another index
+						if (firstNull == -1) firstNull = h;
+					} else if (matches(h, hash, e, e2)) {
+						return h;
+					}
+				}
+			}
+			// the element may have been stashed
+			int stashed = stashedIndexOf(e, hash);
+			if (stashed != -1) return stashed;
+			// or may not have been migrated yet
+			int drained = drainingIndexOf(e, hash);
+			if (drained != -1) return drained;
+			// easy case - we have a null
+			if (firstNull != -1) return ~firstNull;
+			// there's work to do to free a slot
+			return vacate();
+		}
+
+		private int drainingIndexOf(E e, int hash) {
+			if (draining == null) return -1;
+			int index = draining.indexOf(e, hash);
+			return index == -1 ? -1 : store.size() + index;
+		}
+
+		// moves the entries from up to the specified number of slots into this
+		// access, returning the access through which the caller should proceed
+		private Access<V> migrate(int slots) {
+			if (draining == null) return this;
+			Store<E> source = draining.store;
+			int limit = source.size() - cursor <= slots ? source.size() : cursor + slots;
+			for (; cursor < limit; cursor++) {
+				E e = source.get(cursor);
+				if (e == null) continue;
+				int hash = draining.hashAt(cursor);
+				int i = place(hash);
+				// the resize accommodates all entries, including those still draining
+				if (i == NO_SLOT) return grow();
+				i = ~i;
+				occupy(i, source.set(cursor, null), hash);
+				if (values != null) values.set(i, draining.values.set(cursor, null));
+			}
+			if (cursor == source.size()) draining = null;
+			return this;
+		}
+
+		private int stashedIndexOf(E e, int hash) {
+			for (int index = stashStart; index < store.size(); index++) {
 				E e2 = store.get(index);
-				if (e2 != null && equ.isEquivalent(e, e2)) return index;
+				if (e2 != null && matches(index, hash, e, e2)) return index;
 			}
 			return -1;
 		}
-	
+
+		private Access<V> grow() {
+			return resize.resize(grownCapacity(store.size()));
+		}
+
+		// the vacated slot may be taken by an element from the stash
+		private void discard(int index) {
+			int size = store.size();
+			if (index >= size) {
+				draining.discard(index - size);
+				return;
+			}
+			store.set(index, null);
+			if (values != null) values.set(index, null);
+			if (tags != null) setTag(index, 0);
+			if (index < stashStart) unstash(index);
+		}
+
+		// inner classes
+
+		// the size is exact only until the range of slots is split
+		private final class Slots<T> implements Spliterator<T> {
+
+			private final BiFunction<Integer, E, T> transform;
+			private final int to;
+			private int from;
+			private long estimate;
+			private int characteristics;
+
+			Slots(BiFunction<Integer, E, T> transform, int from, int to, long estimate, int characteristics) {
+				this.transform = transform;
+				this.from = from;
+				this.to = to;
+				this.estimate = estimate;
+				this.characteristics = characteristics;
+			}
+
+			@Override
+			public boolean tryAdvance(Consumer<? super T> action) {
+				while (from < to) {
+					T t = slot(from++);
+					if (t != null) {
+						if (estimate > 0L) estimate--;
+						action.accept(t);
+						return true;
+					}
+				}
+				return false;
+			}
+
+			@Override
+			public void forEachRemaining(Consumer<? super T> action) {
+				int i = from;
+				from = to;
+				estimate = 0L;
+				for (; i < to; i++) {
+					T t = slot(i);
+					if (t != null) action.accept(t);
+				}
+			}
+
+			@Override
+			public Spliterator<T> trySplit() {
+				int mid = (from + to) >>> 1;
+				if (mid - from < SPLIT_THRESHOLD) return null;
+				characteristics &= ~Spliterator.SIZED;
+				long half = estimate >>> 1;
+				estimate -= half;
+				Slots<T> prefix = new Slots<>(transform, from, mid, half, characteristics);
+				from = mid;
+				return prefix;
+			}
+
+			@Override
+			public long estimateSize() {
+				return estimate;
+			}
+
+			@Override
+			public int characteristics() {
+				return characteristics;
+			}
+
+			@SuppressWarnings("unchecked")
+			private T slot(int index) {
+				E e = element(index);
+				if (e == null) return null;
+				return transform == null ? (T) e : transform.apply(index, e);
+			}
+		}
+	}
+
+	// joins the iterators over the tables of a draining access
+	private static final class Concatenation<T> implements Iterator<T> {
+
+		private final Iterator<T> second;
+		private Iterator<T> current;
+
+		Concatenation(Iterator<T> first, Iterator<T> second) {
+			this.second = second;
+			current = first;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (current.hasNext()) return true;
+			if (current == second) return false;
+			current = second;
+			return current.hasNext();
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			return current.next();
+		}
+
+		@Override
+		public void remove() {
+			current.remove();
+		}
 	}
 
 }
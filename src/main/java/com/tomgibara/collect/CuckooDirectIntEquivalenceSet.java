@@ -0,0 +1,34 @@
+package com.tomgibara.collect;
+
+final class CuckooDirectIntEquivalenceSet extends CuckooIntEquivalenceSet implements DirectIntEquivalenceSet {
+
+	// constructors
+
+	CuckooDirectIntEquivalenceSet(Cuckoo<?> cuckoo, int initialCapacity) {
+		super(cuckoo, true, initialCapacity);
+	}
+
+	private CuckooDirectIntEquivalenceSet(CuckooDirectIntEquivalenceSet that, boolean mutable) {
+		super(that, mutable);
+	}
+
+	// direct int equivalence set
+
+	@Override
+	public void close() {
+		discard();
+	}
+
+	// mutability
+
+	@Override
+	public DirectIntEquivalenceSet mutableCopy() {
+		return new CuckooDirectIntEquivalenceSet(this, true);
+	}
+
+	@Override
+	public DirectIntEquivalenceSet immutableCopy() {
+		return new CuckooDirectIntEquivalenceSet(this, false);
+	}
+
+}
@@ -0,0 +1,34 @@
+package com.tomgibara.collect;
+
+final class CuckooDirectLongEquivalenceSet extends CuckooLongEquivalenceSet implements DirectLongEquivalenceSet {
+
+	// constructors
+
+	CuckooDirectLongEquivalenceSet(Cuckoo<?> cuckoo, int initialCapacity) {
+		super(cuckoo, true, initialCapacity);
+	}
+
+	private CuckooDirectLongEquivalenceSet(CuckooDirectLongEquivalenceSet that, boolean mutable) {
+		super(that, mutable);
+	}
+
+	// direct long equivalence set
+
+	@Override
+	public void close() {
+		discard();
+	}
+
+	// mutability
+
+	@Override
+	public DirectLongEquivalenceSet mutableCopy() {
+		return new CuckooDirectLongEquivalenceSet(this, true);
+	}
+
+	@Override
+	public DirectLongEquivalenceSet immutableCopy() {
+		return new CuckooDirectLongEquivalenceSet(this, false);
+	}
+
+}
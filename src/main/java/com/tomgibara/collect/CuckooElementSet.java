@@ -0,0 +1,142 @@
+package com.tomgibara.collect;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Spliterator;
+
+import com.tomgibara.storage.Storage;
+
+// the elements of a collection viewed through the access which locates them;
+// subclasses identify the current access, since it is replaced when the
+// collection is resized, and remove any data held in parallel with an element
+abstract class CuckooElementSet<E> extends AbstractSet<E> implements EquivalenceSet<E> {
+
+	// fields
+
+	private final Cuckoo<E> cuckoo;
+	// the storage from which the stores of copies are created
+	private final Storage<E> storage;
+
+	// constructors
+
+	CuckooElementSet(Cuckoo<E> cuckoo, Storage<E> storage) {
+		this.cuckoo = cuckoo;
+		this.storage = storage;
+	}
+
+	// the access through which the collection currently locates its elements
+	abstract Cuckoo<E>.Access<?> access();
+
+	// removes the element at the specified index from the collection
+	abstract void removeAt(int index);
+
+	// called before the element at the specified index is removed through an iterator
+	void removing(int index) { }
+
+	// equivalence methods
+
+	@Override
+	public Equivalence<E> getEquivalence() {
+		return cuckoo.equ;
+	}
+
+	@Override
+	public E get(E e) {
+		if (e == null) throw new IllegalArgumentException("null e");
+		Cuckoo<E>.Access<?> access = access();
+		int i = access.checkedIndexOf(e);
+		return i == -1 ? null : access.element(i);
+	}
+
+	@Override
+	public E some() {
+		return access().some();
+	}
+
+	// set methods
+
+	@Override
+	public int size() {
+		return access().count();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return access().count() == 0;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return access().indexOf(o) != -1;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		if (!isMutable()) throw new IllegalStateException("immutable");
+		int i = access().indexOf(o);
+		if (i == -1) return false;
+		removeAt(i);
+		return true;
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return new ElementIterator();
+	}
+
+	@Override
+	public Spliterator<E> spliterator() {
+		return access().spliterator(Spliterator.DISTINCT);
+	}
+
+	// mutability methods
+
+	@Override
+	public boolean isMutable() {
+		return access().store().isMutable();
+	}
+
+	@Override
+	public EquivalenceSet<E> mutableCopy() {
+		access().settle();
+		return new CuckooEquivalenceSet<E>(cuckoo, storage, access().store().mutableCopy());
+	}
+
+	@Override
+	public EquivalenceSet<E> immutableCopy() {
+		access().settle();
+		return new CuckooEquivalenceSet<E>(cuckoo, storage, access().store().immutableCopy());
+	}
+
+	// inner classes
+
+	private final class ElementIterator implements Iterator<E> {
+
+		private final Iterator<E> iterator;
+		private int index = -1;
+
+		ElementIterator() {
+			iterator = access().transformedIterator((i, e) -> {
+				index = i;
+				return e;
+			});
+		}
+
+		@Override
+		public boolean hasNext() {
+			return iterator.hasNext();
+		}
+
+		@Override
+		public E next() {
+			return iterator.next();
+		}
+
+		@Override
+		public void remove() {
+			if (index != -1) removing(index);
+			iterator.remove();
+			index = -1;
+		}
+	}
+}
@@ -0,0 +1,278 @@
+package com.tomgibara.collect;
+
+import java.util.function.ObjLongConsumer;
+
+import com.tomgibara.storage.Storage;
+import com.tomgibara.storage.Store;
+
+// counts are held in an array parallel to the element store, and follow their
+// elements as they are moved; resizing is never incremental
+final class CuckooEquivalenceBag<E> implements EquivalenceBag<E> {
+
+	private final Cuckoo<E> cuckoo;
+	private final Storage<E> storage;
+	private Store<E> store;
+	private long[] counts;
+	private Cuckoo<E>.Access<Void> access;
+	// the sum of the counts
+	private long total = 0L;
+
+	private Elements elements = null;
+
+	CuckooEquivalenceBag(Cuckoo<E> cuckoo, Storage<E> storage, int initialCapacity) {
+		this.cuckoo = cuckoo;
+		this.storage = storage;
+		setStore(storage.newStore(cuckoo.capacity(initialCapacity)));
+	}
+
+	private CuckooEquivalenceBag(CuckooEquivalenceBag<E> that, Store<E> store) {
+		this.cuckoo = that.cuckoo;
+		this.storage = that.storage;
+		this.store = store;
+		counts = that.counts.clone();
+		access = cuckoo.access(store, this::resize, this::move);
+		total = that.total;
+	}
+
+	// equivalence methods
+
+	@Override
+	public Equivalence<E> getEquivalence() {
+		return cuckoo.equ;
+	}
+
+	// bag methods
+
+	@Override
+	public long count(Object e) {
+		int i = access.indexOf(e);
+		return i == -1 ? 0L : counts[i];
+	}
+
+	@Override
+	public long add(E e) {
+		return add(e, 1L);
+	}
+
+	@Override
+	public long add(E e, long n) {
+		checkCount(n);
+		checkMutable();
+		if (n == 0L) return count(e);
+		int i = access.insert(e);
+		total += n;
+		if (i < 0) return counts[~i] = n;
+		return counts[i] += n;
+	}
+
+	@Override
+	public long remove(Object e, long n) {
+		checkCount(n);
+		checkMutable();
+		int i = access.indexOf(e);
+		if (i == -1) return 0L;
+		long count = counts[i];
+		if (n < count) {
+			total -= n;
+			return counts[i] = count - n;
+		}
+		total -= count;
+		access.remove(i);
+		return 0L;
+	}
+
+	@Override
+	public long setCount(E e, long count) {
+		checkCount(count);
+		checkMutable();
+		if (count == 0L) {
+			int i = access.indexOf(e);
+			if (i == -1) return 0L;
+			long previous = counts[i];
+			total -= previous;
+			access.remove(i);
+			return previous;
+		}
+		int i = access.insert(e);
+		long previous = i < 0 ? 0L : counts[i];
+		counts[i < 0 ? ~i : i] = count;
+		total += count - previous;
+		return previous;
+	}
+
+	@Override
+	public long totalCount() {
+		return total;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return total == 0L;
+	}
+
+	@Override
+	public void forEachCount(ObjLongConsumer<? super E> action) {
+		if (action == null) throw new IllegalArgumentException("null action");
+		int capacity = store.size();
+		for (int i = 0; i < capacity; i++) {
+			E e = store.get(i);
+			if (e != null) action.accept(e, counts[i]);
+		}
+	}
+
+	@Override
+	public void clear() {
+		checkMutable();
+		store.clear();
+		total = 0L;
+	}
+
+	@Override
+	public EquivalenceSet<E> elementSet() {
+		return elements == null ? elements = new Elements() : elements;
+	}
+
+	@Override
+	public void compact() {
+		checkMutable();
+		int capacity = cuckoo.compactCapacity(access.count());
+		if (capacity < store.size()) rebuild(capacity);
+	}
+
+	// mutability methods
+
+	@Override
+	public boolean isMutable() {
+		return store.isMutable();
+	}
+
+	@Override
+	public EquivalenceBag<E> mutableCopy() {
+		return new CuckooEquivalenceBag<>(this, store.mutableCopy());
+	}
+
+	@Override
+	public EquivalenceBag<E> immutableCopy() {
+		return new CuckooEquivalenceBag<>(this, store.immutableCopy());
+	}
+
+	@Override
+	public EquivalenceBag<E> immutableView() {
+		return new ImmutableEquivalenceBag<>(this);
+	}
+
+	// object methods
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) return true;
+		if (!(obj instanceof EquivalenceBag)) return false;
+		EquivalenceBag<?> that = (EquivalenceBag<?>) obj;
+		if (that.totalCount() != total) return false;
+		if (that.elementSet().size() != access.count()) return false;
+		int capacity = store.size();
+		for (int i = 0; i < capacity; i++) {
+			E e = store.get(i);
+			if (e != null && that.count(e) != counts[i]) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int h = 0;
+		int capacity = store.size();
+		for (int i = 0; i < capacity; i++) {
+			E e = store.get(i);
+			if (e != null) h += e.hashCode() ^ Long.hashCode(counts[i]);
+		}
+		return h;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+		forEachCount((e, c) -> sb.append(sb.length() == 1 ? "" : ", ").append(e).append('=').append(c));
+		return sb.append('}').toString();
+	}
+
+	// private helper methods
+
+	private Cuckoo<E>.Access<Void> resize(int newCapacity) {
+		return rebuild(newCapacity);
+	}
+
+	private Cuckoo<E>.Access<Void> rebuild(int newCapacity) {
+		Cuckoo<E>.Access<Void> old = access;
+		long[] oldCounts = counts;
+		setStore(storage.newStore(newCapacity));
+		int oldCapacity = old.capacity();
+		for (int j = 0; j < oldCapacity; j++) {
+			E e = old.element(j);
+			if (e == null) continue;
+			int i = ~access.insert(e, old.hashAt(j));
+			counts[i] = oldCounts[j];
+		}
+		return access;
+	}
+
+	private void setStore(Store<E> store) {
+		this.store = store;
+		counts = new long[store.size()];
+		access = cuckoo.access(store, this::resize, this::move);
+	}
+
+	private void move(int source, int target) {
+		counts[target] = counts[source];
+	}
+
+	private void checkCount(long n) {
+		if (n < 0L) throw new IllegalArgumentException("negative count");
+	}
+
+	private void checkMutable() {
+		if (!store.isMutable()) throw new IllegalStateException("immutable");
+	}
+
+	// inner classes
+
+	// deducts the counts of elements removed from the set
+	private final class Elements extends CuckooElementSet<E> {
+
+		Elements() {
+			super(cuckoo, storage);
+		}
+
+		@Override
+		Cuckoo<E>.Access<?> access() {
+			return access;
+		}
+
+		@Override
+		void removeAt(int index) {
+			total -= counts[index];
+			access.remove(index);
+		}
+
+		@Override
+		void removing(int index) {
+			total -= counts[index];
+		}
+
+		@Override
+		public void clear() {
+			CuckooEquivalenceBag.this.clear();
+		}
+
+		@Override
+		public void compact() {
+			CuckooEquivalenceBag.this.compact();
+		}
+
+		@Override
+		public EquivalenceSet<E> immutableView() {
+			return CuckooEquivalenceBag.this.immutableView().elementSet();
+		}
+	}
+
+}
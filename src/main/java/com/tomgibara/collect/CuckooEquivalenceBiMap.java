@@ -0,0 +1,472 @@
+package com.tomgibara.collect;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+import com.tomgibara.storage.Storage;
+import com.tomgibara.storage.Store;
+
+// keys and values are held in separate tables, and the slot of each key links
+// to the slot of its value and vice versa; the tables follow the moves of
+// their elements to keep the links current, so neither table is searched to
+// reach the partner of an element; resizing is never incremental
+final class CuckooEquivalenceBiMap<K, V> extends AbstractMap<K, V> implements EquivalenceBiMap<K, V> {
+
+	private final Table<K> keyTable;
+	private final Table<V> valueTable;
+	private final CuckooEquivalenceBiMap<V, K> inverse;
+
+	private Entries entries = null;
+	private Keys keys = null;
+
+	CuckooEquivalenceBiMap(Cuckoo<K> keyCuckoo, Storage<K> keyStorage, Cuckoo<V> valueCuckoo, Storage<V> valueStorage, int initialCapacity) {
+		this(
+				new Table<>(keyCuckoo, keyStorage, keyStorage.newStore(keyCuckoo.capacity(initialCapacity)), null),
+				new Table<>(valueCuckoo, valueStorage, valueStorage.newStore(valueCuckoo.capacity(initialCapacity)), null)
+				);
+	}
+
+	private CuckooEquivalenceBiMap(Table<K> keyTable, Table<V> valueTable) {
+		this.keyTable = keyTable;
+		this.valueTable = valueTable;
+		keyTable.partner = valueTable;
+		valueTable.partner = keyTable;
+		inverse = new CuckooEquivalenceBiMap<>(this);
+	}
+
+	// shares the tables of a map to view it in reverse
+	private CuckooEquivalenceBiMap(CuckooEquivalenceBiMap<V, K> inverse) {
+		keyTable = inverse.valueTable;
+		valueTable = inverse.keyTable;
+		this.inverse = inverse;
+	}
+
+	// bidirectional methods
+
+	@Override
+	public EquivalenceBiMap<V, K> inverse() {
+		return inverse;
+	}
+
+	@Override
+	public V forcePut(K key, V value) {
+		return putImpl(key, value, true);
+	}
+
+	// equivalence methods
+
+	@Override
+	public Equivalence<K> getKeyEquivalence() {
+		return keyTable.cuckoo.equ;
+	}
+
+	@Override
+	public Equivalence<V> getValueEquivalence() {
+		return valueTable.cuckoo.equ;
+	}
+
+	// map methods
+
+	@Override
+	public boolean containsKey(Object key) {
+		return keyTable.access.indexOf(key) != -1;
+	}
+
+	@Override
+	public boolean containsValue(Object value) {
+		return valueTable.access.indexOf(value) != -1;
+	}
+
+	@Override
+	public void clear() {
+		checkMutable();
+		keyTable.store.clear();
+		valueTable.store.clear();
+	}
+
+	@Override
+	public int size() {
+		return keyTable.access.count();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	@Override
+	public V get(Object key) {
+		int i = keyTable.access.indexOf(key);
+		return i == -1 ? null : valueAt(i);
+	}
+
+	@Override
+	public V getOrDefault(Object key, V defaultValue) {
+		int i = keyTable.access.indexOf(key);
+		return i == -1 ? defaultValue : valueAt(i);
+	}
+
+	@Override
+	public V remove(Object key) {
+		checkMutable();
+		int i = keyTable.access.indexOf(key);
+		if (i == -1) return null;
+		V value = valueAt(i);
+		removeAt(i);
+		return value;
+	}
+
+	@Override
+	public boolean remove(Object key, Object value) {
+		checkMutable();
+		int i = keyTable.access.indexOf(key);
+		if (i == -1 || valueTable.access.indexOf(value) != keyTable.links[i]) return false;
+		removeAt(i);
+		return true;
+	}
+
+	@Override
+	public V put(K key, V value) {
+		return putImpl(key, value, false);
+	}
+
+	@Override
+	public V putIfAbsent(K key, V value) {
+		checkNotNull(key, value);
+		checkMutable();
+		int i = keyTable.access.indexOf(key);
+		return i == -1 ? putImpl(key, value, false) : valueAt(i);
+	}
+
+	@Override
+	public V replace(K key, V value) {
+		checkNotNull(key, value);
+		checkMutable();
+		int i = keyTable.access.indexOf(key);
+		return i == -1 ? null : replaceAt(i, value, false);
+	}
+
+	@Override
+	public boolean replace(K key, V oldValue, V newValue) {
+		checkNotNull(key, newValue);
+		checkMutable();
+		int i = keyTable.access.indexOf(key);
+		if (i == -1 || valueTable.access.indexOf(oldValue) != keyTable.links[i]) return false;
+		replaceAt(i, newValue, false);
+		return true;
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		return entries == null ? entries = new Entries() : entries;
+	}
+
+	@Override
+	public EquivalenceSet<K> keySet() {
+		return keys == null ? keys = new Keys() : keys;
+	}
+
+	@Override
+	public EquivalenceSet<V> values() {
+		return inverse.keySet();
+	}
+
+	// equivalence map methods
+
+	@Override
+	public void compact() {
+		checkMutable();
+		int count = size();
+		keyTable.compact(count);
+		valueTable.compact(count);
+	}
+
+	// mutability methods
+
+	@Override
+	public boolean isMutable() {
+		return keyTable.store.isMutable();
+	}
+
+	@Override
+	public EquivalenceBiMap<K, V> mutable() {
+		return isMutable() ? this : mutableCopy();
+	}
+
+	@Override
+	public EquivalenceBiMap<K, V> immutable() {
+		return isMutable() ? immutableView() : this;
+	}
+
+	@Override
+	public EquivalenceBiMap<K, V> mutableCopy() {
+		return new CuckooEquivalenceBiMap<>(keyTable.copy(keyTable.store.mutableCopy()), valueTable.copy(valueTable.store.mutableCopy()));
+	}
+
+	@Override
+	public EquivalenceBiMap<K, V> immutableCopy() {
+		return new CuckooEquivalenceBiMap<>(keyTable.copy(keyTable.store.immutableCopy()), valueTable.copy(valueTable.store.immutableCopy()));
+	}
+
+	@Override
+	public EquivalenceBiMap<K, V> immutableView() {
+		return new ImmutableEquivalenceBiMap<>(this);
+	}
+
+	// private helper methods
+
+	private V valueAt(int index) {
+		return valueTable.store.get(keyTable.links[index]);
+	}
+
+	// every check that can fail precedes the first modification of either table
+	private V putImpl(K key, V value, boolean force) {
+		checkNotNull(key, value);
+		checkMutable();
+		int i = keyTable.access.indexOf(key);
+		if (i != -1) return replaceAt(i, value, force);
+		int j = valueTable.access.indexOf(value);
+		if (j != -1) {
+			if (!force) throw new IllegalArgumentException("value already present");
+			inverse.removeAt(j);
+		}
+		i = ~keyTable.access.insert(key);
+		// inserting the value moves only values, which leaves the key in place
+		j = ~valueTable.access.insert(value);
+		keyTable.link(i, j);
+		return null;
+	}
+
+	private V replaceAt(int index, V value, boolean force) {
+		int link = keyTable.links[index];
+		V previous = valueTable.store.get(link);
+		int j = valueTable.access.indexOf(value);
+		if (j == link) {
+			// the value is equivalent to the one it replaces
+			valueTable.access.setElement(link, value);
+			return previous;
+		}
+		if (j != -1) {
+			if (!force) throw new IllegalArgumentException("value already present");
+			// removing the entry may shrink the key table and relocate the key
+			K key = keyTable.store.get(index);
+			inverse.removeAt(j);
+			index = keyTable.access.indexOf(key);
+			link = keyTable.links[index];
+		}
+		valueTable.access.remove(link);
+		keyTable.link(index, ~valueTable.access.insert(value));
+		return previous;
+	}
+
+	// removing the value moves only values, which leaves the key in place
+	private void removeAt(int index) {
+		valueTable.access.remove(keyTable.links[index]);
+		keyTable.access.remove(index);
+	}
+
+	private void checkNotNull(K key, V value) {
+		if (key == null) throw new IllegalArgumentException("null key");
+		if (value == null) throw new IllegalArgumentException("null value");
+	}
+
+	private void checkMutable() {
+		if (!keyTable.store.isMutable()) throw new IllegalStateException("immutable");
+	}
+
+	// inner classes
+
+	// the elements on one side of the map, with the slots of their partners
+	private static final class Table<E> {
+
+		final Cuckoo<E> cuckoo;
+		final Storage<E> storage;
+		Store<E> store;
+		int[] links;
+		Cuckoo<E>.Access<Void> access;
+		Table<?> partner;
+
+		Table(Cuckoo<E> cuckoo, Storage<E> storage, Store<E> store, int[] links) {
+			this.cuckoo = cuckoo;
+			this.storage = storage;
+			setStore(store, links == null ? new int[store.size()] : links);
+		}
+
+		Table<E> copy(Store<E> store) {
+			return new Table<>(cuckoo, storage, store, links.clone());
+		}
+
+		void link(int index, int link) {
+			links[index] = link;
+			partner.links[link] = index;
+		}
+
+		void compact(int count) {
+			int capacity = cuckoo.compactCapacity(count);
+			if (capacity < store.size()) rebuild(capacity);
+		}
+
+		private Cuckoo<E>.Access<Void> rebuild(int newCapacity) {
+			Cuckoo<E>.Access<Void> old = access;
+			int[] oldLinks = links;
+			setStore(storage.newStore(newCapacity), new int[newCapacity]);
+			int oldCapacity = old.capacity();
+			for (int j = 0; j < oldCapacity; j++) {
+				E e = old.element(j);
+				if (e == null) continue;
+				link(~access.insert(e, old.hashAt(j)), oldLinks[j]);
+			}
+			return access;
+		}
+
+		private void setStore(Store<E> store, int[] links) {
+			this.store = store;
+			this.links = links;
+			access = cuckoo.access(store, this::rebuild, this::move);
+		}
+
+		private void move(int source, int target) {
+			link(target, links[source]);
+		}
+	}
+
+	// removes the partners of elements removed through the iterator
+	private final class TableIterator<T> implements Iterator<T> {
+
+		private final Iterator<T> iterator;
+		private int index = -1;
+
+		TableIterator(BiFunction<Integer, K, T> transform) {
+			iterator = keyTable.access.transformedIterator((i, k) -> {
+				index = i;
+				return transform.apply(i, k);
+			});
+		}
+
+		@Override
+		public boolean hasNext() {
+			return iterator.hasNext();
+		}
+
+		@Override
+		public T next() {
+			return iterator.next();
+		}
+
+		@Override
+		public void remove() {
+			// as per removeAt, the partner is removed first
+			if (index != -1) valueTable.access.remove(keyTable.links[index]);
+			iterator.remove();
+			index = -1;
+		}
+	}
+
+	private final class Keys extends CuckooElementSet<K> {
+
+		Keys() {
+			super(keyTable.cuckoo, keyTable.storage);
+		}
+
+		@Override
+		Cuckoo<K>.Access<?> access() {
+			return keyTable.access;
+		}
+
+		@Override
+		void removeAt(int index) {
+			CuckooEquivalenceBiMap.this.removeAt(index);
+		}
+
+		@Override
+		public Iterator<K> iterator() {
+			return new TableIterator<>((i, k) -> k);
+		}
+
+		@Override
+		public void clear() {
+			CuckooEquivalenceBiMap.this.clear();
+		}
+
+		@Override
+		public void compact() {
+			CuckooEquivalenceBiMap.this.compact();
+		}
+
+		@Override
+		public EquivalenceSet<K> immutableView() {
+			return CuckooEquivalenceBiMap.this.immutableView().keySet();
+		}
+	}
+
+	private final class Entries extends AbstractSet<Entry<K, V>> {
+
+		@Override
+		public int size() {
+			return keyTable.access.count();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return keyTable.access.count() == 0;
+		}
+
+		@Override
+		public void clear() {
+			CuckooEquivalenceBiMap.this.clear();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			if (!(o instanceof Entry)) return false;
+			Entry<?,?> e = (Entry<?,?>) o;
+			int i = keyTable.access.indexOf(e.getKey());
+			return i != -1 && valueTable.access.indexOf(e.getValue()) == keyTable.links[i];
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			if (!(o instanceof Entry)) return false;
+			Entry<?,?> e = (Entry<?,?>) o;
+			return CuckooEquivalenceBiMap.this.remove(e.getKey(), e.getValue());
+		}
+
+		@Override
+		public Iterator<Entry<K, V>> iterator() {
+			return new TableIterator<>((i, k) -> new BiEntry(i, k));
+		}
+	}
+
+	final private class BiEntry extends AbstractMapEntry<K, V> {
+
+		private final K key;
+		private final int index;
+
+		BiEntry(int index, K key) {
+			this.index = index;
+			this.key = key;
+		}
+
+		@Override
+		public K getKey() {
+			return key;
+		}
+
+		@Override
+		public V getValue() {
+			return valueAt(index);
+		}
+
+		@Override
+		public V setValue(V value) {
+			checkNotNull(key, value);
+			checkMutable();
+			return replaceAt(index, value, false);
+		}
+
+	}
+}
@@ -6,21 +6,90 @@ import java.util.AbstractSet;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.IntFunction;
 
-import com.tomgibara.hashing.Hasher;
 import com.tomgibara.storage.Storage;
 import com.tomgibara.storage.Store;
+import com.tomgibara.streams.ReadStream;
+import com.tomgibara.streams.StreamDeserializer;
+import com.tomgibara.streams.StreamSerializer;
+import com.tomgibara.streams.WriteStream;
 
 final class CuckooEquivalenceMap<K, V> extends AbstractMap<K, V> implements EquivalenceMap<K, V> {
 
+	// writes the entries of any map, as laid out if the map is a cuckoo map
+	static <K, V> void write(EquivalenceMap<K, V> map, StreamSerializer<K> keySerializer, StreamSerializer<V> valueSerializer, WriteStream s) {
+		if (map instanceof ImmutableEquivalenceMap) map = ((ImmutableEquivalenceMap<K, V>) map).map;
+		if (map instanceof CuckooEquivalenceMap) {
+			((CuckooEquivalenceMap<K, V>) map).write(keySerializer, valueSerializer, s);
+			return;
+		}
+		Cuckoo.writeUnordered(s, map.size());
+		for (Entry<K, V> entry : map.entrySet()) {
+			s.writeBoolean(true);
+			keySerializer.serialize(entry.getKey(), s);
+			writeValue(entry.getValue(), valueSerializer, s);
+		}
+	}
+
+	// reads the entries written by write, avoiding rehashing if their layout matches that of the cuckoo
+	static <K, V> CuckooEquivalenceMap<K, V> read(Cuckoo<K> cuckoo, Storage<K> keyStorage, Storage<V> valueStorage, Equivalence<V> equ, StreamDeserializer<K> keyDeserializer, StreamDeserializer<V> valueDeserializer, ReadStream s) {
+		Cuckoo.Layout layout = cuckoo.readLayout(s);
+		int capacity = layout.capacity;
+		if (layout.laidOut) {
+			Store<K> keyStore = keyStorage.newStore(capacity);
+			Store<V> valueStore = valueStorage.newStore(capacity);
+			for (int i = 0; i < capacity; i++) {
+				if (!s.readBoolean()) continue;
+				keyStore.set(i, keyDeserializer.deserialize(s));
+				valueStore.set(i, readValue(valueDeserializer, s));
+			}
+			if (cuckoo.isLaidOut(layout, keyStore)) return new CuckooEquivalenceMap<>(cuckoo, keyStorage, valueStorage, equ, keyStore, valueStore);
+			// the keys were hashed differently when written
+			Object[] keys = new Object[keyStore.count()];
+			Object[] values = new Object[keys.length];
+			for (int i = 0, j = 0; i < capacity; i++) {
+				K key = keyStore.get(i);
+				if (key == null) continue;
+				keys[j] = key;
+				values[j++] = valueStore.get(i);
+			}
+			return new CuckooEquivalenceMap<>(cuckoo, keyStorage, valueStorage, equ, keys, values);
+		}
+		CuckooEquivalenceMap<K, V> map = new CuckooEquivalenceMap<>(cuckoo, keyStorage, valueStorage, equ, Math.max(1, capacity));
+		for (int i = capacity; i > 0; i--) {
+			if (!s.readBoolean()) continue;
+			K key = keyDeserializer.deserialize(s);
+			map.put(key, readValue(valueDeserializer, s));
+		}
+		return map;
+	}
+
+	// values are preceded by a flag, since they may be null
+	private static <V> void writeValue(V value, StreamSerializer<V> serializer, WriteStream s) {
+		s.writeBoolean(value != null);
+		if (value != null) serializer.serialize(value, s);
+	}
+
+	private static <V> V readValue(StreamDeserializer<V> deserializer, ReadStream s) {
+		return s.readBoolean() ? deserializer.deserialize(s) : null;
+	}
+
+
 	private final Cuckoo<K> cuckoo;
 	private final Storage<K> keyStorage;
 	private final Storage<V> valueStorage;
 	private final Equivalence<V> equ;
-	private Hasher<K> hasher;
 	private Store<K> keyStore;
 	private Store<V> valueStore;
+	private Cuckoo<K>.Access<V> access;
+	// null unless values are indexed
+	private ValueIndex index = null;
 	
 	private Entries entries = null;
 	private Keys keys = null;
@@ -31,19 +100,53 @@ final class CuckooEquivalenceMap<K, V> extends AbstractMap<K, V> implements Equi
 		this.keyStorage = keyStorage;
 		this.valueStorage = valueStorage;
 		this.equ = equ;
-		hasher = cuckoo.updateHasher(null, initialCapacity);
-		keyStore = keyStorage.newStore(initialCapacity);
-		valueStore = valueStorage.newStore(initialCapacity);
+		int capacity = cuckoo.capacity(initialCapacity);
+		setStores(keyStorage.newStore(capacity), valueStorage.newStore(capacity), null);
 	}
 	
+	// lays out the entries directly, in the least capacity into which they fit
+	CuckooEquivalenceMap(Cuckoo<K> cuckoo, Storage<K> keyStorage, Storage<V> valueStorage, Equivalence<V> equ, Map<? extends K, ? extends V> map) {
+		this.cuckoo = cuckoo;
+		this.keyStorage = keyStorage;
+		this.valueStorage = valueStorage;
+		this.equ = equ;
+		// the map may be modified concurrently, so its size is not relied upon
+		Object[] entries = map.entrySet().toArray();
+		int size = entries.length;
+		Object[] keys = new Object[size];
+		Object[] values = new Object[size];
+		for (int j = 0; j < size; j++) {
+			Map.Entry<?, ?> entry = (Map.Entry<?, ?>) entries[j];
+			keys[j] = entry.getKey();
+			values[j] = entry.getValue();
+		}
+		fill(keys, values);
+	}
+
+	// as per the previous constructor, with the keys and values given by parallel arrays
+	CuckooEquivalenceMap(Cuckoo<K> cuckoo, Storage<K> keyStorage, Storage<V> valueStorage, Equivalence<V> equ, Object[] keys, Object[] values) {
+		this.cuckoo = cuckoo;
+		this.keyStorage = keyStorage;
+		this.valueStorage = valueStorage;
+		this.equ = equ;
+		fill(keys, values);
+	}
+
+	CuckooEquivalenceMap(Cuckoo<K> cuckoo, Storage<K> keyStorage, Storage<V> valueStorage, Equivalence<V> equ, Store<K> keyStore, Store<V> valueStore) {
+		this.cuckoo = cuckoo;
+		this.keyStorage = keyStorage;
+		this.valueStorage = valueStorage;
+		this.equ = equ;
+		setStores(keyStore, valueStore, null);
+	}
+
 	private CuckooEquivalenceMap(CuckooEquivalenceMap<K, V> that, Store<K> keyStore, Store<V> valueStore) {
 		this.cuckoo = that.cuckoo;
 		this.keyStorage = that.keyStorage;
 		this.valueStorage = that.valueStorage;
 		this.equ = that.equ;
-		this.hasher = cuckoo.updateHasher(that.hasher, keyStore.size());
-		this.keyStore = keyStore;
-		this.valueStore = valueStore;
+		setStores(keyStore, valueStore, null);
+		if (that.index != null) indexValues();
 	}
 
 	// equivalence methods
@@ -62,7 +165,7 @@ final class CuckooEquivalenceMap<K, V> extends AbstractMap<K, V> implements Equi
 	
 	@Override
 	public boolean containsKey(Object key) {
-		return access().indexOf(key) != -1;
+		return access.indexOf(key) != -1;
 	}
 	
 	@Override
@@ -70,16 +173,19 @@ final class CuckooEquivalenceMap<K, V> extends AbstractMap<K, V> implements Equi
 		checkMutable();
 		keyStore.clear();
 		valueStore.clear();
+		if (index != null) index.clear();
+		// any draining stores are discarded
+		if (access.isDraining()) setStores(keyStore, valueStore, null);
 	}
 	
 	@Override
 	public int size() {
-		return keyStore.count();
+		return access.count();
 	}
 	
 	@Override
 	public boolean containsValue(Object value) {
-		return indexOfValue(value) != -1;
+		return index == null ? indexOfValue(value) != -1 : index.contains(value);
 	}
 	
 	@Override
@@ -89,39 +195,35 @@ final class CuckooEquivalenceMap<K, V> extends AbstractMap<K, V> implements Equi
 	
 	@Override
 	public V get(Object key) {
-		int i = access().indexOf(key);
-		return i == -1 ? null : valueStore.get(i);
+		int i = access.indexOf(key);
+		return i == -1 ? null : access.value(i);
 	}
 	
 	@Override
 	public V getOrDefault(Object key, V defaultValue) {
-		int i = access().indexOf(key);
+		int i = access.indexOf(key);
 		if (i == -1) return defaultValue;
-		V value = valueStore.get(i);
+		V value = access.value(i);
 		return value == null ? defaultValue : value;
 	}
 	
 	@Override
 	public V remove(Object key) {
 		checkMutable();
-		int i = access().indexOf(key);
+		int i = access.indexOf(key);
 		if (i == -1) return null;
-		V value = valueStore.get(i);
-		keyStore.set(i, null);
-		valueStore.set(i, null);
-		return value;
+		return removeAt(i);
 	}
 	
 	@Override
 	public boolean remove(Object key, Object value) {
 		checkMutable();
 		if (value == null) return false;
-		int i = access().indexOf(key);
+		int i = access.indexOf(key);
 		if (i == -1) return false;
-		V previous = valueStore.get(i);
+		V previous = access.value(i);
 		if (!previous.equals(value)) return false;
-		keyStore.set(i, null);
-		valueStore.set(i, null);
+		removeAt(i);
 		return true;
 	}
 
@@ -139,10 +241,10 @@ final class CuckooEquivalenceMap<K, V> extends AbstractMap<K, V> implements Equi
 	public V replace(K key, V value) {
 		if (value == null) throw new IllegalArgumentException("null value");
 		checkMutable();
-		int i = access().checkedIndexOf(key);
+		int i = access.checkedIndexOf(key);
 		if (i == -1) return null;
-		V previous = valueStore.get(i);
-		valueStore.set(i, value);
+		V previous = access.setValue(i, value);
+		if (index != null) index.replaced(i, previous);
 		return previous;
 	}
 
@@ -151,9 +253,10 @@ final class CuckooEquivalenceMap<K, V> extends AbstractMap<K, V> implements Equi
 		if (newValue == null) throw new IllegalArgumentException("null value");
 		checkMutable();
 		if (oldValue == null) return false;
-		int i = access().checkedIndexOf(key);
-		if (i == -1 || !equ.isEquivalent(valueStore.get(i), oldValue)) return false;
-		valueStore.set(i, newValue);
+		int i = access.checkedIndexOf(key);
+		if (i == -1 || !equ.isEquivalent(access.value(i), oldValue)) return false;
+		V previous = access.setValue(i, newValue);
+		if (index != null) index.replaced(i, previous);
 		return true;
 	}
 	
@@ -171,6 +274,51 @@ final class CuckooEquivalenceMap<K, V> extends AbstractMap<K, V> implements Equi
 	public Collection<V> values() {
 		return values == null ? values = new Values() : values;
 	}
+
+	@Override
+	public void forEach(BiConsumer<? super K, ? super V> action) {
+		if (action == null) throw new IllegalArgumentException("null action");
+		Cuckoo<K>.Access<V> access = this.access;
+		int capacity = access.capacity();
+		for (int i = 0; i < capacity; i++) {
+			K key = access.element(i);
+			if (key != null) action.accept(key, access.value(i));
+		}
+	}
+
+	@Override
+	public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+		if (function == null) throw new IllegalArgumentException("null function");
+		checkMutable();
+		Cuckoo<K>.Access<V> access = this.access;
+		int capacity = access.capacity();
+		for (int i = 0; i < capacity; i++) {
+			K key = access.element(i);
+			if (key == null) continue;
+			V value = function.apply(key, access.value(i));
+			if (value == null) throw new IllegalArgumentException("null value");
+			V previous = access.setValue(i, value);
+			if (index != null) index.replaced(i, previous);
+		}
+	}
+
+	// equivalence map methods
+
+	@Override
+	public void compact() {
+		checkMutable();
+		int capacity = cuckoo.compactCapacity(access.count());
+		if (capacity < keyStore.size()) {
+			rebuild(capacity);
+		} else {
+			access.settle();
+		}
+	}
+
+	@Override
+	public MapCursor<K, V> cursor() {
+		return new Cursor();
+	}
 	
 	// mutability methods
 
@@ -191,11 +339,13 @@ final class CuckooEquivalenceMap<K, V> extends AbstractMap<K, V> implements Equi
 	
 	@Override
 	public EquivalenceMap<K, V> mutableCopy() {
+		access.settle();
 		return new CuckooEquivalenceMap<>(this, keyStore.mutableCopy(), valueStore.mutableCopy());
 	}
 	
 	@Override
 	public EquivalenceMap<K, V> immutableCopy() {
+		access.settle();
 		return new CuckooEquivalenceMap<>(this, keyStore.immutableCopy(), valueStore.immutableCopy());
 	}
 	
@@ -204,41 +354,108 @@ final class CuckooEquivalenceMap<K, V> extends AbstractMap<K, V> implements Equi
 		return new ImmutableEquivalenceMap<>(this);
 	}
 
+	// package scoped methods
+
+	// maintains an index through which values are located without examining every slot
+	CuckooEquivalenceMap<K, V> indexValues() {
+		access.settle();
+		index = new ValueIndex();
+		// the access is replaced by one that reports moves to the index
+		setStores(keyStore, valueStore, null);
+		return this;
+	}
+
+	void write(StreamSerializer<K> keySerializer, StreamSerializer<V> valueSerializer, WriteStream s) {
+		access.settle();
+		int capacity = keyStore.size();
+		cuckoo.writeLayout(s, keyStore);
+		for (int i = 0; i < capacity; i++) {
+			K key = keyStore.get(i);
+			s.writeBoolean(key != null);
+			if (key == null) continue;
+			keySerializer.serialize(key, s);
+			writeValue(valueStore.get(i), valueSerializer, s);
+		}
+	}
+
 	// private helper methods
 
-	private Cuckoo<K>.Access<V> resize() {
-		Store<K> oldKeyStore = keyStore;
-		Store<V> oldValueStore = valueStore;
-		int oldCapacity = oldKeyStore.size();
-		int newCapacity = 2 * oldCapacity;
-		keyStore = keyStorage.newStore(newCapacity);
-		valueStore = valueStorage.newStore(newCapacity);
-		hasher = cuckoo.updateHasher(hasher, newCapacity);
-		Cuckoo<K>.Access<V> access = access();
+	private Cuckoo<K>.Access<V> resize(int newCapacity) {
+		// indexed values are linked by slot, which migration does not maintain
+		if (index != null || !cuckoo.isIncremental(access, newCapacity)) return rebuild(newCapacity);
+		// entries will be migrated by subsequent puts
+		setStores(keyStorage.newStore(newCapacity), valueStorage.newStore(newCapacity), access);
+		return access;
+	}
+
+	private Cuckoo<K>.Access<V> rebuild(int newCapacity) {
+		Cuckoo<K>.Access<V> old = access;
+		setStores(keyStorage.newStore(newCapacity), valueStorage.newStore(newCapacity), null);
+		int oldCapacity = old.capacity();
 		for (int j = 0; j < oldCapacity; j++) {
-			K ko = oldKeyStore.get(j);
+			K ko = old.element(j);
 			if (ko != null) {
-				V vo = oldValueStore.get(j);
-				access.put(ko, vo, false);
+				V vo = old.value(j);
+				access.put(ko, old.hashAt(j), vo, false);
 			}
 		}
 		return access;
 	}
-	
-	private Cuckoo<K>.Access<V> access() {
-		return cuckoo.access(keyStore, hasher, this::resize, valueStore);
+
+	private void fill(Object[] keys, Object[] values) {
+		int[] hashes = cuckoo.hashes(keys);
+		int capacity = cuckoo.compactCapacity(keys.length);
+		while (true) {
+			setStores(keyStorage.newStore(capacity), valueStorage.newStore(capacity), null);
+			if (access.fill(keys, values, hashes)) break;
+			capacity = cuckoo.grownCapacity(capacity);
+		}
+	}
+
+	private void setStores(Store<K> keyStore, Store<V> valueStore, Cuckoo<K>.Access<V> draining) {
+		this.keyStore = keyStore;
+		this.valueStore = valueStore;
+		if (index == null) {
+			access = cuckoo.access(keyStore, this::resize, valueStore, draining);
+		} else {
+			access = cuckoo.access(keyStore, this::resize, valueStore, index);
+			index.resized(keyStore.size());
+		}
 	}
 	
 	private V putImpl(K key, V value, boolean overwrite) {
 		checkMutable();
-		return access().put(key, value, overwrite);
+		if (index == null) return access.put(key, value, overwrite);
+		int i = access.indexOf(key);
+		if (i == -1) {
+			i = ~access.insert(key);
+			access.setValue(i, value);
+			index.added(i);
+			return null;
+		}
+		if (!overwrite) return access.value(i);
+		V previous = access.setValue(i, value);
+		index.replaced(i, previous);
+		return previous;
+	}
+
+	// removes the entry in the specified slot, returning its value
+	private V removeAt(int i) {
+		V value = access.value(i);
+		if (index != null) index.removed(i);
+		access.remove(i);
+		return value;
 	}
 
 	private int indexOfValue(Object value) {
+		return index == null ? scanForValue(value) : index.indexOf(value);
+	}
+
+	private int scanForValue(Object value) {
 		if (value == null) return -1;
-		int capacity = valueStore.size();
+		int capacity = access.capacity();
 		for (int i = 0; i < capacity; i++) {
-			V candidate = valueStore.get(i);
+			V candidate = access.value(i);
 			if (candidate != null) try {
 				if (equ.isEquivalent(candidate, (V) value)) return i;
 			} catch (IllegalArgumentException|ClassCastException e) {
@@ -254,80 +471,35 @@ final class CuckooEquivalenceMap<K, V> extends AbstractMap<K, V> implements Equi
 	
 	// inner classes
 	
-	private final class Keys extends AbstractSet<K> implements EquivalenceSet<K> {
-		
-		// equivalence methods
-		
-		@Override
-		public Equivalence<K> getEquivalence() {
-			return cuckoo.equ;
-		}
-		
-		@Override
-		public K get(K e) {
-			if (e == null) throw new IllegalArgumentException("null e");
-			int i = access().checkedIndexOf(e);
-			return i == -1 ? null : keyStore.get(i);
-		}
-		
-		@Override
-		public K some() {
-			int i = keyStore.population().ones().first();
-			return i == keyStore.size() ? null : keyStore.get(i);
-		}
+	private final class Keys extends CuckooElementSet<K> {
 
-		// set methods
-		
-		@Override
-		public int size() {
-			return keyStore.count();
-		}
-		
-		@Override
-		public boolean isEmpty() {
-			return keyStore.count() == 0;
-		}
-		
-		@Override
-		public void clear() {
-			CuckooEquivalenceMap.this.clear();
+		Keys() {
+			super(cuckoo, keyStorage);
 		}
-		
+
 		@Override
-		public boolean contains(Object o) {
-			return containsKey(o);
+		Cuckoo<K>.Access<?> access() {
+			return access;
 		}
-		
+
 		@Override
-		public boolean remove(Object o) {
-			checkMutable();
-			int i = access().indexOf(o);
-			if (i == -1) return false;
-			keyStore.set(i, null);
-			valueStore.set(i, null);
-			return true;
+		void removeAt(int index) {
+			CuckooEquivalenceMap.this.removeAt(index);
 		}
-		
+
 		@Override
 		public Iterator<K> iterator() {
-			return keyStore.iterator();
+			return index == null ? super.iterator() : new IndexedIterator<>(access::element, false);
 		}
 
-		// mutability methods
-		
-		@Override
-		public boolean isMutable() {
-			return keyStore.isMutable();
-		}
-		
 		@Override
-		public EquivalenceSet<K> mutableCopy() {
-			return new CuckooEquivalenceSet<K>(cuckoo, keyStorage, keyStore.mutableCopy());
+		public void clear() {
+			CuckooEquivalenceMap.this.clear();
 		}
 
 		@Override
-		public EquivalenceSet<K> immutableCopy() {
-			return new CuckooEquivalenceSet<K>(cuckoo, keyStorage, keyStore.immutableCopy());
+		public void compact() {
+			CuckooEquivalenceMap.this.compact();
 		}
 
 		@Override
@@ -340,12 +512,12 @@ final class CuckooEquivalenceMap<K, V> extends AbstractMap<K, V> implements Equi
 
 		@Override
 		public int size() {
-			return valueStore.count();
+			return access.valueCount();
 		}
 		
 		@Override
 		public boolean isEmpty() {
-			return valueStore.count() == 0;
+			return access.valueCount() == 0;
 		}
 		
 		@Override
@@ -363,14 +535,20 @@ final class CuckooEquivalenceMap<K, V> extends AbstractMap<K, V> implements Equi
 			checkMutable();
 			int i = indexOfValue(o);
 			if (i == -1) return false;
-			keyStore.set(i, null);
-			valueStore.set(i, null);
+			removeAt(i);
 			return true;
 		}
 
 		@Override
 		public Iterator<V> iterator() {
-			return valueStore.iterator();
+			return index == null ? access.valueIterator() : new IndexedIterator<>(access::value, true);
+		}
+
+		@Override
+		public Spliterator<V> spliterator() {
+			// null values are skipped, as they are by the iterator
+			Cuckoo<K>.Access<V> access = CuckooEquivalenceMap.this.access;
+			return access.transformedSpliterator((i,k) -> access.value(i), access.valueCount(), 0);
 		}
 
 	}
@@ -379,12 +557,12 @@ final class CuckooEquivalenceMap<K, V> extends AbstractMap<K, V> implements Equi
 
 		@Override
 		public int size() {
-			return keyStore.count();
+			return access.count();
 		}
 		
 		@Override
 		public boolean isEmpty() {
-			return keyStore.count() == 0;
+			return access.count() == 0;
 		}
 		
 		@Override
@@ -409,26 +587,28 @@ final class CuckooEquivalenceMap<K, V> extends AbstractMap<K, V> implements Equi
 			Object k = e.getKey();
 			Object v = e.getValue();
 			if (k == null || v == null) return false;
-			int i = access().indexOf(k);
+			int i = access.indexOf(k);
 			if (i == -1) return false;
 			//TODO again... there may be no better way
 			boolean contained;
 			try {
-				contained = equ.isEquivalent(valueStore.get(i), (V) v);
+				contained = equ.isEquivalent(access.value(i), (V) v);
 			} catch (IllegalArgumentException|ClassCastException ex) {
 				return false;
 			}
 			if (!contained) return false;
-			if (remove) {
-				keyStore.set(i, null);
-				valueStore.set(i, null);
-			}
+			if (remove) removeAt(i);
 			return true;
 		}
 		
 		@Override
 		public Iterator<Entry<K, V>> iterator() {
-			return keyStore.transformedIterator((i,k) -> new CuckooEntry(i,k));
+			return index == null ? access.transformedIterator((i,k) -> new CuckooEntry(i,k)) : new IndexedIterator<>(i -> new CuckooEntry(i, access.element(i)), false);
+		}
+
+		@Override
+		public Spliterator<Entry<K, V>> spliterator() {
+			return access.transformedSpliterator((i,k) -> new CuckooEntry(i,k), access.count(), Spliterator.DISTINCT);
 		}
 	}
 	
@@ -449,14 +629,241 @@ final class CuckooEquivalenceMap<K, V> extends AbstractMap<K, V> implements Equi
 		
 		@Override
 		public V getValue() {
-			return valueStore.get(index);
+			return access.value(index);
 		}
 		
 		@Override
 		public V setValue(V value) {
 			if (value == null) throw new IllegalArgumentException("null value");
-			return valueStore.set(index, value);
+			V previous = access.setValue(index, value);
+			if (CuckooEquivalenceMap.this.index != null) CuckooEquivalenceMap.this.index.replaced(index, previous);
+			return previous;
+		}
+
+	}
+
+	// walks the slots directly, so that no entries are allocated
+	private final class Cursor implements MapCursor<K, V> {
+
+		private int slot = -1;
+		private K key = null;
+
+		@Override
+		public boolean advance() {
+			int capacity = access.capacity();
+			while (++slot < capacity) {
+				key = access.element(slot);
+				if (key != null) return true;
+			}
+			slot = capacity;
+			key = null;
+			return false;
+		}
+
+		@Override
+		public K key() {
+			checkEntry();
+			return key;
+		}
+
+		@Override
+		public V value() {
+			checkEntry();
+			return access.value(slot);
+		}
+
+		@Override
+		public V setValue(V value) {
+			if (value == null) throw new IllegalArgumentException("null value");
+			checkMutable();
+			checkEntry();
+			V previous = access.setValue(slot, value);
+			if (index != null) index.replaced(slot, previous);
+			return previous;
+		}
+
+		@Override
+		public void reset() {
+			slot = -1;
+			key = null;
+		}
+
+		private void checkEntry() {
+			if (key == null) throw new IllegalStateException("no entry");
+		}
+	}
+
+	// walks the slots directly when values are indexed, so that an entry
+	// removed through the iterator is removed from the index by its slot
+	private final class IndexedIterator<T> implements Iterator<T> {
+
+		private final IntFunction<T> element;
+		// whether slots with null values are skipped
+		private final boolean valued;
+		// the next slot to examine
+		private int cursor = 0;
+		private int last = -1;
+
+		IndexedIterator(IntFunction<T> element, boolean valued) {
+			this.element = element;
+			this.valued = valued;
+		}
+
+		@Override
+		public boolean hasNext() {
+			int capacity = access.capacity();
+			while (cursor < capacity && (access.element(cursor) == null || valued && access.value(cursor) == null)) cursor++;
+			return cursor < capacity;
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			last = cursor++;
+			return element.apply(last);
+		}
+
+		@Override
+		public void remove() {
+			if (last == -1) throw new IllegalStateException("no element");
+			checkMutable();
+			index.removed(last);
+			// the table is not shrunk during iteration, but a stashed entry may
+			// move into the slot, which is therefore examined again
+			access.delete(last);
+			cursor = last;
+			last = -1;
+		}
+	}
+
+	// records, for each value, one key through which the value is located;
+	// the slots of the keys that share a value are linked into a ring, so
+	// that when the recorded key is removed or given another value, the
+	// record passes to the next key in the ring; the rings follow entries as
+	// they move between slots, and are rebuilt after the table is resized
+	private final class ValueIndex implements Cuckoo.Follower {
+
+		private final CuckooEquivalenceMap<V, K> heads;
+		// the next and previous slots in the ring of each slot with a value
+		private int[] nexts;
+		private int[] prevs;
+		// false if the index must be rebuilt before it is used
+		private boolean linked = false;
+
+		ValueIndex() {
+			heads = new CuckooEquivalenceMap<>(cuckoo.under(equ), valueStorage.mutable(), keyStorage.mutable(), cuckoo.equ, 1);
+		}
+
+		// called whenever the map adopts new stores
+		void resized(int capacity) {
+			nexts = new int[capacity];
+			prevs = new int[capacity];
+			linked = false;
+		}
+
+		// called after the entry in the slot has been added
+		void added(int slot) {
+			if (linked) {
+				link(slot, access.value(slot));
+			} else {
+				relink();
+			}
+		}
+
+		// called before the entry in the slot is removed
+		void removed(int slot) {
+			if (!linked) relink();
+			unlink(slot, access.value(slot));
 		}
 
+		// called after the value in the slot has been replaced
+		void replaced(int slot, V previous) {
+			if (!linked) {
+				relink();
+				return;
+			}
+			V value = access.value(slot);
+			if (previous != null && value != null && equ.isEquivalent(previous, value)) return;
+			unlink(slot, previous);
+			link(slot, value);
+		}
+
+		void clear() {
+			heads.clear();
+		}
+
+		boolean contains(Object value) {
+			if (value == null) return false;
+			if (!linked) relink();
+			try {
+				return heads.containsKey(value);
+			} catch (IllegalArgumentException|ClassCastException e) {
+				return false;
+			}
+		}
+
+		int indexOf(Object value) {
+			if (!contains(value)) return -1;
+			return access.indexOf(heads.get(value));
+		}
+
+		@Override
+		public void move(int source, int target) {
+			// the rings are rebuilt if they are not current, and a slot without a value is unlinked
+			if (!linked || access.value(target) == null) return;
+			int next = nexts[source];
+			if (next == source) {
+				nexts[target] = target;
+				prevs[target] = target;
+				return;
+			}
+			int prev = prevs[source];
+			nexts[target] = next;
+			prevs[target] = prev;
+			nexts[prev] = target;
+			prevs[next] = target;
+		}
+
+		private void link(int slot, V value) {
+			if (value == null) return;
+			K head = heads.get(value);
+			if (head == null) {
+				heads.put(value, access.element(slot));
+				nexts[slot] = slot;
+				prevs[slot] = slot;
+				return;
+			}
+			// the slot joins the ring immediately before that of the recorded key
+			int h = access.indexOf(head);
+			int prev = prevs[h];
+			nexts[prev] = slot;
+			prevs[slot] = prev;
+			nexts[slot] = h;
+			prevs[h] = slot;
+		}
+
+		private void unlink(int slot, V value) {
+			if (value == null) return;
+			int next = nexts[slot];
+			if (next == slot) {
+				// the key was the only one with the value
+				heads.remove(value);
+				return;
+			}
+			int prev = prevs[slot];
+			nexts[prev] = next;
+			prevs[next] = prev;
+			if (cuckoo.equ.isEquivalent(heads.get(value), access.element(slot))) heads.put(value, access.element(next));
+		}
+
+		// rebuilds the index from the slots of the table
+		private void relink() {
+			heads.clear();
+			int capacity = access.capacity();
+			for (int i = 0; i < capacity; i++) {
+				if (access.element(i) != null) link(i, access.value(i));
+			}
+			linked = true;
+		}
 	}
 }
@@ -0,0 +1,427 @@
+package com.tomgibara.collect;
+
+import java.util.Collection;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import com.tomgibara.storage.Storage;
+import com.tomgibara.storage.Store;
+
+// the values of every key are packed into a single pool, in which each key
+// has a run of slots that is relocated to the end of the pool when it fills;
+// the runs of the keys are recorded in arrays parallel to the key store, which
+// follow the keys as they are moved; runs that have been abandoned are
+// reclaimed by compacting the pool when they account for half of it;
+// resizing is never incremental
+final class CuckooEquivalenceMultimap<K, V> implements EquivalenceMultimap<K, V> {
+
+	private static final int MIN_POOL_SIZE = 16;
+
+	private final Cuckoo<K> cuckoo;
+	private final Storage<K> keyStorage;
+	private final Storage<V> valueStorage;
+	private final Equivalence<V> equ;
+	private Store<K> keyStore;
+	private Cuckoo<K>.Access<Void> access;
+	// the first slot, length and capacity of the run of each key
+	private int[] starts;
+	private int[] lengths;
+	private int[] capacities;
+	private Store<V> pool;
+	// the index of the first slot beyond every run
+	private int poolEnd;
+	// the number of slots before the end of the pool that are not in a run
+	private int garbage;
+	// the total number of values
+	private int count;
+
+	private Keys keys = null;
+
+	CuckooEquivalenceMultimap(Cuckoo<K> cuckoo, Storage<K> keyStorage, Storage<V> valueStorage, Equivalence<V> equ, int initialCapacity) {
+		this.cuckoo = cuckoo;
+		this.keyStorage = keyStorage;
+		this.valueStorage = valueStorage;
+		this.equ = equ;
+		setStore(keyStorage.newStore(cuckoo.capacity(initialCapacity)));
+		pool = valueStorage.newStore(MIN_POOL_SIZE);
+	}
+
+	private CuckooEquivalenceMultimap(CuckooEquivalenceMultimap<K, V> that, Store<K> keyStore, Store<V> pool) {
+		this.cuckoo = that.cuckoo;
+		this.keyStorage = that.keyStorage;
+		this.valueStorage = that.valueStorage;
+		this.equ = that.equ;
+		this.keyStore = keyStore;
+		starts = that.starts.clone();
+		lengths = that.lengths.clone();
+		capacities = that.capacities.clone();
+		access = cuckoo.access(keyStore, this::resize, this::move);
+		this.pool = pool;
+		poolEnd = that.poolEnd;
+		garbage = that.garbage;
+		count = that.count;
+	}
+
+	// equivalence methods
+
+	@Override
+	public Equivalence<K> getKeyEquivalence() {
+		return cuckoo.equ;
+	}
+
+	@Override
+	public Equivalence<V> getValueEquivalence() {
+		return equ;
+	}
+
+	// multimap methods
+
+	@Override
+	public int size() {
+		return count;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return access.indexOf(key) != -1;
+	}
+
+	@Override
+	public boolean containsEntry(Object key, Object value) {
+		int i = access.indexOf(key);
+		return i != -1 && indexOfValue(i, value) != -1;
+	}
+
+	@Override
+	public int valueCount(Object key) {
+		int i = access.indexOf(key);
+		return i == -1 ? 0 : lengths[i];
+	}
+
+	@Override
+	public void forEach(K key, Consumer<? super V> action) {
+		if (action == null) throw new IllegalArgumentException("null action");
+		int i = access.indexOf(key);
+		if (i == -1) return;
+		int start = starts[i];
+		int end = start + lengths[i];
+		for (int j = start; j < end; j++) {
+			action.accept(pool.get(j));
+		}
+	}
+
+	@Override
+	public void forEach(BiConsumer<? super K, ? super V> action) {
+		if (action == null) throw new IllegalArgumentException("null action");
+		int capacity = keyStore.size();
+		for (int i = 0; i < capacity; i++) {
+			K key = keyStore.get(i);
+			if (key == null) continue;
+			int start = starts[i];
+			int end = start + lengths[i];
+			for (int j = start; j < end; j++) {
+				action.accept(key, pool.get(j));
+			}
+		}
+	}
+
+	@Override
+	public void put(K key, V value) {
+		if (value == null) throw new IllegalArgumentException("null value");
+		checkMutable();
+		int i = slotFor(key, 1);
+		pool.set(starts[i] + lengths[i]++, value);
+		count++;
+	}
+
+	@Override
+	public void putAll(K key, Collection<? extends V> values) {
+		if (values == null) throw new IllegalArgumentException("null values");
+		for (V value : values) {
+			if (value == null) throw new IllegalArgumentException("null value");
+		}
+		checkMutable();
+		int size = values.size();
+		if (size == 0) return;
+		int i = slotFor(key, size);
+		int j = starts[i] + lengths[i];
+		for (V value : values) {
+			pool.set(j++, value);
+		}
+		lengths[i] += size;
+		count += size;
+	}
+
+	@Override
+	public boolean remove(Object key, Object value) {
+		checkMutable();
+		int i = access.indexOf(key);
+		if (i == -1) return false;
+		int j = indexOfValue(i, value);
+		if (j == -1) return false;
+		int last = starts[i] + --lengths[i];
+		// the last value fills the gap, so that no values need be shifted
+		pool.set(j, pool.get(last));
+		pool.set(last, null);
+		count--;
+		if (lengths[i] == 0) removeKey(i);
+		return true;
+	}
+
+	@Override
+	public int removeAll(Object key) {
+		checkMutable();
+		int i = access.indexOf(key);
+		if (i == -1) return 0;
+		int removed = lengths[i];
+		removeKey(i);
+		return removed;
+	}
+
+	@Override
+	public void clear() {
+		checkMutable();
+		keyStore.clear();
+		pool = valueStorage.newStore(MIN_POOL_SIZE);
+		poolEnd = 0;
+		garbage = 0;
+		count = 0;
+	}
+
+	@Override
+	public EquivalenceSet<K> keySet() {
+		return keys == null ? keys = new Keys() : keys;
+	}
+
+	@Override
+	public void compact() {
+		checkMutable();
+		int capacity = cuckoo.compactCapacity(access.count());
+		if (capacity < keyStore.size()) rebuild(capacity);
+		// runs are trimmed to their values
+		for (int i = 0; i < capacities.length; i++) {
+			if (keyStore.get(i) != null) capacities[i] = lengths[i];
+		}
+		compactPool(0);
+	}
+
+	// mutability methods
+
+	@Override
+	public boolean isMutable() {
+		return keyStore.isMutable();
+	}
+
+	@Override
+	public EquivalenceMultimap<K, V> mutableCopy() {
+		return new CuckooEquivalenceMultimap<>(this, keyStore.mutableCopy(), pool.mutableCopy());
+	}
+
+	@Override
+	public EquivalenceMultimap<K, V> immutableCopy() {
+		return new CuckooEquivalenceMultimap<>(this, keyStore.immutableCopy(), pool.immutableCopy());
+	}
+
+	@Override
+	public EquivalenceMultimap<K, V> immutableView() {
+		return new ImmutableEquivalenceMultimap<>(this);
+	}
+
+	// object methods
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+		forEach((k, v) -> sb.append(sb.length() == 1 ? "" : ", ").append(k).append('=').append(v));
+		return sb.append('}').toString();
+	}
+
+	// private helper methods
+
+	// the slot of a key, inserted if necessary, with room for further values
+	private int slotFor(K key, int extra) {
+		int i = access.insert(key);
+		if (i < 0) {
+			i = ~i;
+			starts[i] = poolEnd;
+			lengths[i] = 0;
+			capacities[i] = 0;
+		}
+		int length = lengths[i] + extra;
+		int capacity = capacities[i];
+		if (length <= capacity) return i;
+		// the run is relocated to the end of the pool with room to grow
+		capacity = Math.max(length, capacity * 2);
+		reserve(capacity);
+		int start = starts[i];
+		int end = start + lengths[i];
+		for (int j = start; j < end; j++) {
+			pool.set(poolEnd + j - start, pool.set(j, null));
+		}
+		garbage += capacities[i];
+		starts[i] = poolEnd;
+		capacities[i] = capacity;
+		poolEnd += capacity;
+		return i;
+	}
+
+	// ensures that the specified number of slots is available at the end of the pool
+	private void reserve(int size) {
+		if (poolEnd + size <= pool.size()) return;
+		if (garbage >= pool.size() / 2) {
+			compactPool(size);
+		} else {
+			resizePool(Math.max(pool.size() * 2, poolEnd + size));
+		}
+	}
+
+	private void resizePool(int size) {
+		Store<V> old = pool;
+		pool = valueStorage.newStore(size);
+		for (int j = 0; j < poolEnd; j++) {
+			V value = old.get(j);
+			if (value != null) pool.set(j, value);
+		}
+	}
+
+	// packs the runs at the start of a new pool with the specified number of free slots
+	private void compactPool(int free) {
+		int capacity = keyStore.size();
+		int size = free;
+		for (int i = 0; i < capacity; i++) {
+			if (keyStore.get(i) != null) size += capacities[i];
+		}
+		Store<V> old = pool;
+		pool = valueStorage.newStore(Math.max(MIN_POOL_SIZE, size));
+		int end = 0;
+		for (int i = 0; i < capacity; i++) {
+			if (keyStore.get(i) == null) continue;
+			int start = starts[i];
+			int length = lengths[i];
+			for (int j = 0; j < length; j++) {
+				pool.set(end + j, old.get(start + j));
+			}
+			starts[i] = end;
+			end += capacities[i];
+		}
+		poolEnd = end;
+		garbage = 0;
+	}
+
+	private void removeKey(int index) {
+		releaseRun(index);
+		access.remove(index);
+	}
+
+	// empties the run of a key that is being removed
+	private void releaseRun(int index) {
+		int start = starts[index];
+		int end = start + lengths[index];
+		for (int j = start; j < end; j++) {
+			pool.set(j, null);
+		}
+		count -= lengths[index];
+		garbage += capacities[index];
+	}
+
+	private int indexOfValue(int index, Object value) {
+		if (value == null) return -1;
+		int start = starts[index];
+		int end = start + lengths[index];
+		for (int j = start; j < end; j++) {
+			try {
+				if (equ.isEquivalent(pool.get(j), (V) value)) return j;
+			} catch (IllegalArgumentException|ClassCastException e) {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	private Cuckoo<K>.Access<Void> resize(int newCapacity) {
+		return rebuild(newCapacity);
+	}
+
+	private Cuckoo<K>.Access<Void> rebuild(int newCapacity) {
+		Cuckoo<K>.Access<Void> old = access;
+		int[] oldStarts = starts;
+		int[] oldLengths = lengths;
+		int[] oldCapacities = capacities;
+		setStore(keyStorage.newStore(newCapacity));
+		int oldCapacity = old.capacity();
+		for (int j = 0; j < oldCapacity; j++) {
+			K k = old.element(j);
+			if (k == null) continue;
+			int i = ~access.insert(k, old.hashAt(j));
+			starts[i] = oldStarts[j];
+			lengths[i] = oldLengths[j];
+			capacities[i] = oldCapacities[j];
+		}
+		return access;
+	}
+
+	private void setStore(Store<K> keyStore) {
+		this.keyStore = keyStore;
+		int size = keyStore.size();
+		starts = new int[size];
+		lengths = new int[size];
+		capacities = new int[size];
+		access = cuckoo.access(keyStore, this::resize, this::move);
+	}
+
+	private void move(int source, int target) {
+		starts[target] = starts[source];
+		lengths[target] = lengths[source];
+		capacities[target] = capacities[source];
+	}
+
+	private void checkMutable() {
+		if (!keyStore.isMutable()) throw new IllegalStateException("immutable");
+	}
+
+	// inner classes
+
+	// releases the runs of keys removed from the set
+	private final class Keys extends CuckooElementSet<K> {
+
+		Keys() {
+			super(cuckoo, keyStorage);
+		}
+
+		@Override
+		Cuckoo<K>.Access<?> access() {
+			return access;
+		}
+
+		@Override
+		void removeAt(int index) {
+			removeKey(index);
+		}
+
+		@Override
+		void removing(int index) {
+			releaseRun(index);
+		}
+
+		@Override
+		public void clear() {
+			CuckooEquivalenceMultimap.this.clear();
+		}
+
+		@Override
+		public void compact() {
+			CuckooEquivalenceMultimap.this.compact();
+		}
+
+		@Override
+		public EquivalenceSet<K> immutableView() {
+			return CuckooEquivalenceMultimap.this.immutableView().keySet();
+		}
+	}
+
+}
@@ -1,42 +1,101 @@
 package com.tomgibara.collect;
 
 import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.List;
 
-import com.tomgibara.hashing.Hasher;
 import com.tomgibara.storage.Storage;
 import com.tomgibara.storage.Store;
+import com.tomgibara.streams.ReadStream;
+import com.tomgibara.streams.StreamDeserializer;
+import com.tomgibara.streams.StreamSerializer;
+import com.tomgibara.streams.WriteStream;
 
 final class CuckooEquivalenceSet<E> extends AbstractSet<E> implements EquivalenceSet<E> {
 
+	// statics
+
+	// writes the elements of any set, as laid out if the set is a cuckoo set
+	static <E> void write(EquivalenceSet<E> set, StreamSerializer<E> serializer, WriteStream s) {
+		if (set instanceof ImmutableEquivalenceSet) set = ((ImmutableEquivalenceSet<E>) set).set;
+		if (set instanceof CuckooEquivalenceSet) {
+			((CuckooEquivalenceSet<E>) set).write(serializer, s);
+			return;
+		}
+		Cuckoo.writeUnordered(s, set.size());
+		for (E e : set) {
+			s.writeBoolean(true);
+			serializer.serialize(e, s);
+		}
+	}
+
+	// reads the elements written by write, avoiding rehashing if their layout matches that of the cuckoo
+	static <E> CuckooEquivalenceSet<E> read(Cuckoo<E> cuckoo, Storage<E> storage, StreamDeserializer<E> deserializer, ReadStream s) {
+		Cuckoo.Layout layout = cuckoo.readLayout(s);
+		int capacity = layout.capacity;
+		if (layout.laidOut) {
+			Store<E> store = storage.newStore(capacity);
+			for (int i = 0; i < capacity; i++) {
+				if (s.readBoolean()) store.set(i, deserializer.deserialize(s));
+			}
+			if (cuckoo.isLaidOut(layout, store)) return new CuckooEquivalenceSet<>(cuckoo, storage, store);
+			// the elements were hashed differently when written
+			List<E> es = new ArrayList<>(store.count());
+			for (int i = 0; i < capacity; i++) {
+				E e = store.get(i);
+				if (e != null) es.add(e);
+			}
+			return new CuckooEquivalenceSet<>(cuckoo, storage, es);
+		}
+		List<E> es = new ArrayList<>();
+		for (int i = capacity; i > 0; i--) {
+			if (s.readBoolean()) es.add(deserializer.deserialize(s));
+		}
+		return new CuckooEquivalenceSet<>(cuckoo, storage, es);
+	}
+
 	// fields
 	
 	private final Cuckoo<E> cuckoo;
 	private final Storage<E> storage;
-	private Hasher<E> hasher = null;
 	private Store<E> store;
+	private Cuckoo<E>.Access<Void> access;
 	
 	// constructors
 	
 	CuckooEquivalenceSet(Cuckoo<E> cuckoo, Storage<E> storage, int initialCapacity) {
 		this.cuckoo = cuckoo;
 		this.storage = storage;
-		hasher = cuckoo.updateHasher(hasher, initialCapacity);
-		store = storage.newStore(initialCapacity);
+		setStore(storage.newStore(cuckoo.capacity(initialCapacity)), null);
 	}
 
 	CuckooEquivalenceSet(Cuckoo<E> cuckoo, Storage<E> storage, Store<E> store) {
 		this.cuckoo = cuckoo;
 		this.storage = storage;
-		this.store = store;
-		hasher = cuckoo.updateHasher(hasher, store.size());
+		setStore(store, null);
+	}
+
+	// lays out the elements directly, in the least capacity into which they fit
+	CuckooEquivalenceSet(Cuckoo<E> cuckoo, Storage<E> storage, Collection<? extends E> es) {
+		this.cuckoo = cuckoo;
+		this.storage = storage;
+		Object[] elements = es.toArray();
+		int[] hashes = cuckoo.hashes(elements);
+		int capacity = cuckoo.compactCapacity(elements.length);
+		while (true) {
+			setStore(storage.newStore(capacity), null);
+			if (access.fill(elements, null, hashes)) break;
+			capacity = cuckoo.grownCapacity(capacity);
+		}
 	}
 
 	private CuckooEquivalenceSet(CuckooEquivalenceSet<E> that, Store<E> store) {
 		this.cuckoo = that.cuckoo;
 		this.storage = that.storage;
-		this.store = store;
-		hasher = cuckoo.updateHasher(hasher, store.size());
+		setStore(store, null);
 	}
 
 	// equivalence
@@ -49,14 +108,13 @@ final class CuckooEquivalenceSet<E> extends AbstractSet<E> implements Equivalenc
 	@Override
 	public E get(E e) {
 		if (e == null) throw new IllegalArgumentException("null e");
-		int i = access().checkedIndexOf(e);
-		return i == -1 ? null : store.get(i);
+		int i = access.checkedIndexOf(e);
+		return i == -1 ? null : access.element(i);
 	}
 
 	@Override
 	public E some() {
-		int i = store.population().ones().first();
-		return i == store.size() ? null : store.get(i);
+		return access.some();
 	}
 
 	// mutability
@@ -78,11 +136,13 @@ final class CuckooEquivalenceSet<E> extends AbstractSet<E> implements Equivalenc
 	
 	@Override
 	public EquivalenceSet<E> mutableCopy() {
+		access.settle();
 		return new CuckooEquivalenceSet<>(this, store.mutableCopy());
 	}
 	
 	@Override
 	public EquivalenceSet<E> immutableCopy() {
+		access.settle();
 		return new CuckooEquivalenceSet<>(this, store.immutableCopy());
 	}
 	
@@ -95,31 +155,33 @@ final class CuckooEquivalenceSet<E> extends AbstractSet<E> implements Equivalenc
 	
 	@Override
 	public int size() {
-		return store.count();
+		return access.count();
 	}
 	
 	@Override
 	public boolean contains(Object o) {
-		return access().indexOf(o) != -1;
+		return access.indexOf(o) != -1;
 	}
 	
 	@Override
 	public boolean remove(Object o) {
 		if (!store.isMutable()) throw new IllegalStateException("immutable");
-		int i = access().indexOf(o);
+		int i = access.indexOf(o);
 		if (i == -1) return false;
-		store.set(i, null);
+		access.remove(i);
 		return true;
 	}
 	
 	@Override
 	public void clear() {
 		store.clear();
+		// any draining store is discarded
+		if (access.isDraining()) setStore(store, null);
 	}
 	
 	@Override
 	public boolean isEmpty() {
-		return store.count() == 0;
+		return access.count() == 0;
 	}
 	
 	@Override
@@ -127,30 +189,271 @@ final class CuckooEquivalenceSet<E> extends AbstractSet<E> implements Equivalenc
 		if (e == null) throw new IllegalArgumentException("null e");
 		if (!store.isMutable()) throw new IllegalStateException("immutable");
 		//TODO should be configurable
-		return access().add(e, true);
+		return access.add(e, true);
 	}
 	
 	@Override
 	public Iterator<E> iterator() {
-		return store.iterator();
+		return access.iterator();
+	}
+
+	@Override
+	public Spliterator<E> spliterator() {
+		return access.spliterator(Spliterator.DISTINCT);
+	}
+
+	@Override
+	public boolean containsAll(Collection<?> c) {
+		CuckooEquivalenceSet<E> that = compatible(c);
+		if (that == null) return super.containsAll(c);
+		if (that.size() > size()) return false;
+		Cuckoo<E>.Access<Void> a = that.access;
+		int capacity = a.capacity();
+		for (int j = 0; j < capacity; j++) {
+			E e = a.element(j);
+			if (e != null && access.indexOf(e, a.hashAt(j)) == -1) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends E> c) {
+		CuckooEquivalenceSet<E> that = compatible(c);
+		if (that == null) return super.addAll(c);
+		if (!store.isMutable()) throw new IllegalStateException("immutable");
+		if (that == this) return false;
+		int size = size();
+		include(that, true);
+		return size() != size;
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> c) {
+		CuckooEquivalenceSet<E> that = compatible(c);
+		if (that == null) return super.removeAll(c);
+		if (!store.isMutable()) throw new IllegalStateException("immutable");
+		if (size() <= that.size()) return removeMatching(that, true);
+		int size = size();
+		exclude(that);
+		return size() != size;
+	}
+
+	@Override
+	public boolean retainAll(Collection<?> c) {
+		CuckooEquivalenceSet<E> that = compatible(c);
+		if (that == null) return super.retainAll(c);
+		if (!store.isMutable()) throw new IllegalStateException("immutable");
+		if (size() <= that.size()) return removeMatching(that, false);
+		// cheaper to build the intersection from the smaller set than to examine every element of this one
+		return adopt(intersection(that));
+	}
+
+	// equivalence set
+
+	@Override
+	public void compact() {
+		if (!store.isMutable()) throw new IllegalStateException("immutable");
+		int capacity = cuckoo.compactCapacity(access.count());
+		if (capacity < store.size()) {
+			rebuild(capacity);
+		} else {
+			access.settle();
+		}
+	}
+
+	// set algebra
+
+	@Override
+	public EquivalenceSet<E> union(EquivalenceSet<E> set) {
+		CuckooEquivalenceSet<E> that = compatible(set);
+		if (that == null) return EquivalenceSet.super.union(set);
+		CuckooEquivalenceSet<E> union = presized(size() + that.size());
+		// elements of this set replace any equivalent elements of that set
+		union.include(that, false);
+		union.include(this, true);
+		return union;
+	}
+
+	@Override
+	public EquivalenceSet<E> intersection(EquivalenceSet<E> set) {
+		CuckooEquivalenceSet<E> that = compatible(set);
+		if (that == null) return EquivalenceSet.super.intersection(set);
+		boolean smaller = size() <= that.size();
+		Cuckoo<E>.Access<Void> s = smaller ? access : that.access;
+		Cuckoo<E>.Access<Void> l = smaller ? that.access : access;
+		CuckooEquivalenceSet<E> intersection = presized(s.count());
+		int capacity = s.capacity();
+		for (int j = 0; j < capacity; j++) {
+			E e = s.element(j);
+			if (e == null) continue;
+			int hash = s.hashAt(j);
+			int i = l.indexOf(e, hash);
+			// the element from this set is the one retained
+			if (i != -1) intersection.access.add(smaller ? e : l.element(i), hash, false);
+		}
+		return intersection;
+	}
+
+	@Override
+	public EquivalenceSet<E> difference(EquivalenceSet<E> set) {
+		CuckooEquivalenceSet<E> that = compatible(set);
+		if (that == null) return EquivalenceSet.super.difference(set);
+		if (size() > that.size()) {
+			// cheaper to copy this set and remove the elements of the smaller one
+			CuckooEquivalenceSet<E> difference = copy();
+			difference.exclude(that);
+			return difference;
+		}
+		CuckooEquivalenceSet<E> difference = presized(size());
+		difference.includeAbsent(this, that);
+		return difference;
+	}
+
+	@Override
+	public EquivalenceSet<E> symmetricDifference(EquivalenceSet<E> set) {
+		CuckooEquivalenceSet<E> that = compatible(set);
+		if (that == null) return EquivalenceSet.super.symmetricDifference(set);
+		if (size() >= that.size()) {
+			// cheaper to copy this set and toggle the elements of the smaller one
+			CuckooEquivalenceSet<E> difference = copy();
+			difference.toggle(that);
+			return difference;
+		}
+		CuckooEquivalenceSet<E> difference = presized(size() + that.size());
+		difference.includeAbsent(this, that);
+		difference.includeAbsent(that, this);
+		return difference;
+	}
+
+	// package scoped methods
+
+	void write(StreamSerializer<E> serializer, WriteStream s) {
+		access.settle();
+		int capacity = store.size();
+		cuckoo.writeLayout(s, store);
+		for (int i = 0; i < capacity; i++) {
+			E e = store.get(i);
+			s.writeBoolean(e != null);
+			if (e != null) serializer.serialize(e, s);
+		}
 	}
 
 	// private utility methods
 	
-	private Cuckoo<E>.Access<Void> resize() {
-		Store<E> oldStore = store;
-		int oldCapacity = oldStore.size();
-		store = storage.newStore(oldCapacity * 2);
-		hasher = cuckoo.updateHasher(hasher, store.size());
-		Cuckoo<E>.Access<Void> access = access();
+	private Cuckoo<E>.Access<Void> resize(int newCapacity) {
+		if (!cuckoo.isIncremental(access, newCapacity)) return rebuild(newCapacity);
+		// elements will be migrated by subsequent additions
+		setStore(storage.newStore(newCapacity), access);
+		return access;
+	}
+
+	private Cuckoo<E>.Access<Void> rebuild(int newCapacity) {
+		Cuckoo<E>.Access<Void> old = access;
+		setStore(storage.newStore(newCapacity), null);
+		int oldCapacity = old.capacity();
 		for (int j = 0; j < oldCapacity; j++) {
-			E t = oldStore.get(j);
-			if (t != null) access.add(t, false);
+			E t = old.element(j);
+			if (t != null) access.add(t, old.hashAt(j), false);
 		}
 		return access;
 	}
-	
-	private Cuckoo<E>.Access<Void> access() {
-		return cuckoo.access(store, hasher, this::resize, null);
+
+	// the cuckoo set underlying a collection, if it hashes elements as this set does
+	@SuppressWarnings("unchecked")
+	private CuckooEquivalenceSet<E> compatible(Object c) {
+		if (c instanceof ImmutableEquivalenceSet) c = ((ImmutableEquivalenceSet<?>) c).set;
+		if (!(c instanceof CuckooEquivalenceSet)) return null;
+		CuckooEquivalenceSet<?> that = (CuckooEquivalenceSet<?>) c;
+		return that.cuckoo.equ.equals(cuckoo.equ) ? (CuckooEquivalenceSet<E>) that : null;
+	}
+
+	// an empty mutable set expected to accommodate the specified number of elements without resizing
+	private CuckooEquivalenceSet<E> presized(int count) {
+		Storage<E> storage = this.storage.mutable();
+		return new CuckooEquivalenceSet<>(cuckoo, storage, storage.newStore(cuckoo.compactCapacity(count)));
+	}
+
+	private CuckooEquivalenceSet<E> copy() {
+		access.settle();
+		return new CuckooEquivalenceSet<>(cuckoo, storage.mutable(), store.mutableCopy());
+	}
+
+	// adds the elements of another set, reusing the hashes it has computed
+	private void include(CuckooEquivalenceSet<E> that, boolean overwrite) {
+		Cuckoo<E>.Access<Void> a = that.access;
+		int capacity = a.capacity();
+		for (int j = 0; j < capacity; j++) {
+			E e = a.element(j);
+			// note that adding may trigger a resize which replaces the access
+			if (e != null) access.add(e, a.hashAt(j), overwrite);
+		}
+	}
+
+	// adds the elements of one set that are absent from another
+	private void includeAbsent(CuckooEquivalenceSet<E> from, CuckooEquivalenceSet<E> absent) {
+		Cuckoo<E>.Access<Void> a = from.access;
+		int capacity = a.capacity();
+		for (int j = 0; j < capacity; j++) {
+			E e = a.element(j);
+			if (e == null) continue;
+			int hash = a.hashAt(j);
+			if (absent.access.indexOf(e, hash) == -1) access.add(e, hash, false);
+		}
+	}
+
+	// removes the elements of another set
+	private void exclude(CuckooEquivalenceSet<E> that) {
+		Cuckoo<E>.Access<Void> a = that.access;
+		int capacity = a.capacity();
+		for (int j = 0; j < capacity; j++) {
+			E e = a.element(j);
+			if (e == null) continue;
+			int i = access.indexOf(e, a.hashAt(j));
+			if (i != -1) access.remove(i);
+		}
+	}
+
+	// removes the elements of another set that are present, and adds those that are absent
+	private void toggle(CuckooEquivalenceSet<E> that) {
+		Cuckoo<E>.Access<Void> a = that.access;
+		int capacity = a.capacity();
+		for (int j = 0; j < capacity; j++) {
+			E e = a.element(j);
+			if (e == null) continue;
+			int hash = a.hashAt(j);
+			int i = access.indexOf(e, hash);
+			if (i == -1) {
+				access.add(e, hash, false);
+			} else {
+				access.remove(i);
+			}
+		}
+	}
+
+	// removes those elements of this set that are present in (or absent from) another
+	private boolean removeMatching(CuckooEquivalenceSet<E> that, boolean present) {
+		int size = size();
+		Cuckoo<E>.Access<Void> a = access;
+		for (int j = a.capacity() - 1; j >= 0; j--) {
+			E e = a.element(j);
+			if (e != null && (that.access.indexOf(e, a.hashAt(j)) != -1) == present) a.delete(j);
+		}
+		a.trim();
+		return size() != size;
+	}
+
+	// replaces the elements of this set with those of a set derived from it
+	// by combining it with a compatible set, and hence also a cuckoo set
+	private boolean adopt(EquivalenceSet<E> set) {
+		if (set.size() == size()) return false;
+		CuckooEquivalenceSet<E> that = (CuckooEquivalenceSet<E>) set;
+		that.access.settle();
+		setStore(that.store, null);
+		return true;
+	}
+
+	private void setStore(Store<E> store, Cuckoo<E>.Access<Void> draining) {
+		this.store = store;
+		access = cuckoo.access(store, this::resize, null, draining);
 	}
 }
@@ -0,0 +1,123 @@
+package com.tomgibara.collect;
+
+import java.nio.ByteBuffer;
+
+class CuckooIntEquivalenceSet extends PrimitiveCuckooSet<Integer> implements IntEquivalenceSet {
+
+	// statics
+
+	// the cuckoo set underlying the supplied set, or a copy if there is none
+	static CuckooIntEquivalenceSet of(IntEquivalenceSet set) {
+		if (set instanceof ImmutableIntEquivalenceSet) set = ((ImmutableIntEquivalenceSet) set).set;
+		if (set instanceof CuckooIntEquivalenceSet) return (CuckooIntEquivalenceSet) set;
+		CuckooIntEquivalenceSet copy = new CuckooIntEquivalenceSet(Cuckoo.standard(), false, Math.max(1, set.size()));
+		for (int value : set.toIntArray()) {
+			copy.addInt(value);
+		}
+		return copy;
+	}
+
+	// constructors
+
+	CuckooIntEquivalenceSet(Cuckoo<?> cuckoo, boolean direct, int initialCapacity) {
+		super(cuckoo, PrimitiveTable.ints(direct), initialCapacity);
+	}
+
+	CuckooIntEquivalenceSet(ByteBuffer file) {
+		super(file);
+	}
+
+	CuckooIntEquivalenceSet(CuckooIntEquivalenceSet that, boolean mutable) {
+		super(that, mutable);
+	}
+
+	// slot access
+
+	@Override
+	Integer box(long value) {
+		return (int) value;
+	}
+
+	// int equivalence set
+
+	@Override
+	public boolean containsInt(int value) {
+		return containsValue(value);
+	}
+
+	@Override
+	public boolean addInt(int value) {
+		return addValue(value);
+	}
+
+	@Override
+	public boolean removeInt(int value) {
+		return removeValue(value);
+	}
+
+	@Override
+	public int[] toIntArray() {
+		long[] values = values();
+		// any zero value is left at the end of the array
+		int[] ints = new int[size()];
+		for (int i = 0; i < values.length; i++) {
+			ints[i] = (int) values[i];
+		}
+		return ints;
+	}
+
+	// equivalence set
+
+	@Override
+	public Integer get(Integer e) {
+		if (e == null) throw new IllegalArgumentException("null e");
+		return containsValue(e) ? e : null;
+	}
+
+	// mutability
+
+	@Override
+	public IntEquivalenceSet mutable() {
+		return isMutable() ? this : mutableCopy();
+	}
+
+	@Override
+	public IntEquivalenceSet immutable() {
+		return isMutable() ? immutableView() : this;
+	}
+
+	@Override
+	public IntEquivalenceSet mutableCopy() {
+		return new CuckooIntEquivalenceSet(this, true);
+	}
+
+	@Override
+	public IntEquivalenceSet immutableCopy() {
+		return new CuckooIntEquivalenceSet(this, false);
+	}
+
+	@Override
+	public IntEquivalenceSet immutableView() {
+		return new ImmutableIntEquivalenceSet(this);
+	}
+
+	// set
+
+	@Override
+	public boolean contains(Object o) {
+		return o instanceof Integer && containsValue((Integer) o);
+	}
+
+	@Override
+	public boolean add(Integer e) {
+		if (e == null) throw new IllegalArgumentException("null e");
+		return addValue(e);
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		checkMutable();
+		return o instanceof Integer && removeValue((Integer) o);
+	}
+
+}
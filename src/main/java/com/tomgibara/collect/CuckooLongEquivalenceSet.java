@@ -0,0 +1,119 @@
+package com.tomgibara.collect;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+class CuckooLongEquivalenceSet extends PrimitiveCuckooSet<Long> implements LongEquivalenceSet {
+
+	// statics
+
+	// the cuckoo set underlying the supplied set, or a copy if there is none
+	static CuckooLongEquivalenceSet of(LongEquivalenceSet set) {
+		if (set instanceof ImmutableLongEquivalenceSet) set = ((ImmutableLongEquivalenceSet) set).set;
+		if (set instanceof CuckooLongEquivalenceSet) return (CuckooLongEquivalenceSet) set;
+		CuckooLongEquivalenceSet copy = new CuckooLongEquivalenceSet(Cuckoo.standard(), false, Math.max(1, set.size()));
+		for (long value : set.toLongArray()) {
+			copy.addLong(value);
+		}
+		return copy;
+	}
+
+	// constructors
+
+	CuckooLongEquivalenceSet(Cuckoo<?> cuckoo, boolean direct, int initialCapacity) {
+		super(cuckoo, PrimitiveTable.longs(direct), initialCapacity);
+	}
+
+	CuckooLongEquivalenceSet(ByteBuffer file) {
+		super(file);
+	}
+
+	CuckooLongEquivalenceSet(CuckooLongEquivalenceSet that, boolean mutable) {
+		super(that, mutable);
+	}
+
+	// slot access
+
+	@Override
+	Long box(long value) {
+		return value;
+	}
+
+	// long equivalence set
+
+	@Override
+	public boolean containsLong(long value) {
+		return containsValue(value);
+	}
+
+	@Override
+	public boolean addLong(long value) {
+		return addValue(value);
+	}
+
+	@Override
+	public boolean removeLong(long value) {
+		return removeValue(value);
+	}
+
+	@Override
+	public long[] toLongArray() {
+		// any zero value is left at the end of the array
+		return Arrays.copyOf(values(), size());
+	}
+
+	// equivalence set
+
+	@Override
+	public Long get(Long e) {
+		if (e == null) throw new IllegalArgumentException("null e");
+		return containsValue(e) ? e : null;
+	}
+
+	// mutability
+
+	@Override
+	public LongEquivalenceSet mutable() {
+		return isMutable() ? this : mutableCopy();
+	}
+
+	@Override
+	public LongEquivalenceSet immutable() {
+		return isMutable() ? immutableView() : this;
+	}
+
+	@Override
+	public LongEquivalenceSet mutableCopy() {
+		return new CuckooLongEquivalenceSet(this, true);
+	}
+
+	@Override
+	public LongEquivalenceSet immutableCopy() {
+		return new CuckooLongEquivalenceSet(this, false);
+	}
+
+	@Override
+	public LongEquivalenceSet immutableView() {
+		return new ImmutableLongEquivalenceSet(this);
+	}
+
+	// set
+
+	@Override
+	public boolean contains(Object o) {
+		return o instanceof Long && containsValue((Long) o);
+	}
+
+	@Override
+	public boolean add(Long e) {
+		if (e == null) throw new IllegalArgumentException("null e");
+		return addValue(e);
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		checkMutable();
+		return o instanceof Long && removeValue((Long) o);
+	}
+
+}
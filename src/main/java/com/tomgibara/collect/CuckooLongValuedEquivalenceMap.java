@@ -0,0 +1,447 @@
+package com.tomgibara.collect;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+
+import com.tomgibara.storage.Storage;
+import com.tomgibara.storage.Store;
+
+// values are held in an array parallel to the key store, and follow their
+// keys as they are moved; resizing is never incremental
+final class CuckooLongValuedEquivalenceMap<K> extends AbstractMap<K, Long> implements LongValuedEquivalenceMap<K> {
+
+	private final Cuckoo<K> cuckoo;
+	private final Storage<K> keyStorage;
+	private Store<K> keyStore;
+	private long[] values;
+	private Cuckoo<K>.Access<Long> access;
+
+	private Entries entries = null;
+	private Keys keys = null;
+	private Values valueCollection = null;
+
+	CuckooLongValuedEquivalenceMap(Cuckoo<K> cuckoo, Storage<K> keyStorage, int initialCapacity) {
+		this.cuckoo = cuckoo;
+		this.keyStorage = keyStorage;
+		setStores(keyStorage.newStore(cuckoo.capacity(initialCapacity)));
+	}
+
+	private CuckooLongValuedEquivalenceMap(CuckooLongValuedEquivalenceMap<K> that, Store<K> keyStore) {
+		this.cuckoo = that.cuckoo;
+		this.keyStorage = that.keyStorage;
+		this.keyStore = keyStore;
+		values = that.values.clone();
+		access = cuckoo.access(keyStore, this::resize, this::move);
+	}
+
+	// long valued methods
+
+	@Override
+	public long getLong(K key) {
+		int i = access.checkedIndexOf(key);
+		return i == -1 ? 0L : values[i];
+	}
+
+	@Override
+	public long putLong(K key, long value) {
+		checkMutable();
+		int i = access.insert(key);
+		if (i < 0) {
+			values[~i] = value;
+			return 0L;
+		}
+		long previous = values[i];
+		values[i] = value;
+		return previous;
+	}
+
+	@Override
+	public long addTo(K key, long delta) {
+		checkMutable();
+		int i = access.insert(key);
+		if (i < 0) return values[~i] = delta;
+		return values[i] += delta;
+	}
+
+	@Override
+	public long increment(K key) {
+		return addTo(key, 1L);
+	}
+
+	// equivalence methods
+
+	@Override
+	public Equivalence<K> getKeyEquivalence() {
+		return cuckoo.equ;
+	}
+
+	@Override
+	public Equivalence<Long> getValueEquivalence() {
+		return Equivalence.equality();
+	}
+
+	// map methods
+
+	@Override
+	public boolean containsKey(Object key) {
+		return access.indexOf(key) != -1;
+	}
+
+	@Override
+	public void clear() {
+		checkMutable();
+		keyStore.clear();
+	}
+
+	@Override
+	public int size() {
+		return access.count();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return access.count() == 0;
+	}
+
+	@Override
+	public boolean containsValue(Object value) {
+		return indexOfValue(value) != -1;
+	}
+
+	@Override
+	public Long get(Object key) {
+		int i = access.indexOf(key);
+		return i == -1 ? null : values[i];
+	}
+
+	@Override
+	public Long getOrDefault(Object key, Long defaultValue) {
+		int i = access.indexOf(key);
+		return i == -1 ? defaultValue : values[i];
+	}
+
+	@Override
+	public Long remove(Object key) {
+		checkMutable();
+		int i = access.indexOf(key);
+		if (i == -1) return null;
+		long value = values[i];
+		access.remove(i);
+		return value;
+	}
+
+	@Override
+	public boolean remove(Object key, Object value) {
+		checkMutable();
+		if (!(value instanceof Long)) return false;
+		int i = access.indexOf(key);
+		if (i == -1 || values[i] != (Long) value) return false;
+		access.remove(i);
+		return true;
+	}
+
+	@Override
+	public Long put(K key, Long value) {
+		if (value == null) throw new IllegalArgumentException("null value");
+		checkMutable();
+		int i = access.insert(key);
+		if (i < 0) {
+			values[~i] = value;
+			return null;
+		}
+		long previous = values[i];
+		values[i] = value;
+		return previous;
+	}
+
+	@Override
+	public Long putIfAbsent(K key, Long value) {
+		if (value == null) throw new IllegalArgumentException("null value");
+		checkMutable();
+		int i = access.insert(key);
+		if (i >= 0) return values[i];
+		values[~i] = value;
+		return null;
+	}
+
+	@Override
+	public Long replace(K key, Long value) {
+		if (value == null) throw new IllegalArgumentException("null value");
+		checkMutable();
+		int i = access.checkedIndexOf(key);
+		if (i == -1) return null;
+		long previous = values[i];
+		values[i] = value;
+		return previous;
+	}
+
+	@Override
+	public boolean replace(K key, Long oldValue, Long newValue) {
+		if (newValue == null) throw new IllegalArgumentException("null value");
+		checkMutable();
+		if (oldValue == null) return false;
+		int i = access.checkedIndexOf(key);
+		if (i == -1 || values[i] != oldValue) return false;
+		values[i] = newValue;
+		return true;
+	}
+
+	@Override
+	public Set<Map.Entry<K, Long>> entrySet() {
+		return entries == null ? entries = new Entries() : entries;
+	}
+
+	@Override
+	public EquivalenceSet<K> keySet() {
+		return keys == null ? keys = new Keys() : keys;
+	}
+
+	@Override
+	public Collection<Long> values() {
+		return valueCollection == null ? valueCollection = new Values() : valueCollection;
+	}
+
+	// equivalence map methods
+
+	@Override
+	public void compact() {
+		checkMutable();
+		int capacity = cuckoo.compactCapacity(access.count());
+		if (capacity < keyStore.size()) rebuild(capacity);
+	}
+
+	// mutability methods
+
+	@Override
+	public boolean isMutable() {
+		return keyStore.isMutable();
+	}
+
+	@Override
+	public LongValuedEquivalenceMap<K> mutable() {
+		return isMutable() ? this : mutableCopy();
+	}
+
+	@Override
+	public LongValuedEquivalenceMap<K> immutable() {
+		return isMutable() ? immutableView() : this;
+	}
+
+	@Override
+	public LongValuedEquivalenceMap<K> mutableCopy() {
+		return new CuckooLongValuedEquivalenceMap<>(this, keyStore.mutableCopy());
+	}
+
+	@Override
+	public LongValuedEquivalenceMap<K> immutableCopy() {
+		return new CuckooLongValuedEquivalenceMap<>(this, keyStore.immutableCopy());
+	}
+
+	@Override
+	public LongValuedEquivalenceMap<K> immutableView() {
+		return new ImmutableLongValuedEquivalenceMap<>(this);
+	}
+
+	// private helper methods
+
+	private Cuckoo<K>.Access<Long> resize(int newCapacity) {
+		return rebuild(newCapacity);
+	}
+
+	private Cuckoo<K>.Access<Long> rebuild(int newCapacity) {
+		Cuckoo<K>.Access<Long> old = access;
+		long[] oldValues = values;
+		setStores(keyStorage.newStore(newCapacity));
+		int oldCapacity = old.capacity();
+		for (int j = 0; j < oldCapacity; j++) {
+			K k = old.element(j);
+			if (k == null) continue;
+			int i = access.insert(k, old.hashAt(j));
+			values[i < 0 ? ~i : i] = oldValues[j];
+		}
+		return access;
+	}
+
+	private void setStores(Store<K> keyStore) {
+		this.keyStore = keyStore;
+		values = new long[keyStore.size()];
+		access = cuckoo.access(keyStore, this::resize, this::move);
+	}
+
+	private void move(int source, int target) {
+		values[target] = values[source];
+	}
+
+	private int indexOfValue(Object value) {
+		if (!(value instanceof Long)) return -1;
+		long v = (Long) value;
+		int capacity = keyStore.size();
+		for (int i = 0; i < capacity; i++) {
+			if (values[i] == v && keyStore.get(i) != null) return i;
+		}
+		return -1;
+	}
+
+	private void checkMutable() {
+		if (!keyStore.isMutable()) throw new IllegalStateException("immutable");
+	}
+
+	// inner classes
+
+	private final class Keys extends CuckooElementSet<K> {
+
+		Keys() {
+			super(cuckoo, keyStorage);
+		}
+
+		@Override
+		Cuckoo<K>.Access<?> access() {
+			return access;
+		}
+
+		@Override
+		void removeAt(int index) {
+			access.remove(index);
+		}
+
+		@Override
+		public void clear() {
+			CuckooLongValuedEquivalenceMap.this.clear();
+		}
+
+		@Override
+		public void compact() {
+			CuckooLongValuedEquivalenceMap.this.compact();
+		}
+
+		@Override
+		public EquivalenceSet<K> immutableView() {
+			return CuckooLongValuedEquivalenceMap.this.immutableView().keySet();
+		}
+	}
+
+	private final class Values extends AbstractCollection<Long> {
+
+		@Override
+		public int size() {
+			return access.count();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return access.count() == 0;
+		}
+
+		@Override
+		public void clear() {
+			CuckooLongValuedEquivalenceMap.this.clear();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return containsValue(o);
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			checkMutable();
+			int i = indexOfValue(o);
+			if (i == -1) return false;
+			access.remove(i);
+			return true;
+		}
+
+		@Override
+		public Iterator<Long> iterator() {
+			return access.transformedIterator((i,k) -> values[i]);
+		}
+
+		@Override
+		public Spliterator<Long> spliterator() {
+			return access.transformedSpliterator((i,k) -> values[i], access.count(), 0);
+		}
+
+	}
+
+	private final class Entries extends AbstractSet<Entry<K, Long>> {
+
+		@Override
+		public int size() {
+			return access.count();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return access.count() == 0;
+		}
+
+		@Override
+		public void clear() {
+			CuckooLongValuedEquivalenceMap.this.clear();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			if (!(o instanceof Entry)) return false;
+			Entry<?,?> e = (Entry<?,?>) o;
+			Object v = e.getValue();
+			if (!(v instanceof Long)) return false;
+			int i = access.indexOf(e.getKey());
+			return i != -1 && values[i] == (Long) v;
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			if (!(o instanceof Entry)) return false;
+			Entry<?,?> e = (Entry<?,?>) o;
+			return CuckooLongValuedEquivalenceMap.this.remove(e.getKey(), e.getValue());
+		}
+
+		@Override
+		public Iterator<Entry<K, Long>> iterator() {
+			return access.transformedIterator((i,k) -> new LongEntry(i,k));
+		}
+
+		@Override
+		public Spliterator<Entry<K, Long>> spliterator() {
+			return access.transformedSpliterator((i,k) -> new LongEntry(i,k), access.count(), Spliterator.DISTINCT);
+		}
+	}
+
+	final private class LongEntry extends AbstractMapEntry<K, Long> {
+
+		private final K key;
+		private final int index;
+
+		LongEntry(int index, K key) {
+			this.index = index;
+			this.key = key;
+		}
+
+		@Override
+		public K getKey() {
+			return key;
+		}
+
+		@Override
+		public Long getValue() {
+			return values[index];
+		}
+
+		@Override
+		public Long setValue(Long value) {
+			if (value == null) throw new IllegalArgumentException("null value");
+			checkMutable();
+			long previous = values[index];
+			values[index] = value;
+			return previous;
+		}
+
+	}
+}
@@ -0,0 +1,36 @@
+package com.tomgibara.collect;
+
+/**
+ * An {@link IntEquivalenceSet} with slots held in memory outside of the Java
+ * heap. Very large sets held in this way do not enlarge the heap and so do
+ * not prolong garbage collection. Closing the set relinquishes its memory,
+ * which the garbage collector then reclaims; a closed set may no longer be
+ * used.
+ *
+ * @author Tom Gibara
+ * @see Collect.Sets#newDirectIntSet()
+ */
+
+public interface DirectIntEquivalenceSet extends IntEquivalenceSet, AutoCloseable {
+
+	/**
+	 * Relinquishes the memory that holds the set, leaving it to be reclaimed
+	 * by the garbage collector. A closed set is empty, and any subsequent
+	 * attempt to look up or modify its values will fail with an
+	 * <code>IllegalStateException</code>. Copies of the set hold their own
+	 * memory, can themselves be closed, and are unaffected. Views of the set,
+	 * including those returned by <code>immutable()</code>, cannot be closed
+	 * and become unusable when the set is closed. Closing a set that is
+	 * already closed has no effect.
+	 */
+
+	@Override
+	void close();
+
+	@Override
+	DirectIntEquivalenceSet mutableCopy();
+
+	@Override
+	DirectIntEquivalenceSet immutableCopy();
+
+}
@@ -0,0 +1,54 @@
+package com.tomgibara.collect;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+// a cursor over any map, obtained through its entry set
+final class EntryCursor<K, V> implements MapCursor<K, V> {
+
+	private final Map<K, V> map;
+	private Iterator<Entry<K, V>> iterator;
+	private Entry<K, V> entry = null;
+
+	EntryCursor(Map<K, V> map) {
+		this.map = map;
+		iterator = map.entrySet().iterator();
+	}
+
+	@Override
+	public boolean advance() {
+		if (iterator.hasNext()) {
+			entry = iterator.next();
+			return true;
+		}
+		entry = null;
+		return false;
+	}
+
+	@Override
+	public K key() {
+		return entry().getKey();
+	}
+
+	@Override
+	public V value() {
+		return entry().getValue();
+	}
+
+	@Override
+	public V setValue(V value) {
+		return entry().setValue(value);
+	}
+
+	@Override
+	public void reset() {
+		iterator = map.entrySet().iterator();
+		entry = null;
+	}
+
+	private Entry<K, V> entry() {
+		if (entry == null) throw new IllegalStateException("no entry");
+		return entry;
+	}
+}
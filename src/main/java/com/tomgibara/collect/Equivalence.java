@@ -1,13 +1,10 @@
 package com.tomgibara.collect;
 
 import java.math.BigDecimal;
-import java.util.Arrays;
 
 import com.tomgibara.hashing.Hasher;
 import com.tomgibara.hashing.Hashing;
-import com.tomgibara.streams.StreamBytes;
 import com.tomgibara.streams.StreamSerializer;
-import com.tomgibara.streams.Streams;
 
 /**
  * <p>
@@ -203,25 +200,8 @@ public interface Equivalence<E> {
 	 */
 
 	public static <E> Equivalence<E> fromSerializer(StreamSerializer<E> serializer) {
-		return new Equivalence<E>() {
-
-			private final Hasher<E> hasher = Hashing.murmur3Int().hasher(serializer);
-
-			@Override
-			public boolean isEquivalent(E e1, E e2) {
-				return Arrays.equals(toBytes(e1), toBytes(e2));
-			}
-			@Override
-			public Hasher<E> getHasher() {
-				return hasher;
-			}
-
-			private byte[] toBytes(E e) {
-				StreamBytes bytes = Streams.bytes();
-				serializer.serialize(e, bytes.writeStream());
-				return bytes.bytes();
-			}
-		};
+		if (serializer == null) throw new IllegalArgumentException("null serializer");
+		return new SerializedEquivalence<>(serializer);
 	}
 
 	/**
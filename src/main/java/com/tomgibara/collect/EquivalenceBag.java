@@ -0,0 +1,156 @@
+package com.tomgibara.collect;
+
+import java.util.function.ObjLongConsumer;
+
+import com.tomgibara.fundament.Mutability;
+
+/**
+ * <p>
+ * Counts occurrences of elements, where elements are distinguished by an
+ * equivalence. An element is present in a bag only while its count is
+ * positive. Counts are held as primitive <code>long</code> values and are
+ * updated by locating the element only once.
+ *
+ * <p>
+ * Bags do not support <code>null</code> elements. Two bags are equal if each
+ * contains the elements of the other with the same counts; the hash code of
+ * a bag sums, over its elements, the hash code of the element exclusive-or
+ * the hash code of its count as a <code>Long</code>.
+ *
+ * @author Tom Gibara
+ *
+ * @param <E>
+ *            the element type under equivalence
+ * @see Collect.Sets#newBag()
+ */
+
+public interface EquivalenceBag<E> extends Mutability<EquivalenceBag<E>> {
+
+	/**
+	 * The equivalence relation used to distinguish elements.
+	 *
+	 * @return the equivalence under which the bag operates.
+	 */
+
+	Equivalence<E> getEquivalence();
+
+	/**
+	 * The number of occurrences of an element in the bag.
+	 *
+	 * @param e
+	 *            a possible element of the bag
+	 * @return the count of the element, zero if it is absent
+	 */
+
+	long count(Object e);
+
+	/**
+	 * Adds a single occurrence of an element.
+	 *
+	 * @param e
+	 *            the element to be added
+	 * @return the new count of the element
+	 * @throws IllegalStateException
+	 *             if the bag is immutable
+	 */
+
+	long add(E e);
+
+	/**
+	 * Adds occurrences of an element.
+	 *
+	 * @param e
+	 *            the element to be added
+	 * @param n
+	 *            the number of occurrences to add, not negative
+	 * @return the new count of the element
+	 * @throws IllegalStateException
+	 *             if the bag is immutable
+	 */
+
+	long add(E e, long n);
+
+	/**
+	 * Removes occurrences of an element. If the bag contains fewer
+	 * occurrences than are to be removed, the element is removed entirely.
+	 *
+	 * @param e
+	 *            the element to be removed
+	 * @param n
+	 *            the number of occurrences to remove, not negative
+	 * @return the new count of the element
+	 * @throws IllegalStateException
+	 *             if the bag is immutable
+	 */
+
+	long remove(Object e, long n);
+
+	/**
+	 * Sets the number of occurrences of an element. A count of zero removes
+	 * the element from the bag.
+	 *
+	 * @param e
+	 *            the element whose count is to be set
+	 * @param count
+	 *            the new count of the element, not negative
+	 * @return the previous count of the element
+	 * @throws IllegalStateException
+	 *             if the bag is immutable
+	 */
+
+	long setCount(E e, long count);
+
+	/**
+	 * The total number of occurrences of all elements in the bag.
+	 *
+	 * @return the sum of the counts of the elements
+	 */
+
+	long totalCount();
+
+	/**
+	 * Whether the bag contains no elements.
+	 *
+	 * @return true if and only if the bag is empty
+	 */
+
+	boolean isEmpty();
+
+	/**
+	 * Supplies every element of the bag to an action with its count.
+	 *
+	 * @param action
+	 *            receives each element and its count
+	 */
+
+	void forEachCount(ObjLongConsumer<? super E> action);
+
+	/**
+	 * Removes every element from the bag.
+	 *
+	 * @throws IllegalStateException
+	 *             if the bag is immutable
+	 */
+
+	void clear();
+
+	/**
+	 * The distinct elements of the bag. Removing an element from the set
+	 * removes all of its occurrences from the bag.
+	 *
+	 * @return the elements of the bag as a set
+	 */
+
+	EquivalenceSet<E> elementSet();
+
+	/**
+	 * Reduces the storage occupied by the bag to the least that can be
+	 * expected to accommodate its current elements.
+	 *
+	 * @throws IllegalStateException
+	 *             if the bag is immutable
+	 */
+
+	void compact();
+
+}
@@ -0,0 +1,87 @@
+package com.tomgibara.collect;
+
+/**
+ * <p>
+ * An {@link EquivalenceMap} in which no two keys are associated with
+ * equivalent values, so that the map may also be viewed in the reverse
+ * direction, from values to keys.
+ *
+ * <p>
+ * Values are distinguished by the value equivalence of the map, which is the
+ * key equivalence of its inverse. These maps do not support <code>null</code>
+ * keys or values. An operation that would associate a value with a second key
+ * fails without modifying the map.
+ *
+ * @author Tom Gibara
+ *
+ * @param <K>
+ *            the keys type under equivalence
+ * @param <V>
+ *            the value type under equivalence
+ * @see Collect.Maps#newBiMap()
+ */
+
+public interface EquivalenceBiMap<K, V> extends EquivalenceMap<K, V> {
+
+	/**
+	 * A view of the map in which values are mapped to keys. The inverse is
+	 * backed by this map, so that changes to either are reflected in the
+	 * other, and is mutable only if this map is.
+	 *
+	 * @return the inverse of this map
+	 */
+
+	EquivalenceBiMap<V, K> inverse();
+
+	/**
+	 * Associates a value with a key, as per {@link #put(Object, Object)},
+	 * except that any other key associated with an equivalent value is first
+	 * removed from the map.
+	 *
+	 * @param key
+	 *            the key whose value is to be set
+	 * @param value
+	 *            the new value of the key
+	 * @return the previous value of the key, or null if the key was absent
+	 * @throws IllegalStateException
+	 *             if the map is immutable
+	 */
+
+	V forcePut(K key, V value);
+
+	/**
+	 * Associates a value with a key.
+	 *
+	 * @param key
+	 *            the key whose value is to be set
+	 * @param value
+	 *            the new value of the key
+	 * @return the previous value of the key, or null if the key was absent
+	 * @throws IllegalArgumentException
+	 *             if an equivalent value is associated with another key
+	 * @throws IllegalStateException
+	 *             if the map is immutable
+	 */
+
+	@Override
+	V put(K key, V value);
+
+	/**
+	 * The values of the map, which are the keys of its inverse.
+	 *
+	 * @return the values of the map as a set
+	 */
+
+	@Override
+	EquivalenceSet<V> values();
+
+	@Override
+	EquivalenceBiMap<K, V> mutableCopy();
+
+	@Override
+	EquivalenceBiMap<K, V> immutableCopy();
+
+	@Override
+	EquivalenceBiMap<K, V> immutableView();
+
+}
@@ -42,6 +42,36 @@ public interface EquivalenceMap<K,V> extends Map<K, V>, Mutability<EquivalenceMa
 
 	Equivalence<V> getValueEquivalence();
 	
+	/**
+	 * Reduces the storage occupied by the map to the least that can be
+	 * expected to accommodate its current entries. This is useful for maps
+	 * that are retained after many of their entries have been removed.
+	 *
+	 * <p>
+	 * The default implementation does nothing, and so is suitable for maps
+	 * that cannot reduce their storage.
+	 *
+	 * @throws IllegalStateException
+	 *             if the map is immutable, for implementations that reduce
+	 *             their storage
+	 */
+
+	default void compact() {
+		// by default there is no storage to reduce
+	}
+
+	/**
+	 * Returns a cursor over the entries of the map. Where possible,
+	 * implementations traverse the map without allocating objects for its
+	 * entries.
+	 *
+	 * @return a cursor positioned before the first entry of the map
+	 */
+
+	default MapCursor<K, V> cursor() {
+		return new EntryCursor<>(this);
+	}
+
 	@Override
 	EquivalenceSet<K> keySet();
 
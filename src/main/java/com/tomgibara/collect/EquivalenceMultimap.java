@@ -0,0 +1,201 @@
+package com.tomgibara.collect;
+
+import java.util.Collection;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import com.tomgibara.fundament.Mutability;
+
+/**
+ * <p>
+ * Associates each key with a sequence of one or more values. Keys are
+ * distinguished by the key equivalence of the multimap, and values are
+ * compared under its value equivalence. A key may be associated with several
+ * equivalent values; the values of a key are maintained in the order in which
+ * they were added, except that removing a value may reorder those that follow
+ * it.
+ *
+ * <p>
+ * Neither keys nor values may be <code>null</code>. A key is present in the
+ * multimap only while it has at least one value.
+ *
+ * @author Tom Gibara
+ *
+ * @param <K>
+ *            the keys type under equivalence
+ * @param <V>
+ *            the value type under equivalence
+ * @see Collect.Maps#newMultimap()
+ */
+
+public interface EquivalenceMultimap<K, V> extends Mutability<EquivalenceMultimap<K, V>> {
+
+	/**
+	 * The equivalence relation used to distinguish keys.
+	 *
+	 * @return the equivalence under which the key set operates.
+	 */
+
+	Equivalence<K> getKeyEquivalence();
+
+	/**
+	 * The equivalence relation used to compare values.
+	 *
+	 * @return the equivalence under which the values operate.
+	 */
+
+	Equivalence<V> getValueEquivalence();
+
+	/**
+	 * The number of key-value pairs in the multimap.
+	 *
+	 * @return the total number of values over all keys
+	 */
+
+	int size();
+
+	/**
+	 * Whether the multimap contains no values.
+	 *
+	 * @return true if and only if the multimap is empty
+	 */
+
+	boolean isEmpty();
+
+	/**
+	 * Whether the multimap contains a key equivalent to the supplied object.
+	 *
+	 * @param key
+	 *            a possible key
+	 * @return true if the key has at least one value
+	 */
+
+	boolean containsKey(Object key);
+
+	/**
+	 * Whether the specified key is associated with a value equivalent to the
+	 * supplied value.
+	 *
+	 * @param key
+	 *            a possible key
+	 * @param value
+	 *            a possible value of the key
+	 * @return true if the key has an equivalent value
+	 */
+
+	boolean containsEntry(Object key, Object value);
+
+	/**
+	 * The number of values associated with the specified key.
+	 *
+	 * @param key
+	 *            a possible key
+	 * @return the number of values of the key, zero if it is absent
+	 */
+
+	int valueCount(Object key);
+
+	/**
+	 * Supplies each value of the specified key to an action, in order. No
+	 * objects are allocated by the multimap in doing so.
+	 *
+	 * @param key
+	 *            the key whose values are required
+	 * @param action
+	 *            receives each value of the key
+	 */
+
+	void forEach(K key, Consumer<? super V> action);
+
+	/**
+	 * Supplies every key-value pair to an action, with the values of each
+	 * key supplied consecutively.
+	 *
+	 * @param action
+	 *            receives each key-value pair
+	 */
+
+	void forEach(BiConsumer<? super K, ? super V> action);
+
+	/**
+	 * Associates an additional value with a key.
+	 *
+	 * @param key
+	 *            the key to which the value is added
+	 * @param value
+	 *            the value to be added
+	 * @throws IllegalStateException
+	 *             if the multimap is immutable
+	 */
+
+	void put(K key, V value);
+
+	/**
+	 * Associates several additional values with a key. The storage needed for
+	 * the values is reserved once, before the values are added.
+	 *
+	 * @param key
+	 *            the key to which the values are added
+	 * @param values
+	 *            the values to be added, none of them null
+	 * @throws IllegalStateException
+	 *             if the multimap is immutable
+	 */
+
+	void putAll(K key, Collection<? extends V> values);
+
+	/**
+	 * Removes one value of a key that is equivalent to the supplied value.
+	 *
+	 * @param key
+	 *            the key from which the value is removed
+	 * @param value
+	 *            the value to be removed
+	 * @return true if a value was removed
+	 * @throws IllegalStateException
+	 *             if the multimap is immutable
+	 */
+
+	boolean remove(Object key, Object value);
+
+	/**
+	 * Removes a key together with all of its values.
+	 *
+	 * @param key
+	 *            the key to be removed
+	 * @return the number of values removed
+	 * @throws IllegalStateException
+	 *             if the multimap is immutable
+	 */
+
+	int removeAll(Object key);
+
+	/**
+	 * Removes every key and value from the multimap.
+	 *
+	 * @throws IllegalStateException
+	 *             if the multimap is immutable
+	 */
+
+	void clear();
+
+	/**
+	 * The keys of the multimap. Removing a key from the set removes all of
+	 * its values from the multimap.
+	 *
+	 * @return the keys of the multimap as a set
+	 */
+
+	EquivalenceSet<K> keySet();
+
+	/**
+	 * Reduces the storage occupied by the multimap to the least that can be
+	 * expected to accommodate its current keys and values.
+	 *
+	 * @throws IllegalStateException
+	 *             if the multimap is immutable
+	 */
+
+	void compact();
+
+}
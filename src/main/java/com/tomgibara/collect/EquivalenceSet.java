@@ -54,4 +54,96 @@ public interface EquivalenceSet<E> extends Set<E>, Mutability<EquivalenceSet<E>>
 	 */
 
 	E some();
+
+	/**
+	 * Reduces the storage occupied by the set to the least that can be
+	 * expected to accommodate its current elements. This is useful for sets
+	 * that are retained after many of their elements have been removed.
+	 *
+	 * <p>
+	 * The default implementation does nothing, and so is suitable for sets
+	 * that cannot reduce their storage.
+	 *
+	 * @throws IllegalStateException
+	 *             if the set is immutable, for implementations that reduce
+	 *             their storage
+	 */
+
+	default void compact() {
+		// by default there is no storage to reduce
+	}
+
+	/**
+	 * Returns a new mutable set containing the elements of this set, together
+	 * with those elements of the supplied set that are not contained in this
+	 * set. Where the two sets share an equivalence, implementations may avoid
+	 * rehashing elements.
+	 *
+	 * @param set
+	 *            the set to be combined with this set
+	 * @return a new set containing the elements of both sets
+	 */
+
+	default EquivalenceSet<E> union(EquivalenceSet<E> set) {
+		if (set == null) throw new IllegalArgumentException("null set");
+		EquivalenceSet<E> union = mutableCopy();
+		for (E e : set) {
+			if (!union.contains(e)) union.add(e);
+		}
+		return union;
+	}
+
+	/**
+	 * Returns a new mutable set containing those elements of this set that
+	 * are contained in the supplied set. Where the two sets share an
+	 * equivalence, implementations may avoid rehashing elements.
+	 *
+	 * @param set
+	 *            the set to be intersected with this set
+	 * @return a new set containing the elements common to both sets
+	 */
+
+	default EquivalenceSet<E> intersection(EquivalenceSet<E> set) {
+		if (set == null) throw new IllegalArgumentException("null set");
+		EquivalenceSet<E> intersection = mutableCopy();
+		intersection.removeIf(e -> !set.contains(e));
+		return intersection;
+	}
+
+	/**
+	 * Returns a new mutable set containing those elements of this set that
+	 * are not contained in the supplied set. Where the two sets share an
+	 * equivalence, implementations may avoid rehashing elements.
+	 *
+	 * @param set
+	 *            the set of elements to be excluded
+	 * @return a new set containing the elements of this set absent from the
+	 *         supplied set
+	 */
+
+	default EquivalenceSet<E> difference(EquivalenceSet<E> set) {
+		if (set == null) throw new IllegalArgumentException("null set");
+		EquivalenceSet<E> difference = mutableCopy();
+		difference.removeIf(set::contains);
+		return difference;
+	}
+
+	/**
+	 * Returns a new mutable set containing those elements of either set that
+	 * are not contained in the other. Where the two sets share an
+	 * equivalence, implementations may avoid rehashing elements.
+	 *
+	 * @param set
+	 *            the set to be combined with this set
+	 * @return a new set containing the elements exclusive to each set
+	 */
+
+	default EquivalenceSet<E> symmetricDifference(EquivalenceSet<E> set) {
+		if (set == null) throw new IllegalArgumentException("null set");
+		EquivalenceSet<E> difference = difference(set);
+		for (E e : set) {
+			if (!contains(e)) difference.add(e);
+		}
+		return difference;
+	}
 }
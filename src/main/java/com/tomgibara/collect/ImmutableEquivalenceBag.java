@@ -0,0 +1,100 @@
+package com.tomgibara.collect;
+
+import java.util.function.ObjLongConsumer;
+
+final class ImmutableEquivalenceBag<E> implements EquivalenceBag<E> {
+
+	final EquivalenceBag<E> bag;
+
+	ImmutableEquivalenceBag(EquivalenceBag<E> bag) {
+		this.bag = bag;
+	}
+
+	// equivalence
+
+	public Equivalence<E> getEquivalence() {
+		return bag.getEquivalence();
+	}
+
+	// mutability
+
+	public boolean isMutable() {
+		return false;
+	}
+
+	public EquivalenceBag<E> mutableCopy() {
+		return bag.mutableCopy();
+	}
+
+	public EquivalenceBag<E> immutableCopy() {
+		return bag.immutableCopy();
+	}
+
+	public EquivalenceBag<E> immutableView() {
+		return new ImmutableEquivalenceBag<>(bag);
+	}
+
+	// bag
+
+	public long count(Object e) {
+		return bag.count(e);
+	}
+
+	public long add(E e) {
+		throw new IllegalStateException("immutable");
+	}
+
+	public long add(E e, long n) {
+		throw new IllegalStateException("immutable");
+	}
+
+	public long remove(Object e, long n) {
+		throw new IllegalStateException("immutable");
+	}
+
+	public long setCount(E e, long count) {
+		throw new IllegalStateException("immutable");
+	}
+
+	public long totalCount() {
+		return bag.totalCount();
+	}
+
+	public boolean isEmpty() {
+		return bag.isEmpty();
+	}
+
+	public void forEachCount(ObjLongConsumer<? super E> action) {
+		bag.forEachCount(action);
+	}
+
+	public void clear() {
+		throw new IllegalStateException("immutable");
+	}
+
+	public EquivalenceSet<E> elementSet() {
+		return new ImmutableEquivalenceSet<E>(bag.elementSet());
+	}
+
+	public void compact() {
+		throw new IllegalStateException("immutable");
+	}
+
+	// object methods
+
+	@Override
+	public boolean equals(Object obj) {
+		return bag.equals(obj);
+	}
+
+	@Override
+	public int hashCode() {
+		return bag.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return bag.toString();
+	}
+
+}
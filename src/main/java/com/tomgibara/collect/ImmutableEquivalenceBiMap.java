@@ -0,0 +1,40 @@
+package com.tomgibara.collect;
+
+final class ImmutableEquivalenceBiMap<K, V> extends ImmutableEquivalenceMap<K, V> implements EquivalenceBiMap<K, V> {
+
+	private final EquivalenceBiMap<K, V> map;
+
+	ImmutableEquivalenceBiMap(EquivalenceBiMap<K, V> map) {
+		super(map);
+		this.map = map;
+	}
+
+	// bidirectional
+
+	public EquivalenceBiMap<V, K> inverse() {
+		return new ImmutableEquivalenceBiMap<>(map.inverse());
+	}
+
+	public V forcePut(K key, V value) {
+		throw new IllegalStateException("immutable");
+	}
+
+	public EquivalenceSet<V> values() {
+		return new ImmutableEquivalenceSet<>(map.values());
+	}
+
+	// mutability
+
+	public EquivalenceBiMap<K, V> mutableCopy() {
+		return map.mutableCopy();
+	}
+
+	public EquivalenceBiMap<K, V> immutableCopy() {
+		return map.immutableCopy();
+	}
+
+	public EquivalenceBiMap<K, V> immutableView() {
+		return new ImmutableEquivalenceBiMap<>(map);
+	}
+
+}
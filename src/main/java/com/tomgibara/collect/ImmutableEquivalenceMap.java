@@ -10,7 +10,7 @@ import java.util.function.Function;
 
 class ImmutableEquivalenceMap<K, V> implements EquivalenceMap<K, V> {
 
-	private final EquivalenceMap<K, V> map;
+	final EquivalenceMap<K, V> map;
 	
 	ImmutableEquivalenceMap(EquivalenceMap<K, V> map) {
 		this.map = map;
@@ -26,6 +26,14 @@ class ImmutableEquivalenceMap<K, V> implements EquivalenceMap<K, V> {
 		return map.getValueEquivalence();
 	}
 
+	public void compact() {
+		throw new IllegalStateException("immutable");
+	}
+
+	public MapCursor<K, V> cursor() {
+		return new ImmutableCursor<>(map.cursor());
+	}
+
 	// mutability
 	
 	public boolean isMutable() {
@@ -153,4 +161,40 @@ class ImmutableEquivalenceMap<K, V> implements EquivalenceMap<K, V> {
 		return map.toString();
 	}
 
+	// inner classes
+
+	private static final class ImmutableCursor<K, V> implements MapCursor<K, V> {
+
+		private final MapCursor<K, V> cursor;
+
+		ImmutableCursor(MapCursor<K, V> cursor) {
+			this.cursor = cursor;
+		}
+
+		@Override
+		public boolean advance() {
+			return cursor.advance();
+		}
+
+		@Override
+		public K key() {
+			return cursor.key();
+		}
+
+		@Override
+		public V value() {
+			return cursor.value();
+		}
+
+		@Override
+		public V setValue(V value) {
+			throw new IllegalStateException("immutable");
+		}
+
+		@Override
+		public void reset() {
+			cursor.reset();
+		}
+	}
+
 }
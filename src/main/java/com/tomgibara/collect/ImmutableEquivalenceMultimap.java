@@ -0,0 +1,108 @@
+package com.tomgibara.collect;
+
+import java.util.Collection;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+final class ImmutableEquivalenceMultimap<K, V> implements EquivalenceMultimap<K, V> {
+
+	final EquivalenceMultimap<K, V> map;
+
+	ImmutableEquivalenceMultimap(EquivalenceMultimap<K, V> map) {
+		this.map = map;
+	}
+
+	// equivalence
+
+	public Equivalence<K> getKeyEquivalence() {
+		return map.getKeyEquivalence();
+	}
+
+	public Equivalence<V> getValueEquivalence() {
+		return map.getValueEquivalence();
+	}
+
+	// mutability
+
+	public boolean isMutable() {
+		return false;
+	}
+
+	public EquivalenceMultimap<K, V> mutableCopy() {
+		return map.mutableCopy();
+	}
+
+	public EquivalenceMultimap<K, V> immutableCopy() {
+		return map.immutableCopy();
+	}
+
+	public EquivalenceMultimap<K, V> immutableView() {
+		return new ImmutableEquivalenceMultimap<>(map);
+	}
+
+	// multimap
+
+	public int size() {
+		return map.size();
+	}
+
+	public boolean isEmpty() {
+		return map.isEmpty();
+	}
+
+	public boolean containsKey(Object key) {
+		return map.containsKey(key);
+	}
+
+	public boolean containsEntry(Object key, Object value) {
+		return map.containsEntry(key, value);
+	}
+
+	public int valueCount(Object key) {
+		return map.valueCount(key);
+	}
+
+	public void forEach(K key, Consumer<? super V> action) {
+		map.forEach(key, action);
+	}
+
+	public void forEach(BiConsumer<? super K, ? super V> action) {
+		map.forEach(action);
+	}
+
+	public void put(K key, V value) {
+		throw new IllegalStateException("immutable");
+	}
+
+	public void putAll(K key, Collection<? extends V> values) {
+		throw new IllegalStateException("immutable");
+	}
+
+	public boolean remove(Object key, Object value) {
+		throw new IllegalStateException("immutable");
+	}
+
+	public int removeAll(Object key) {
+		throw new IllegalStateException("immutable");
+	}
+
+	public void clear() {
+		throw new IllegalStateException("immutable");
+	}
+
+	public EquivalenceSet<K> keySet() {
+		return new ImmutableEquivalenceSet<K>(map.keySet());
+	}
+
+	public void compact() {
+		throw new IllegalStateException("immutable");
+	}
+
+	// object methods
+
+	@Override
+	public String toString() {
+		return map.toString();
+	}
+
+}
@@ -11,7 +11,7 @@ class ImmutableEquivalenceSet<E> implements EquivalenceSet<E> {
 
 	// fields
 	
-	private final EquivalenceSet<E> set;
+	final EquivalenceSet<E> set;
 
 	// constructors
 	
@@ -156,6 +156,31 @@ class ImmutableEquivalenceSet<E> implements EquivalenceSet<E> {
 		return set.some();
 	}
 
+	@Override
+	public void compact() {
+		throw new IllegalStateException("immutable");
+	}
+
+	@Override
+	public EquivalenceSet<E> union(EquivalenceSet<E> set) {
+		return this.set.union(set);
+	}
+
+	@Override
+	public EquivalenceSet<E> intersection(EquivalenceSet<E> set) {
+		return this.set.intersection(set);
+	}
+
+	@Override
+	public EquivalenceSet<E> difference(EquivalenceSet<E> set) {
+		return this.set.difference(set);
+	}
+
+	@Override
+	public EquivalenceSet<E> symmetricDifference(EquivalenceSet<E> set) {
+		return this.set.symmetricDifference(set);
+	}
+
 	// object methods
 	
 	@Override
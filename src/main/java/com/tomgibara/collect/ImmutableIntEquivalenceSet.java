@@ -0,0 +1,55 @@
+package com.tomgibara.collect;
+
+final class ImmutableIntEquivalenceSet extends ImmutableEquivalenceSet<Integer> implements IntEquivalenceSet {
+
+	// fields
+
+	final IntEquivalenceSet set;
+
+	// constructors
+
+	ImmutableIntEquivalenceSet(IntEquivalenceSet set) {
+		super(set);
+		this.set = set;
+	}
+
+	// int equivalence set methods
+
+	@Override
+	public boolean containsInt(int value) {
+		return set.containsInt(value);
+	}
+
+	@Override
+	public boolean addInt(int value) {
+		throw new IllegalStateException("immutable");
+	}
+
+	@Override
+	public boolean removeInt(int value) {
+		throw new IllegalStateException("immutable");
+	}
+
+	@Override
+	public int[] toIntArray() {
+		return set.toIntArray();
+	}
+
+	// mutability methods
+
+	@Override
+	public IntEquivalenceSet mutableCopy() {
+		return set.mutableCopy();
+	}
+
+	@Override
+	public IntEquivalenceSet immutableCopy() {
+		return set.immutableCopy();
+	}
+
+	@Override
+	public IntEquivalenceSet immutableView() {
+		return new ImmutableIntEquivalenceSet(set);
+	}
+
+}
@@ -0,0 +1,55 @@
+package com.tomgibara.collect;
+
+final class ImmutableLongEquivalenceSet extends ImmutableEquivalenceSet<Long> implements LongEquivalenceSet {
+
+	// fields
+
+	final LongEquivalenceSet set;
+
+	// constructors
+
+	ImmutableLongEquivalenceSet(LongEquivalenceSet set) {
+		super(set);
+		this.set = set;
+	}
+
+	// long equivalence set methods
+
+	@Override
+	public boolean containsLong(long value) {
+		return set.containsLong(value);
+	}
+
+	@Override
+	public boolean addLong(long value) {
+		throw new IllegalStateException("immutable");
+	}
+
+	@Override
+	public boolean removeLong(long value) {
+		throw new IllegalStateException("immutable");
+	}
+
+	@Override
+	public long[] toLongArray() {
+		return set.toLongArray();
+	}
+
+	// mutability methods
+
+	@Override
+	public LongEquivalenceSet mutableCopy() {
+		return set.mutableCopy();
+	}
+
+	@Override
+	public LongEquivalenceSet immutableCopy() {
+		return set.immutableCopy();
+	}
+
+	@Override
+	public LongEquivalenceSet immutableView() {
+		return new ImmutableLongEquivalenceSet(set);
+	}
+
+}
@@ -0,0 +1,44 @@
+package com.tomgibara.collect;
+
+final class ImmutableLongValuedEquivalenceMap<K> extends ImmutableEquivalenceMap<K, Long> implements LongValuedEquivalenceMap<K> {
+
+	private final LongValuedEquivalenceMap<K> map;
+
+	ImmutableLongValuedEquivalenceMap(LongValuedEquivalenceMap<K> map) {
+		super(map);
+		this.map = map;
+	}
+
+	// long valued
+
+	public long getLong(K key) {
+		return map.getLong(key);
+	}
+
+	public long putLong(K key, long value) {
+		throw new IllegalStateException("immutable");
+	}
+
+	public long addTo(K key, long delta) {
+		throw new IllegalStateException("immutable");
+	}
+
+	public long increment(K key) {
+		throw new IllegalStateException("immutable");
+	}
+
+	// mutability
+
+	public LongValuedEquivalenceMap<K> mutableCopy() {
+		return map.mutableCopy();
+	}
+
+	public LongValuedEquivalenceMap<K> immutableCopy() {
+		return map.immutableCopy();
+	}
+
+	public LongValuedEquivalenceMap<K> immutableView() {
+		return new ImmutableLongValuedEquivalenceMap<>(map);
+	}
+
+}
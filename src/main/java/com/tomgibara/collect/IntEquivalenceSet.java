@@ -0,0 +1,67 @@
+package com.tomgibara.collect;
+
+/**
+ * An {@link EquivalenceSet} of <code>int</code> values under equality. The
+ * methods specific to this interface operate on primitive values directly and
+ * do not require them to be boxed.
+ *
+ * @author Tom Gibara
+ * @see Collect.Sets#newIntSet()
+ */
+
+public interface IntEquivalenceSet extends EquivalenceSet<Integer> {
+
+	/**
+	 * Whether the set contains the specified value.
+	 *
+	 * @param value
+	 *            a possible member of the set
+	 * @return true if the value is a member of the set, false otherwise
+	 */
+
+	boolean containsInt(int value);
+
+	/**
+	 * Adds the specified value to the set.
+	 *
+	 * @param value
+	 *            the value to be added
+	 * @return true if the set was modified, false if the value was already a
+	 *         member of the set
+	 * @throws IllegalStateException
+	 *             if the set is immutable
+	 */
+
+	boolean addInt(int value);
+
+	/**
+	 * Removes the specified value from the set.
+	 *
+	 * @param value
+	 *            the value to be removed
+	 * @return true if the set was modified, false if the value was not a member
+	 *         of the set
+	 * @throws IllegalStateException
+	 *             if the set is immutable
+	 */
+
+	boolean removeInt(int value);
+
+	/**
+	 * The members of the set in no particular order.
+	 *
+	 * @return a new array containing every value in the set
+	 */
+
+	int[] toIntArray();
+
+	@Override
+	IntEquivalenceSet mutableCopy();
+
+	@Override
+	IntEquivalenceSet immutableCopy();
+
+	@Override
+	IntEquivalenceSet immutableView();
+
+}
@@ -0,0 +1,84 @@
+package com.tomgibara.collect;
+
+/**
+ * <p>
+ * An {@link EquivalenceMap} with <code>long</code> values. The methods
+ * specific to this interface operate on primitive values directly, and locate
+ * a key only once, even when its value is updated.
+ *
+ * <p>
+ * These maps do not support <code>null</code> values; every key in the map is
+ * associated with a <code>long</code>.
+ *
+ * @author Tom Gibara
+ *
+ * @param <K>
+ *            the keys type under equivalence
+ * @see Collect.Maps#newLongValuedMap()
+ */
+
+public interface LongValuedEquivalenceMap<K> extends EquivalenceMap<K, Long> {
+
+	/**
+	 * The value associated with the specified key, or zero if the map does not
+	 * contain the key.
+	 *
+	 * @param key
+	 *            a possible key of the map
+	 * @return the value of the key, or zero
+	 */
+
+	long getLong(K key);
+
+	/**
+	 * Associates a value with the specified key.
+	 *
+	 * @param key
+	 *            the key whose value is to be set
+	 * @param value
+	 *            the new value of the key
+	 * @return the previous value of the key, or zero if the key was absent
+	 * @throws IllegalStateException
+	 *             if the map is immutable
+	 */
+
+	long putLong(K key, long value);
+
+	/**
+	 * Adds to the value associated with the specified key. An absent key is
+	 * added to the map with a value of zero before being incremented.
+	 *
+	 * @param key
+	 *            the key whose value is to be incremented
+	 * @param delta
+	 *            the amount to be added to the value
+	 * @return the new value of the key
+	 * @throws IllegalStateException
+	 *             if the map is immutable
+	 */
+
+	long addTo(K key, long delta);
+
+	/**
+	 * Adds one to the value associated with the specified key.
+	 *
+	 * @param key
+	 *            the key whose value is to be incremented
+	 * @return the new value of the key
+	 * @throws IllegalStateException
+	 *             if the map is immutable
+	 * @see #addTo(Object, long)
+	 */
+
+	long increment(K key);
+
+	@Override
+	LongValuedEquivalenceMap<K> mutableCopy();
+
+	@Override
+	LongValuedEquivalenceMap<K> immutableCopy();
+
+	@Override
+	LongValuedEquivalenceMap<K> immutableView();
+
+}
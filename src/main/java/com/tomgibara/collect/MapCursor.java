@@ -0,0 +1,75 @@
+package com.tomgibara.collect;
+
+/**
+ * <p>
+ * Traverses the entries of a map, exposing the key and value of one entry at
+ * a time. Unlike iterating over a map's entry set, a cursor need not allocate
+ * an object for each entry, and a single cursor may be reused for any number
+ * of traversals.
+ *
+ * <p>
+ * A cursor is initially positioned before the first entry. The map should not
+ * be structurally modified while it is being traversed, though the values of
+ * entries may be replaced through the cursor.
+ *
+ * @author Tom Gibara
+ *
+ * @param <K>
+ *            the key type
+ * @param <V>
+ *            the value type
+ * @see EquivalenceMap#cursor()
+ */
+
+public interface MapCursor<K, V> {
+
+	/**
+	 * Moves the cursor to the next entry of the map.
+	 *
+	 * @return true if the cursor is positioned at an entry, false if the
+	 *         entries of the map are exhausted
+	 */
+
+	boolean advance();
+
+	/**
+	 * The key of the entry at which the cursor is positioned.
+	 *
+	 * @return the key of the current entry
+	 * @throws IllegalStateException
+	 *             if the cursor is not positioned at an entry
+	 */
+
+	K key();
+
+	/**
+	 * The value of the entry at which the cursor is positioned.
+	 *
+	 * @return the value of the current entry
+	 * @throws IllegalStateException
+	 *             if the cursor is not positioned at an entry
+	 */
+
+	V value();
+
+	/**
+	 * Replaces the value of the entry at which the cursor is positioned.
+	 *
+	 * @param value
+	 *            the new value of the current entry
+	 * @return the previous value of the entry
+	 * @throws IllegalStateException
+	 *             if the cursor is not positioned at an entry, or if the map
+	 *             is immutable
+	 */
+
+	V setValue(V value);
+
+	/**
+	 * Positions the cursor before the first entry of the map, so that the
+	 * map can be traversed again.
+	 */
+
+	void reset();
+
+}
@@ -0,0 +1,242 @@
+package com.tomgibara.collect;
+
+import java.util.Arrays;
+
+import com.tomgibara.hashing.Hasher;
+
+// a minimal perfect hash in the style of 'hash and displace': elements are
+// first hashed into groups, and each group records a displacement that sends
+// its elements to distinct slots; since no slot is left empty, every lookup
+// examines exactly one slot; no displacement can separate inequivalent
+// elements with equal hashes, so only the first of these (the leader) is
+// placed by its hash, and the others (its followers) occupy a run of slots
+// after all those assigned by hashing, which is examined only if the leader
+// does not match
+final class Perfect<E> {
+
+	// statics
+
+	// the average number of elements in each group
+	private static final int GROUP_SIZE = 2;
+
+	// bounds the search for a displacement, only reached by pathological hashes
+	private static final int DISPLACEMENT_LIMIT = 1 << 20;
+
+	// rearranges distinct elements (and any associated values) into the slots
+	// assigned by a perfect hash, or returns null if no displacements could be
+	// found within the limit
+	static <E> Perfect<E> arrange(Equivalence<E> equ, Object[] es, Object[] vs) {
+		Perfect<E> perfect = new Perfect<>(equ, es.length);
+		int[] slots = perfect.layout(es);
+		if (slots == null) return null;
+		permute(es, slots);
+		if (vs != null) permute(vs, slots);
+		return perfect;
+	}
+
+	private static void permute(Object[] objs, int[] slots) {
+		Object[] copy = objs.clone();
+		for (int j = 0; j < copy.length; j++) {
+			objs[slots[j]] = copy[j];
+		}
+	}
+
+	// fields
+
+	final Equivalence<E> equ;
+	private final Hasher<E> hasher;
+	private final int size;
+	// for each group, either the displacement applied to the hashes of its
+	// elements or, for a lone element, the complement of its slot
+	private final int[] displacements;
+	// the number of slots assigned by hashing, which precede the runs
+	private int primary;
+	// the slots of the leaders with followers, in ascending order, and the
+	// bounds of their runs, the last being the size; null if there are none
+	private int[] runLeaders = null;
+	private int[] runBounds = null;
+
+	// constructors
+
+	private Perfect(Equivalence<E> equ, int size) {
+		this.equ = equ;
+		this.size = size;
+		hasher = equ.getHasher();
+		displacements = new int[(size + GROUP_SIZE - 1) / GROUP_SIZE];
+		primary = size;
+	}
+
+	// package scoped methods
+
+	int size() {
+		return size;
+	}
+
+	// the slot of the only element with the same hash as e, or of the leader
+	// of such elements
+	int slot(E e) {
+		if (size == 0) return -1;
+		int hash = hasher.intHashValue(e);
+		int d = displacements[Cuckoo.bucket(hash, 0, displacements.length)];
+		return d < 0 ? ~d : Cuckoo.bucket(hash, d + 1, primary);
+	}
+
+	// identifies the run of followers of the leader in the specified slot, or -1
+	int run(int slot) {
+		if (runLeaders == null) return -1;
+		int r = Arrays.binarySearch(runLeaders, slot);
+		return r < 0 ? -1 : r;
+	}
+
+	// the first slot of a run
+	int runStart(int run) {
+		return runBounds[run];
+	}
+
+	// the slot following the last slot of a run
+	int runEnd(int run) {
+		return runBounds[run + 1];
+	}
+
+	// private helper methods
+
+	// assigns each element a slot, recording the displacement of each group
+	@SuppressWarnings("unchecked")
+	private int[] layout(Object[] es) {
+		int groupCount = displacements.length;
+		int[] hashes = new int[size];
+		int[] groups = new int[size];
+		// the start of each group's members, the final entry is the number of elements
+		int[] starts = new int[groupCount + 1];
+		for (int j = 0; j < size; j++) {
+			int hash = hasher.intHashValue((E) es[j]);
+			int group = Cuckoo.bucket(hash, 0, groupCount);
+			hashes[j] = hash;
+			groups[j] = group;
+			starts[group + 1]++;
+		}
+		for (int g = 0; g < groupCount; g++) {
+			starts[g + 1] += starts[g];
+		}
+		int[] members = new int[size];
+		int[] cursors = starts.clone();
+		for (int j = 0; j < size; j++) {
+			members[cursors[groups[j]]++] = j;
+		}
+
+		// identify the leaders, chaining each follower from its leader
+		boolean[] followers = new boolean[size];
+		int[] next = new int[size];
+		Arrays.fill(next, -1);
+		int[] leaderCounts = new int[groupCount];
+		int followerCount = 0;
+		int largest = 0;
+		for (int g = 0; g < groupCount; g++) {
+			int from = starts[g];
+			int to = starts[g + 1];
+			for (int m = from; m < to; m++) {
+				int j = members[m];
+				int leader = -1;
+				for (int n = from; n < m; n++) {
+					int k = members[n];
+					if (!followers[k] && hashes[k] == hashes[j]) {
+						leader = k;
+						break;
+					}
+				}
+				if (leader == -1) {
+					leaderCounts[g]++;
+					continue;
+				}
+				// followers join the end of their leader's chain
+				while (next[leader] != -1) leader = next[leader];
+				next[leader] = j;
+				followers[j] = true;
+				followerCount++;
+			}
+			largest = Math.max(largest, leaderCounts[g]);
+		}
+		primary = size - followerCount;
+
+		int[] slots = new int[size];
+		boolean[] occupied = new boolean[primary];
+		int[] candidates = new int[largest];
+		// place the groups with most leaders first, while there is most freedom to do so
+		for (int leaderCount = largest; leaderCount > 1; leaderCount--) {
+			for (int g = 0; g < groupCount; g++) {
+				if (leaderCounts[g] != leaderCount) continue;
+				int from = starts[g];
+				int to = starts[g + 1];
+				int d = 0;
+				while (!fits(hashes, members, from, to, followers, d, occupied, candidates)) {
+					if (++d == DISPLACEMENT_LIMIT) return null;
+				}
+				for (int m = from, c = 0; m < to; m++) {
+					int j = members[m];
+					if (followers[j]) continue;
+					int slot = candidates[c++];
+					occupied[slot] = true;
+					slots[j] = slot;
+				}
+				displacements[g] = d;
+			}
+		}
+		// lone leaders are assigned the remaining slots directly
+		int free = 0;
+		for (int g = 0; g < groupCount; g++) {
+			if (leaderCounts[g] != 1) continue;
+			for (int m = starts[g]; ; m++) {
+				int j = members[m];
+				if (followers[j]) continue;
+				while (occupied[free]) free++;
+				occupied[free] = true;
+				slots[j] = free;
+				displacements[g] = ~free;
+				break;
+			}
+		}
+		if (followerCount > 0) arrangeRuns(followers, next, slots);
+		return slots;
+	}
+
+	// assigns followers the slots after the primary slots, in the order of their leaders' slots
+	private void arrangeRuns(boolean[] followers, int[] next, int[] slots) {
+		int runCount = 0;
+		for (int j = 0; j < size; j++) {
+			if (!followers[j] && next[j] != -1) runCount++;
+		}
+		long[] runs = new long[runCount];
+		for (int j = 0, r = 0; j < size; j++) {
+			if (!followers[j] && next[j] != -1) runs[r++] = (long) slots[j] << 32 | j;
+		}
+		Arrays.sort(runs);
+		runLeaders = new int[runCount];
+		runBounds = new int[runCount + 1];
+		int slot = primary;
+		for (int r = 0; r < runCount; r++) {
+			runLeaders[r] = (int) (runs[r] >>> 32);
+			runBounds[r] = slot;
+			for (int j = next[(int) runs[r]]; j != -1; j = next[j]) {
+				slots[j] = slot++;
+			}
+		}
+		runBounds[runCount] = slot;
+	}
+
+	// whether the displacement sends every leader of a group to a distinct unoccupied slot
+	private boolean fits(int[] hashes, int[] members, int from, int to, boolean[] followers, int d, boolean[] occupied, int[] candidates) {
+		int count = 0;
+		for (int m = from; m < to; m++) {
+			int j = members[m];
+			if (followers[j]) continue;
+			int slot = Cuckoo.bucket(hashes[j], d + 1, primary);
+			if (occupied[slot]) return false;
+			for (int k = 0; k < count; k++) {
+				if (candidates[k] == slot) return false;
+			}
+			candidates[count++] = slot;
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,251 @@
+package com.tomgibara.collect;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import com.tomgibara.storage.Storage;
+import com.tomgibara.storage.Store;
+
+// an immutable map in which each key occupies the slot assigned to it by a perfect hash
+final class PerfectEquivalenceMap<K, V> extends AbstractMap<K, V> implements EquivalenceMap<K, V> {
+
+	private final PerfectEquivalenceSet<K> keys;
+	// used to create mutable copies
+	private final Cuckoo<K> cuckoo;
+	private final Storage<K> keyStorage;
+	private final Storage<V> valueStorage;
+	private final Equivalence<V> equ;
+	private final Store<V> valueStore;
+
+	private Entries entries = null;
+	private Values values = null;
+
+	PerfectEquivalenceMap(Perfect<K> perfect, Cuckoo<K> cuckoo, Storage<K> keyStorage, Storage<V> valueStorage, Equivalence<V> equ, Store<K> keyStore, Store<V> valueStore) {
+		this.cuckoo = cuckoo;
+		this.keyStorage = keyStorage;
+		this.valueStorage = valueStorage;
+		this.equ = equ;
+		this.valueStore = valueStore;
+		keys = new PerfectEquivalenceSet<>(perfect, cuckoo, keyStorage, keyStore);
+	}
+
+	// equivalence methods
+
+	@Override
+	public Equivalence<K> getKeyEquivalence() {
+		return keys.getEquivalence();
+	}
+
+	@Override
+	public Equivalence<V> getValueEquivalence() {
+		return equ;
+	}
+
+	// map methods
+
+	@Override
+	public boolean containsKey(Object key) {
+		return keys.indexOf(key) != -1;
+	}
+
+	@Override
+	public int size() {
+		return keys.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return keys.isEmpty();
+	}
+
+	@Override
+	public V get(Object key) {
+		int i = keys.indexOf(key);
+		return i == -1 ? null : valueStore.get(i);
+	}
+
+	@Override
+	public V getOrDefault(Object key, V defaultValue) {
+		int i = keys.indexOf(key);
+		if (i == -1) return defaultValue;
+		V value = valueStore.get(i);
+		return value == null ? defaultValue : value;
+	}
+
+	@Override
+	public V put(K key, V value) {
+		throw new IllegalStateException("immutable");
+	}
+
+	@Override
+	public void putAll(Map<? extends K, ? extends V> m) {
+		throw new IllegalStateException("immutable");
+	}
+
+	@Override
+	public V remove(Object key) {
+		throw new IllegalStateException("immutable");
+	}
+
+	@Override
+	public void clear() {
+		throw new IllegalStateException("immutable");
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		return entries == null ? entries = new Entries() : entries;
+	}
+
+	@Override
+	public EquivalenceSet<K> keySet() {
+		return keys;
+	}
+
+	@Override
+	public Collection<V> values() {
+		return values == null ? values = new Values() : values;
+	}
+
+	// equivalence map methods
+
+	@Override
+	public void compact() {
+		throw new IllegalStateException("immutable");
+	}
+
+	// mutability methods
+
+	@Override
+	public boolean isMutable() {
+		return false;
+	}
+
+	@Override
+	public EquivalenceMap<K, V> mutable() {
+		return mutableCopy();
+	}
+
+	@Override
+	public EquivalenceMap<K, V> immutable() {
+		return this;
+	}
+
+	@Override
+	public EquivalenceMap<K, V> mutableCopy() {
+		return new CuckooEquivalenceMap<>(cuckoo, keyStorage.mutable(), valueStorage.mutable(), equ, this);
+	}
+
+	@Override
+	public EquivalenceMap<K, V> immutableCopy() {
+		return this;
+	}
+
+	@Override
+	public EquivalenceMap<K, V> immutableView() {
+		return this;
+	}
+
+	// inner classes
+
+	private final class Values extends AbstractCollection<V> {
+
+		@Override
+		public int size() {
+			return valueStore.count();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return valueStore.count() == 0;
+		}
+
+		@Override
+		public void clear() {
+			throw new IllegalStateException("immutable");
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			throw new IllegalStateException("immutable");
+		}
+
+		@Override
+		public Iterator<V> iterator() {
+			return new ImmutableIterator<>(valueStore.iterator());
+		}
+
+	}
+
+	private final class Entries extends AbstractSet<Entry<K, V>> {
+
+		@Override
+		public int size() {
+			return keys.size();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return keys.isEmpty();
+		}
+
+		@Override
+		public void clear() {
+			throw new IllegalStateException("immutable");
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public boolean contains(Object o) {
+			if (!(o instanceof Entry)) return false;
+			Entry<?,?> e = (Entry<?,?>) o;
+			Object k = e.getKey();
+			Object v = e.getValue();
+			if (k == null || v == null) return false;
+			int i = keys.indexOf(k);
+			if (i == -1) return false;
+			try {
+				return equ.isEquivalent(valueStore.get(i), (V) v);
+			} catch (IllegalArgumentException|ClassCastException ex) {
+				return false;
+			}
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			throw new IllegalStateException("immutable");
+		}
+
+		@Override
+		public Iterator<Entry<K, V>> iterator() {
+			return new ImmutableIterator<>(keys.transformedIterator((i,k) -> new PerfectEntry(i,k)));
+		}
+	}
+
+	final private class PerfectEntry extends AbstractMapEntry<K, V> {
+
+		private final K key;
+		private final int index;
+
+		PerfectEntry(int index, K key) {
+			this.index = index;
+			this.key = key;
+		}
+
+		@Override
+		public K getKey() {
+			return key;
+		}
+
+		@Override
+		public V getValue() {
+			return valueStore.get(index);
+		}
+
+	}
+}
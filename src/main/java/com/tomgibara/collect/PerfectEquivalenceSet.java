@@ -0,0 +1,168 @@
+package com.tomgibara.collect;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.function.BiFunction;
+
+import com.tomgibara.storage.Storage;
+import com.tomgibara.storage.Store;
+
+// an immutable set in which each element occupies the slot assigned to it by a perfect hash
+final class PerfectEquivalenceSet<E> extends AbstractSet<E> implements EquivalenceSet<E> {
+
+	// fields
+
+	private final Perfect<E> perfect;
+	// used to create mutable copies
+	private final Cuckoo<E> cuckoo;
+	private final Storage<E> storage;
+	private final Store<E> store;
+
+	// constructors
+
+	PerfectEquivalenceSet(Perfect<E> perfect, Cuckoo<E> cuckoo, Storage<E> storage, Store<E> store) {
+		this.perfect = perfect;
+		this.cuckoo = cuckoo;
+		this.storage = storage;
+		this.store = store;
+	}
+
+	// equivalence
+
+	@Override
+	public Equivalence<E> getEquivalence() {
+		return perfect.equ;
+	}
+
+	@Override
+	public E get(E e) {
+		if (e == null) throw new IllegalArgumentException("null e");
+		int i = indexOf(e);
+		return i == -1 ? null : store.get(i);
+	}
+
+	@Override
+	public E some() {
+		return perfect.size() == 0 ? null : store.get(0);
+	}
+
+	// mutability
+
+	@Override
+	public boolean isMutable() {
+		return false;
+	}
+
+	@Override
+	public EquivalenceSet<E> mutable() {
+		return mutableCopy();
+	}
+
+	@Override
+	public EquivalenceSet<E> immutable() {
+		return this;
+	}
+
+	@Override
+	public EquivalenceSet<E> mutableCopy() {
+		return new CuckooEquivalenceSet<>(cuckoo, storage.mutable(), this);
+	}
+
+	@Override
+	public EquivalenceSet<E> immutableCopy() {
+		return this;
+	}
+
+	@Override
+	public EquivalenceSet<E> immutableView() {
+		return this;
+	}
+
+	// set
+
+	@Override
+	public int size() {
+		return perfect.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return perfect.size() == 0;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return indexOf(o) != -1;
+	}
+
+	@Override
+	public boolean add(E e) {
+		throw new IllegalStateException("immutable");
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		throw new IllegalStateException("immutable");
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends E> c) {
+		throw new IllegalStateException("immutable");
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> c) {
+		throw new IllegalStateException("immutable");
+	}
+
+	@Override
+	public boolean retainAll(Collection<?> c) {
+		throw new IllegalStateException("immutable");
+	}
+
+	@Override
+	public void clear() {
+		throw new IllegalStateException("immutable");
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return new ImmutableIterator<>(store.iterator());
+	}
+
+	// equivalence set
+
+	@Override
+	public void compact() {
+		throw new IllegalStateException("immutable");
+	}
+
+	// package scoped methods
+
+	@SuppressWarnings("unchecked")
+	int indexOf(Object o) {
+		if (o == null) return -1;
+		// we don't really have a way of avoiding these possible exceptions
+		try {
+			E e = (E) o;
+			int i = perfect.slot(e);
+			if (i == -1) return -1;
+			if (perfect.equ.isEquivalent(e, store.get(i))) return i;
+			// the element may follow an inequivalent element with the same hash
+			int r = perfect.run(i);
+			if (r == -1) return -1;
+			for (int j = perfect.runStart(r), end = perfect.runEnd(r); j < end; j++) {
+				if (perfect.equ.isEquivalent(e, store.get(j))) return j;
+			}
+			return -1;
+		} catch (ClassCastException|IllegalArgumentException e ) {
+			return -1;
+		}
+	}
+
+	<T> Iterator<T> transformedIterator(BiFunction<Integer, E, T> transform) {
+		return store.transformedIterator(transform);
+	}
+
+}
@@ -0,0 +1,432 @@
+package com.tomgibara.collect;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// applies the cuckoo hashing of a Cuckoo to primitive values held in a
+// table, through which values are placed, evicted and stashed as they are in
+// any other cuckoo table; since zero marks an empty slot, its membership is
+// recorded separately; the hash count, bucket size, eviction depth, stash size and
+// low water mark of the cuckoo are honoured, but resizing is never incremental
+abstract class PrimitiveCuckooSet<E> extends AbstractSet<E> implements EquivalenceSet<E> {
+
+	// statics
+
+	// identifies the last value returned by an iterator if there is none
+	private static final int NO_SLOT = Integer.MIN_VALUE;
+
+	// a file holding a set consists of a header followed by the slots, both little-endian;
+	// the header is a whole number of slots wide so that the slots are aligned
+	private static final ByteOrder FILE_ORDER = ByteOrder.LITTLE_ENDIAN;
+	private static final int FILE_MAGIC = 0x4f4f4b43; // "CKOO"
+	private static final int FILE_VERSION = 1;
+	private static final int FILE_HEADER_SIZE = 32;
+	// the offsets of the ints that comprise the header
+	private static final int OFFSET_MAGIC = 0;
+	private static final int OFFSET_VERSION = 4;
+	private static final int OFFSET_WIDTH = 8;
+	private static final int OFFSET_HASH_COUNT = 12;
+	private static final int OFFSET_BUCKET_SIZE = 16;
+	private static final int OFFSET_STASH_SIZE = 20;
+	private static final int OFFSET_COUNT = 24;
+	private static final int OFFSET_CONTAINS_ZERO = 28;
+	// the size of the buffer through which slots are written
+	private static final int WRITE_BUFFER_SIZE = 8192;
+
+	// maps a file written by write(), after checking that its header is consistent with its length
+	static ByteBuffer map(Path path, int width) throws IOException {
+		ByteBuffer file;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) throw new IOException("file too large");
+			if (size < FILE_HEADER_SIZE) throw new IOException("not a set file");
+			file = channel.map(MapMode.READ_ONLY, 0L, size).order(FILE_ORDER);
+		}
+		if (file.getInt(OFFSET_MAGIC) != FILE_MAGIC) throw new IOException("not a set file");
+		if (file.getInt(OFFSET_VERSION) != FILE_VERSION) throw new IOException("unsupported file version");
+		if (file.getInt(OFFSET_WIDTH) != width) throw new IOException("mismatched slot width");
+		int hashCount = file.getInt(OFFSET_HASH_COUNT);
+		int bucketSize = file.getInt(OFFSET_BUCKET_SIZE);
+		int stashSize = file.getInt(OFFSET_STASH_SIZE);
+		int count = file.getInt(OFFSET_COUNT);
+		int slotBytes = file.capacity() - FILE_HEADER_SIZE;
+		int primary = slotBytes / width - stashSize;
+		if (
+				hashCount < 2 || hashCount > Cuckoo.MAX_HASH_COUNT ||
+				bucketSize < 1 || bucketSize > Cuckoo.MAX_BUCKET_SIZE || stashSize < 0 ||
+				slotBytes % width != 0 || primary < bucketSize || primary % bucketSize != 0 ||
+				count < 0 || count > primary + stashSize + 1
+				) throw new IOException("corrupt set file");
+		return file;
+	}
+
+	// the murmur3 64 bit finalizer, reduced to the int from which buckets are derived
+	static int hash(long value) {
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		value *= 0xc4ceb9fe1a85ec53L;
+		value ^= value >>> 33;
+		return (int) value;
+	}
+
+	// fields
+
+	final Cuckoo<?> cuckoo;
+	private final boolean mutable;
+	private PrimitiveTable table;
+	// the layout of the values in the table
+	private Slots slots;
+	private boolean containsZero;
+	// the number of values in the set, including any zero
+	private int count;
+
+	// constructors
+
+	// the table is only used to create tables of the same kind
+	PrimitiveCuckooSet(Cuckoo<?> cuckoo, PrimitiveTable table, int initialCapacity) {
+		this.cuckoo = cuckoo;
+		this.table = table;
+		mutable = true;
+		setCapacity(cuckoo.capacity(initialCapacity));
+	}
+
+	// an immutable set over a file returned by map(), the slots of which are not copied
+	PrimitiveCuckooSet(ByteBuffer file) {
+		cuckoo = new Cuckoo<>(
+				Equivalence.equality(),
+				file.getInt(OFFSET_HASH_COUNT),
+				file.getInt(OFFSET_BUCKET_SIZE),
+				Cuckoo.DEFAULT_EVICTION_DEPTH,
+				file.getInt(OFFSET_STASH_SIZE),
+				0,
+				0f,
+				false,
+				false
+				);
+		mutable = false;
+		// slicing discards the byte order
+		ByteBuffer buffer = file.duplicate();
+		buffer.position(FILE_HEADER_SIZE);
+		table = PrimitiveTable.mapped(buffer.slice().order(FILE_ORDER), file.getInt(OFFSET_WIDTH));
+		containsZero = file.getInt(OFFSET_CONTAINS_ZERO) != 0;
+		count = file.getInt(OFFSET_COUNT);
+		slots = new Slots();
+	}
+
+	PrimitiveCuckooSet(PrimitiveCuckooSet<E> that, boolean mutable) {
+		this.cuckoo = that.cuckoo;
+		this.mutable = mutable;
+		table = that.table.copy();
+		containsZero = that.containsZero;
+		count = that.count;
+		slots = new Slots();
+	}
+
+	abstract E box(long value);
+
+	// equivalence
+
+	@Override
+	public Equivalence<E> getEquivalence() {
+		return Equivalence.equality();
+	}
+
+	@Override
+	public E some() {
+		if (containsZero) return box(0L);
+		if (count == 0) return null;
+		for (int slot = 0; ; slot++) {
+			long value = get(slot);
+			if (value != 0L) return box(value);
+		}
+	}
+
+	// mutability
+
+	@Override
+	public boolean isMutable() {
+		return mutable;
+	}
+
+	// set
+
+	@Override
+	public int size() {
+		return count;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	@Override
+	public void clear() {
+		checkMutable();
+		allocate(capacity());
+		containsZero = false;
+		count = 0;
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return new Iterator<E>() {
+
+			// -1 identifies the zero value, which is held outside the slots
+			private int next = containsZero ? -1 : advance(0);
+			private int last = NO_SLOT;
+
+			@Override
+			public boolean hasNext() {
+				return next < capacity();
+			}
+
+			@Override
+			public E next() {
+				if (!hasNext()) throw new NoSuchElementException();
+				last = next;
+				next = advance(next + 1);
+				return box(last == -1 ? 0L : get(last));
+			}
+
+			@Override
+			public void remove() {
+				if (last == NO_SLOT) throw new IllegalStateException("no element");
+				checkMutable();
+				// values are not unstashed here, since that could move them behind the iterator
+				if (last == -1) {
+					containsZero = false;
+				} else {
+					set(last, 0L);
+				}
+				count--;
+				last = NO_SLOT;
+			}
+
+			private int advance(int slot) {
+				int capacity = capacity();
+				while (slot < capacity && get(slot) == 0L) slot++;
+				return slot;
+			}
+		};
+	}
+
+	// equivalence set
+
+	@Override
+	public void compact() {
+		checkMutable();
+		int capacity = cuckoo.compactCapacity(count);
+		if (capacity < capacity()) rebuild(capacity);
+	}
+
+	// package scoped methods
+
+	boolean containsValue(long value) {
+		if (value != 0L) return indexOf(value) != -1;
+		checkOpen();
+		return containsZero;
+	}
+
+	boolean addValue(long value) {
+		checkMutable();
+		if (value == 0L) {
+			if (containsZero) return false;
+			containsZero = true;
+			count++;
+			return true;
+		}
+		if (indexOf(value) != -1) return false;
+		while (!place(value)) {
+			rebuild(cuckoo.grownCapacity(capacity()));
+		}
+		count++;
+		return true;
+	}
+
+	boolean removeValue(long value) {
+		checkMutable();
+		if (value == 0L) {
+			if (!containsZero) return false;
+			containsZero = false;
+			count--;
+			return true;
+		}
+		int index = indexOf(value);
+		if (index == -1) return false;
+		set(index, 0L);
+		count--;
+		if (index < slots.stashStart) slots.unstash(index);
+		// the table may then shrink if it has fallen below its low water mark
+		if (slots.isUnderused(count)) rebuild(cuckoo.shrunkCapacity(capacity()));
+		return true;
+	}
+
+	// the non-zero values in the slots
+	long[] values() {
+		long[] values = new long[containsZero ? count - 1 : count];
+		int capacity = capacity();
+		for (int slot = 0, i = 0; slot < capacity; slot++) {
+			long value = get(slot);
+			if (value != 0L) values[i++] = value;
+		}
+		return values;
+	}
+
+	void checkMutable() {
+		if (!mutable) throw new IllegalStateException("immutable");
+		checkOpen();
+	}
+
+	// writes the set to a file from which it can be mapped, each slot occupying the specified number of bytes
+	void write(Path path, int width) throws IOException {
+		checkOpen();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(FILE_ORDER);
+			buffer.putInt(FILE_MAGIC);
+			buffer.putInt(FILE_VERSION);
+			buffer.putInt(width);
+			buffer.putInt(cuckoo.hashCount);
+			buffer.putInt(cuckoo.bucketSize);
+			buffer.putInt(cuckoo.stashSize);
+			buffer.putInt(count);
+			buffer.putInt(containsZero ? 1 : 0);
+			int capacity = capacity();
+			for (int slot = 0; slot < capacity; slot++) {
+				if (buffer.remaining() < width) drain(channel, buffer);
+				long value = get(slot);
+				if (width == Integer.BYTES) {
+					buffer.putInt((int) value);
+				} else {
+					buffer.putLong(value);
+				}
+			}
+			drain(channel, buffer);
+		}
+	}
+
+	// discards the table, after which the set is empty and its slots are inaccessible
+	void discard() {
+		table = PrimitiveTable.CLOSED;
+		containsZero = false;
+		count = 0;
+	}
+
+	// slot access
+
+	// the number of slots
+	final int capacity() {
+		return table.size();
+	}
+
+	final long get(int slot) {
+		return table.get(slot);
+	}
+
+	final void set(int slot, long value) {
+		table.set(slot, value);
+	}
+
+	// private helper methods
+
+	private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) channel.write(buffer);
+		buffer.clear();
+	}
+
+	private void checkOpen() {
+		if (table == PrimitiveTable.CLOSED) throw new IllegalStateException("closed");
+	}
+
+	// replaces the slots with the specified number of empty slots
+	private void allocate(int capacity) {
+		table = table.empty(capacity);
+	}
+
+	private void setCapacity(int capacity) {
+		allocate(capacity);
+		slots = new Slots();
+	}
+
+	// lays out the non-zero values again in slots of the specified capacity
+	private void rebuild(int capacity) {
+		long[] values = values();
+		outer: while (true) {
+			setCapacity(capacity);
+			for (long value : values) {
+				if (!place(value)) {
+					capacity = cuckoo.grownCapacity(capacity);
+					continue outer;
+				}
+			}
+			return;
+		}
+	}
+
+	private int indexOf(long value) {
+		int hash = hash(value);
+		int bucketSize = cuckoo.bucketSize;
+		int bucketCount = slots.bucketCount;
+		for (int i = 0; i < cuckoo.hashCount; i++) {
+			int from = Cuckoo.bucket(hash, i, bucketCount) * bucketSize;
+			int to = from + bucketSize;
+			for (int slot = from; slot < to; slot++) {
+				if (get(slot) == value) return slot;
+			}
+		}
+		int capacity = capacity();
+		for (int slot = slots.stashStart; slot < capacity; slot++) {
+			if (get(slot) == value) return slot;
+		}
+		return -1;
+	}
+
+	// places a non-zero value known to be absent, returning false if no slot could be freed
+	private boolean place(long value) {
+		int slot = slots.place(hash(value));
+		if (slot == Cuckoo.NO_SLOT) return false;
+		set(~slot, value);
+		return true;
+	}
+
+	// inner classes
+
+	private final class Slots extends Cuckoo.Table {
+
+		Slots() {
+			super(cuckoo, table.size());
+		}
+
+		@Override
+		int size() {
+			return table.size();
+		}
+
+		@Override
+		boolean isEmpty(int slot) {
+			return table.get(slot) == 0L;
+		}
+
+		@Override
+		int slotHash(int slot) {
+			return hash(table.get(slot));
+		}
+
+		@Override
+		void move(int source, int target) {
+			table.set(target, table.get(source));
+			table.set(source, 0L);
+		}
+	}
+
+}
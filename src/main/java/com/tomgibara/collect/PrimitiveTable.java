@@ -0,0 +1,295 @@
+package com.tomgibara.collect;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+// the slots of a primitive cuckoo set, held either in an array on the heap,
+// in a direct buffer outside of it, or in a read-only buffer mapped from a
+// file; values are widened to longs; memory outside the heap is reclaimed by
+// the garbage collector once the table is no longer referenced
+abstract class PrimitiveTable {
+
+	// statics
+
+	// a table of zero slots from which tables of the same kind can be created
+	static PrimitiveTable ints(boolean direct) {
+		return direct ? new DirectInts(0) : new Ints(new int[0]);
+	}
+
+	static PrimitiveTable longs(boolean direct) {
+		return direct ? new DirectLongs(0) : new Longs(new long[0]);
+	}
+
+	// a read-only table over the slots in a buffer, each of the specified width in bytes;
+	// tables created from it are held on the heap
+	static PrimitiveTable mapped(ByteBuffer buffer, int width) {
+		return width == Integer.BYTES ? new MappedInts(buffer.asIntBuffer()) : new MappedLongs(buffer.asLongBuffer());
+	}
+
+	// the table which replaces the table of a closed set
+	static final PrimitiveTable CLOSED = new PrimitiveTable() {
+
+		@Override
+		int size() {
+			return 0;
+		}
+
+		@Override
+		long get(int slot) {
+			throw new IllegalStateException("closed");
+		}
+
+		@Override
+		void set(int slot, long value) {
+			throw new IllegalStateException("closed");
+		}
+
+		@Override
+		PrimitiveTable empty(int size) {
+			throw new IllegalStateException("closed");
+		}
+
+		@Override
+		PrimitiveTable copy() {
+			throw new IllegalStateException("closed");
+		}
+	};
+
+	private static ByteBuffer allocateDirect(int size, int bytes) {
+		return ByteBuffer.allocateDirect(size * bytes).order(ByteOrder.nativeOrder());
+	}
+
+	// methods
+
+	abstract int size();
+
+	abstract long get(int slot);
+
+	abstract void set(int slot, long value);
+
+	// a table of the same kind with the specified number of empty slots
+	abstract PrimitiveTable empty(int size);
+
+	abstract PrimitiveTable copy();
+
+	// inner classes
+
+	private static final class Ints extends PrimitiveTable {
+
+		private final int[] slots;
+
+		Ints(int[] slots) {
+			this.slots = slots;
+		}
+
+		@Override
+		int size() {
+			return slots.length;
+		}
+
+		@Override
+		long get(int slot) {
+			return slots[slot];
+		}
+
+		@Override
+		void set(int slot, long value) {
+			slots[slot] = (int) value;
+		}
+
+		@Override
+		PrimitiveTable empty(int size) {
+			return new Ints(new int[size]);
+		}
+
+		@Override
+		PrimitiveTable copy() {
+			return new Ints(slots.clone());
+		}
+	}
+
+	private static final class Longs extends PrimitiveTable {
+
+		private final long[] slots;
+
+		Longs(long[] slots) {
+			this.slots = slots;
+		}
+
+		@Override
+		int size() {
+			return slots.length;
+		}
+
+		@Override
+		long get(int slot) {
+			return slots[slot];
+		}
+
+		@Override
+		void set(int slot, long value) {
+			slots[slot] = value;
+		}
+
+		@Override
+		PrimitiveTable empty(int size) {
+			return new Longs(new long[size]);
+		}
+
+		@Override
+		PrimitiveTable copy() {
+			return new Longs(slots.clone());
+		}
+	}
+
+	// direct buffers are zero filled on allocation
+	private static final class DirectInts extends PrimitiveTable {
+
+		private final ByteBuffer buffer;
+		private final IntBuffer slots;
+
+		DirectInts(int size) {
+			buffer = allocateDirect(size, Integer.BYTES);
+			slots = buffer.asIntBuffer();
+		}
+
+		@Override
+		int size() {
+			return slots.capacity();
+		}
+
+		@Override
+		long get(int slot) {
+			return slots.get(slot);
+		}
+
+		@Override
+		void set(int slot, long value) {
+			slots.put(slot, (int) value);
+		}
+
+		@Override
+		PrimitiveTable empty(int size) {
+			return new DirectInts(size);
+		}
+
+		@Override
+		PrimitiveTable copy() {
+			DirectInts copy = new DirectInts(size());
+			copy.buffer.put(buffer.duplicate());
+			return copy;
+		}
+	}
+
+	private static final class DirectLongs extends PrimitiveTable {
+
+		private final ByteBuffer buffer;
+		private final LongBuffer slots;
+
+		DirectLongs(int size) {
+			buffer = allocateDirect(size, Long.BYTES);
+			slots = buffer.asLongBuffer();
+		}
+
+		@Override
+		int size() {
+			return slots.capacity();
+		}
+
+		@Override
+		long get(int slot) {
+			return slots.get(slot);
+		}
+
+		@Override
+		void set(int slot, long value) {
+			slots.put(slot, value);
+		}
+
+		@Override
+		PrimitiveTable empty(int size) {
+			return new DirectLongs(size);
+		}
+
+		@Override
+		PrimitiveTable copy() {
+			DirectLongs copy = new DirectLongs(size());
+			copy.buffer.put(buffer.duplicate());
+			return copy;
+		}
+	}
+
+	private static final class MappedInts extends PrimitiveTable {
+
+		private final IntBuffer slots;
+
+		MappedInts(IntBuffer slots) {
+			this.slots = slots;
+		}
+
+		@Override
+		int size() {
+			return slots.capacity();
+		}
+
+		@Override
+		long get(int slot) {
+			return slots.get(slot);
+		}
+
+		@Override
+		void set(int slot, long value) {
+			throw new IllegalStateException("immutable");
+		}
+
+		@Override
+		PrimitiveTable empty(int size) {
+			return new Ints(new int[size]);
+		}
+
+		@Override
+		PrimitiveTable copy() {
+			int[] copy = new int[size()];
+			slots.duplicate().get(copy);
+			return new Ints(copy);
+		}
+	}
+
+	private static final class MappedLongs extends PrimitiveTable {
+
+		private final LongBuffer slots;
+
+		MappedLongs(LongBuffer slots) {
+			this.slots = slots;
+		}
+
+		@Override
+		int size() {
+			return slots.capacity();
+		}
+
+		@Override
+		long get(int slot) {
+			return slots.get(slot);
+		}
+
+		@Override
+		void set(int slot, long value) {
+			throw new IllegalStateException("immutable");
+		}
+
+		@Override
+		PrimitiveTable empty(int size) {
+			return new Longs(new long[size]);
+		}
+
+		@Override
+		PrimitiveTable copy() {
+			long[] copy = new long[size()];
+			slots.duplicate().get(copy);
+			return new Longs(copy);
+		}
+	}
+}
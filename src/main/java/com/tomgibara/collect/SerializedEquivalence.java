@@ -0,0 +1,116 @@
+package com.tomgibara.collect;
+
+import java.util.Arrays;
+
+import com.tomgibara.hashing.Hasher;
+import com.tomgibara.hashing.Hashing;
+import com.tomgibara.streams.StreamSerializer;
+import com.tomgibara.streams.WriteStream;
+
+// two objects are equivalent if their serializations are identical; the
+// first is serialized into a buffer retained by the thread, against which the
+// second is compared as it is serialized, so comparisons do not allocate once
+// the buffer has grown to accommodate the serialized objects; a buffer grown
+// beyond a limit is not retained after the comparison that grew it
+final class SerializedEquivalence<E> implements Equivalence<E> {
+
+	// statics
+
+	private static final int INITIAL_BUFFER_SIZE = 64;
+	private static final int MAX_RETAINED_BUFFER_SIZE = 4096;
+
+	// thrown to abandon serialization at the first difference, without recording a stack trace
+	private static final RuntimeException DIFFERENT = new RuntimeException("different", null, false, false) {
+		private static final long serialVersionUID = 1L;
+	};
+
+	private static final ThreadLocal<Comparison> COMPARISONS = ThreadLocal.withInitial(Comparison::new);
+
+	// fields
+
+	private final StreamSerializer<E> serializer;
+	private final Hasher<E> hasher;
+
+	// constructors
+
+	SerializedEquivalence(StreamSerializer<E> serializer) {
+		this.serializer = serializer;
+		hasher = Hashing.murmur3Int().hasher(serializer);
+	}
+
+	// equivalence
+
+	@Override
+	public boolean isEquivalent(E e1, E e2) {
+		Comparison comparison = COMPARISONS.get();
+		// a serializer that itself compares serializations must not overwrite the buffer
+		if (comparison.inUse) return new Comparison().compare(serializer, e1, e2);
+		comparison.inUse = true;
+		try {
+			return comparison.compare(serializer, e1, e2);
+		} finally {
+			comparison.inUse = false;
+			comparison.release();
+		}
+	}
+
+	@Override
+	public Hasher<E> getHasher() {
+		return hasher;
+	}
+
+	// object methods
+
+	@Override
+	public int hashCode() {
+		return serializer.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) return true;
+		if (!(obj instanceof SerializedEquivalence)) return false;
+		SerializedEquivalence<?> that = (SerializedEquivalence<?>) obj;
+		return this.serializer.equals(that.serializer);
+	}
+
+	// inner classes
+
+	private static final class Comparison {
+
+		private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+		// the number of bytes recorded in the buffer
+		private int length;
+		// the number of recorded bytes matched so far
+		private int position;
+		private boolean inUse = false;
+
+		private final WriteStream recorder = b -> {
+			if (length == buffer.length) buffer = Arrays.copyOf(buffer, length * 2);
+			buffer[length++] = b;
+		};
+
+		private final WriteStream comparer = b -> {
+			if (position == length || buffer[position] != b) throw DIFFERENT;
+			position++;
+		};
+
+		<E> boolean compare(StreamSerializer<E> serializer, E e1, E e2) {
+			length = 0;
+			serializer.serialize(e1, recorder);
+			position = 0;
+			try {
+				serializer.serialize(e2, comparer);
+			} catch (RuntimeException e) {
+				if (e == DIFFERENT) return false;
+				throw e;
+			}
+			return position == length;
+		}
+
+		// drops a buffer that has grown too large to be worth retaining
+		void release() {
+			if (buffer.length > MAX_RETAINED_BUFFER_SIZE) buffer = new byte[INITIAL_BUFFER_SIZE];
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package com.tomgibara.collect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+public class AllocationTest {
+
+	private static final int SIZE = 1000;
+	private static final int ROUNDS = 100;
+
+	// generous enough to accommodate the measurement itself
+	private static final long TOLERANCE = 1024L;
+
+	private static final String[] KEYS = new String[SIZE];
+	private static final Integer[] VALUES = new Integer[SIZE];
+
+	static {
+		for (int i = 0; i < SIZE; i++) {
+			KEYS[i] = Integer.toString(i);
+			VALUES[i] = Integer.valueOf(i);
+		}
+	}
+
+	@Test
+	public void testSetOperations() {
+		EquivalenceSet<String> set = Collect.<String>sets().newSet();
+		// reach the final capacity before measuring
+		for (String key : KEYS) set.add(key);
+		long allocated = allocated(() -> {
+			for (int r = 0; r < ROUNDS; r++) {
+				for (String key : KEYS) {
+					set.remove(key);
+					set.add(key);
+					set.contains(key);
+					set.get(key);
+				}
+			}
+		});
+		if (allocated < 0L) return;
+		assertEquals(SIZE, set.size());
+		assertTrue("allocated " + allocated + " bytes", allocated < TOLERANCE);
+	}
+
+	@Test
+	public void testBulkSetOperations() {
+		Collect.Sets<String> sets = Collect.<String>sets();
+		EquivalenceSet<String> set = sets.newSet();
+		EquivalenceSet<String> few = sets.newSet();
+		for (String key : KEYS) set.add(key);
+		for (int i = 0; i < 10; i++) few.add(KEYS[i]);
+		long allocated = allocated(() -> {
+			for (int r = 0; r < ROUNDS; r++) {
+				set.removeAll(few);
+				set.addAll(few);
+				few.retainAll(set);
+			}
+		});
+		if (allocated < 0L) return;
+		assertEquals(SIZE, set.size());
+		assertTrue("allocated " + allocated + " bytes", allocated < TOLERANCE);
+	}
+
+	@Test
+	public void testSerializedComparisons() {
+		Equivalence<String> e = Equivalence.fromSerializer((str, s) -> {
+			for (int i = 0; i < str.length(); i++) s.writeByte((byte) str.charAt(i));
+		});
+		// grow the buffer before measuring
+		e.isEquivalent(KEYS[SIZE - 1], KEYS[SIZE - 1]);
+		long allocated = allocated(() -> {
+			for (int r = 0; r < ROUNDS; r++) {
+				for (int i = 1; i < SIZE; i++) {
+					e.isEquivalent(KEYS[i], KEYS[i]);
+					e.isEquivalent(KEYS[i], KEYS[i - 1]);
+				}
+			}
+		});
+		if (allocated < 0L) return;
+		assertTrue("allocated " + allocated + " bytes", allocated < TOLERANCE);
+	}
+
+	@Test
+	public void testMapOperations() {
+		EquivalenceMap<String, Integer> map = Collect.<String>sets().<Integer>mapped().newMap();
+		// reach the final capacity before measuring
+		for (int i = 0; i < SIZE; i++) map.put(KEYS[i], VALUES[i]);
+		long allocated = allocated(() -> {
+			for (int r = 0; r < ROUNDS; r++) {
+				for (int i = 0; i < SIZE; i++) {
+					String key = KEYS[i];
+					map.remove(key);
+					map.put(key, VALUES[i]);
+					map.get(key);
+					map.containsKey(key);
+				}
+			}
+		});
+		if (allocated < 0L) return;
+		assertEquals(SIZE, map.size());
+		assertTrue("allocated " + allocated + " bytes", allocated < TOLERANCE);
+	}
+
+	@Test
+	public void testIntSetOperations() {
+		IntEquivalenceSet set = Collect.setsOf(int.class).newIntSet();
+		// reach the final capacity before measuring
+		for (int i = 0; i < SIZE; i++) set.addInt(i);
+		long allocated = allocated(() -> {
+			for (int r = 0; r < ROUNDS; r++) {
+				for (int i = 0; i < SIZE; i++) {
+					set.removeInt(i);
+					set.addInt(i);
+					set.containsInt(i);
+				}
+			}
+		});
+		if (allocated < 0L) return;
+		assertEquals(SIZE, set.size());
+		assertTrue("allocated " + allocated + " bytes", allocated < TOLERANCE);
+	}
+
+	@Test
+	public void testCounterOperations() {
+		LongValuedEquivalenceMap<String> map = Collect.<String>sets().mappedTo(long.class).newLongValuedMap();
+		// reach the final capacity before measuring
+		for (String key : KEYS) map.increment(key);
+		long allocated = allocated(() -> {
+			for (int r = 0; r < ROUNDS; r++) {
+				for (String key : KEYS) {
+					map.increment(key);
+					map.addTo(key, -1L);
+					map.getLong(key);
+				}
+			}
+		});
+		if (allocated < 0L) return;
+		assertEquals(SIZE, map.size());
+		assertTrue("allocated " + allocated + " bytes", allocated < TOLERANCE);
+	}
+
+	@Test
+	public void testMultimapIteration() {
+		EquivalenceMultimap<String, Integer> map = Collect.<String>sets().<Integer>mapped().newMultimap();
+		for (int i = 0; i < SIZE; i++) {
+			for (int j = 0; j <= i % 10; j++) map.put(KEYS[i], VALUES[j]);
+		}
+		long[] sum = {0L};
+		Consumer<Integer> action = v -> sum[0] += v;
+		long allocated = allocated(() -> {
+			for (int r = 0; r < ROUNDS; r++) {
+				for (String key : KEYS) {
+					map.forEach(key, action);
+				}
+			}
+		});
+		if (allocated < 0L) return;
+		assertTrue(sum[0] > 0L);
+		assertTrue("allocated " + allocated + " bytes", allocated < TOLERANCE);
+	}
+
+	@Test
+	public void testMapIteration() {
+		EquivalenceMap<String, Integer> map = Collect.<String>sets().<Integer>mapped().newMap();
+		for (int i = 0; i < SIZE; i++) map.put(KEYS[i], VALUES[i]);
+		long[] sum = {0L};
+		BiConsumer<String, Integer> action = (k, v) -> sum[0] += v;
+		MapCursor<String, Integer> cursor = map.cursor();
+		long allocated = allocated(() -> {
+			for (int r = 0; r < ROUNDS; r++) {
+				map.forEach(action);
+				cursor.reset();
+				while (cursor.advance()) {
+					cursor.setValue(cursor.value());
+				}
+			}
+		});
+		if (allocated < 0L) return;
+		assertTrue(sum[0] > 0L);
+		assertTrue("allocated " + allocated + " bytes", allocated < TOLERANCE);
+	}
+
+	// the bytes allocated by the current thread in running the task for a second time, or -1 if unavailable
+	private static long allocated(Runnable task) {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) return -1L;
+		com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+		if (!sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled()) return -1L;
+		long id = Thread.currentThread().getId();
+		// warm up
+		task.run();
+		long before = sunBean.getThreadAllocatedBytes(id);
+		task.run();
+		long after = sunBean.getThreadAllocatedBytes(id);
+		return after - before;
+	}
+}
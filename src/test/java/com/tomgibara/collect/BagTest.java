@@ -0,0 +1,150 @@
+package com.tomgibara.collect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.tomgibara.hashing.HashCode;
+import com.tomgibara.hashing.HashSize;
+import com.tomgibara.hashing.Hasher;
+
+public class BagTest {
+
+	@Test
+	public void testCounting() {
+		Collect.Sets<String> sets = Collect.sets();
+		testCounting(sets);
+		testCounting(sets.withHashCount(2).withStashSize(2));
+		testCounting(sets.withBucketSize(4).withLowWaterMark(0.25f));
+	}
+
+	private void testCounting(Collect.Sets<String> sets) {
+		EquivalenceBag<String> bag = sets.newBag();
+		Map<String, Long> check = new HashMap<>();
+		Random r = new Random(0L);
+		for (int i = 0; i < 50000; i++) {
+			String e = Integer.toString(r.nextInt(3000));
+			long n = r.nextInt(5);
+			switch (r.nextInt(5)) {
+			case 0:
+				assertEquals(check.merge(e, 1L, Long::sum).longValue(), bag.add(e));
+				break;
+			case 1:
+				long added = check.getOrDefault(e, 0L) + n;
+				if (added > 0L) check.put(e, added);
+				assertEquals(added, bag.add(e, n));
+				break;
+			case 2:
+				long remaining = Math.max(0L, check.getOrDefault(e, 0L) - n);
+				if (remaining == 0L) check.remove(e); else check.put(e, remaining);
+				assertEquals(remaining, bag.remove(e, n));
+				break;
+			case 3:
+				Long previous = n == 0L ? check.remove(e) : check.put(e, n);
+				assertEquals(previous == null ? 0L : previous, bag.setCount(e, n));
+				break;
+			case 4:
+				assertEquals(check.getOrDefault(e, 0L).longValue(), bag.count(e));
+				break;
+			}
+		}
+		assertMatches(check, bag);
+		assertMatches(check, bag.mutableCopy());
+		EquivalenceBag<String> copy = bag.mutableCopy();
+		assertEquals(bag, copy);
+		assertEquals(bag.hashCode(), copy.hashCode());
+		assertEquals(bag.immutableView(), copy);
+		if (!check.isEmpty()) {
+			String e = check.keySet().iterator().next();
+			copy.add(e);
+			assertFalse(bag.equals(copy));
+			copy.remove(e, 1L);
+			assertEquals(bag, copy);
+		}
+
+		for (Iterator<String> it = bag.elementSet().iterator(); it.hasNext(); ) {
+			String e = it.next();
+			if (e.length() < 4) {
+				it.remove();
+				check.remove(e);
+			}
+		}
+		assertMatches(check, bag);
+		bag.compact();
+		assertMatches(check, bag);
+		bag.clear();
+		assertTrue(bag.isEmpty());
+		assertEquals(0L, bag.totalCount());
+	}
+
+	private static void assertMatches(Map<String, Long> check, EquivalenceBag<String> bag) {
+		assertEquals(check.keySet(), bag.elementSet());
+		long total = 0L;
+		for (Map.Entry<String, Long> entry : check.entrySet()) {
+			assertEquals(entry.getValue().longValue(), bag.count(entry.getKey()));
+			total += entry.getValue();
+		}
+		assertEquals(total, bag.totalCount());
+		bag.forEachCount((e, c) -> assertEquals(check.get(e).longValue(), c));
+	}
+
+	@Test
+	public void testEquivalence() {
+		Collect.Sets<String> sets = Collect.<String>sets().underEquivalence(new Equivalence<String>() {
+			@Override
+			public boolean isEquivalent(String e1, String e2) {
+				return e1.equalsIgnoreCase(e2);
+			}
+
+			@Override
+			public Hasher<String> getHasher() {
+				return new Hasher<String>() {
+					@Override public HashSize getSize()             { return HashSize.INT_SIZE;                   }
+					@Override public HashCode hash(String value)    { return HashCode.fromInt(intHashValue(value)); }
+					@Override public int intHashValue(String value) { return value.toLowerCase().hashCode();      }
+				};
+			}
+		});
+		EquivalenceBag<String> bag = sets.newBag();
+		bag.add("a");
+		bag.add("A", 2L);
+		assertEquals(3L, bag.count("a"));
+		assertEquals(1L, bag.remove("A", 2L));
+		assertEquals(1, bag.elementSet().size());
+	}
+
+	@Test
+	public void testImmutability() {
+		EquivalenceBag<String> bag = Collect.<String>sets().newBag();
+		bag.add("a");
+		EquivalenceBag<String> view = bag.immutableView();
+		assertFalse(view.isMutable());
+		try {
+			view.add("a");
+			fail();
+		} catch (IllegalStateException e) {
+			/* expected */
+		}
+		try {
+			bag.add("a", -1L);
+			fail();
+		} catch (IllegalArgumentException e) {
+			/* expected */
+		}
+		bag.add("a");
+		assertEquals(2L, view.count("a"));
+		EquivalenceBag<String> copy = view.mutableCopy();
+		copy.add("a");
+		assertEquals(2L, bag.count("a"));
+		assertEquals(3L, copy.count("a"));
+	}
+
+}
@@ -0,0 +1,170 @@
+package com.tomgibara.collect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BiMapTest {
+
+	@Test
+	public void testRandomOperations() {
+		Collect.Maps<Integer, String> maps = Collect.setsOf(int.class).mappedTo(String.class);
+		testRandomOperations(maps);
+		testRandomOperations(maps.withHashCount(2).withStashSize(2));
+		testRandomOperations(maps.withBucketSize(4).withLowWaterMark(0.25f));
+		testRandomOperations(maps.withHashCaching(true).withSlotTagging(true));
+	}
+
+	private void testRandomOperations(Collect.Maps<Integer, String> maps) {
+		EquivalenceBiMap<Integer, String> map = maps.newBiMap();
+		EquivalenceBiMap<String, Integer> inverse = map.inverse();
+		Map<Integer, String> check = new HashMap<>();
+		Map<String, Integer> inverseCheck = new HashMap<>();
+		Random r = new Random(0L);
+		for (int i = 0; i < 50000; i++) {
+			int key = r.nextInt(2000);
+			String value = Integer.toString(r.nextInt(2000));
+			switch (r.nextInt(6)) {
+			case 0:
+				Integer holder = inverseCheck.get(value);
+				if (holder == null || holder == key) {
+					assertEquals(put(check, inverseCheck, key, value), map.put(key, value));
+				} else try {
+					map.put(key, value);
+					fail();
+				} catch (IllegalArgumentException e) {
+					/* expected */
+				}
+				break;
+			case 1:
+				inverseCheck.remove(check.get(key));
+				check.remove(inverseCheck.remove(value));
+				assertEquals(put(check, inverseCheck, key, value), map.forcePut(key, value));
+				break;
+			case 2:
+				String previous = check.remove(key);
+				if (previous != null) inverseCheck.remove(previous);
+				assertEquals(previous, map.remove(key));
+				break;
+			case 3:
+				Integer removed = inverseCheck.remove(value);
+				if (removed != null) check.remove(removed);
+				assertEquals(removed, inverse.remove(value));
+				break;
+			case 4:
+				assertEquals(check.get(key), map.get(key));
+				assertEquals(inverseCheck.get(value), inverse.get(value));
+				assertEquals(inverseCheck.containsKey(value), map.containsValue(value));
+				break;
+			case 5:
+				if (r.nextInt(100) == 0) map.compact();
+				break;
+			}
+		}
+		assertEquals(check, map);
+		assertEquals(inverseCheck, inverse);
+		assertEquals(check, map.mutableCopy());
+		assertEquals(inverseCheck, map.immutableCopy().inverse());
+
+		// removal through iterators removes the partner
+		for (Iterator<String> it = map.values().iterator(); it.hasNext(); ) {
+			String value = it.next();
+			if (value.length() < 4) {
+				it.remove();
+				check.remove(inverseCheck.remove(value));
+			}
+		}
+		for (Iterator<Map.Entry<String, Integer>> it = inverse.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<String, Integer> entry = it.next();
+			if (entry.getValue() % 2 == 0) {
+				it.remove();
+				check.remove(inverseCheck.remove(entry.getKey()));
+			}
+		}
+		for (Iterator<Integer> it = map.keySet().iterator(); it.hasNext(); ) {
+			Integer key = it.next();
+			if (key % 3 == 0) {
+				it.remove();
+				inverseCheck.remove(check.remove(key));
+			}
+		}
+		assertEquals(check, map);
+		assertEquals(inverseCheck, inverse);
+		for (String value : inverseCheck.keySet()) {
+			assertTrue(map.containsValue(value));
+		}
+		map.clear();
+		assertTrue(inverse.isEmpty());
+	}
+
+	private static String put(Map<Integer, String> check, Map<String, Integer> inverseCheck, int key, String value) {
+		String previous = check.put(key, value);
+		if (previous != null) inverseCheck.remove(previous);
+		inverseCheck.put(value, key);
+		return previous;
+	}
+
+	@Test
+	public void testFailedPutLeavesMapUnchanged() {
+		EquivalenceBiMap<Integer, String> map = Collect.setsOf(int.class).mappedTo(String.class).newBiMap();
+		map.put(1, "one");
+		map.put(2, "two");
+		try {
+			map.put(3, "one");
+			fail();
+		} catch (IllegalArgumentException e) {
+			/* expected */
+		}
+		Map.Entry<Integer, String> entry = map.entrySet().iterator().next();
+		try {
+			entry.setValue(entry.getKey() == 1 ? "two" : "one");
+			fail();
+		} catch (IllegalArgumentException e) {
+			/* expected */
+		}
+		assertEquals(2, map.size());
+		assertFalse(map.containsKey(3));
+		assertEquals("one", map.get(1));
+		assertEquals(Integer.valueOf(2), map.inverse().get("two"));
+		// replacing a value with itself is permitted
+		assertEquals("one", map.put(1, "one"));
+		assertEquals("two", map.replace(2, "deux"));
+		assertNull(map.inverse().get("two"));
+		assertEquals(Integer.valueOf(2), map.inverse().get("deux"));
+	}
+
+	@Test
+	public void testImmutability() {
+		EquivalenceBiMap<Integer, String> map = Collect.setsOf(int.class).mappedTo(String.class).newBiMap();
+		map.put(1, "one");
+		EquivalenceBiMap<String, Integer> view = map.immutableView().inverse();
+		assertFalse(view.isMutable());
+		assertEquals(Integer.valueOf(1), view.get("one"));
+		try {
+			view.put("two", 2);
+			fail();
+		} catch (IllegalStateException e) {
+			/* expected */
+		}
+		try {
+			map.immutableCopy().inverse().forcePut("two", 2);
+			fail();
+		} catch (IllegalStateException e) {
+			/* expected */
+		}
+		EquivalenceBiMap<Integer, String> copy = view.inverse().mutableCopy();
+		copy.put(2, "two");
+		assertEquals(1, map.size());
+		assertEquals(Integer.valueOf(2), copy.inverse().get("two"));
+	}
+
+}
@@ -0,0 +1,131 @@
+package com.tomgibara.collect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class ConcurrentMapTest {
+
+	private static final int THREADS = 4;
+	private static final int KEYS = 10000;
+
+	@Test
+	public void testMapOperations() {
+		ConcurrentEquivalenceMap<String, Integer> map = Collect.<String>sets().<Integer>mapped().newConcurrentMap();
+		Map<String, Integer> check = new HashMap<>();
+		for (int i = 0; i < 1000; i++) {
+			String key = Integer.toString(i);
+			assertNull(map.put(key, i));
+			check.put(key, i);
+		}
+		assertEquals(check, map);
+		assertEquals(1000, map.size());
+		assertEquals(0, map.putIfAbsent("0", -1).intValue());
+		assertNull(map.putIfAbsent("x", -1));
+		assertTrue(map.remove("x", -1));
+		assertFalse(map.remove("0", -1));
+		assertTrue(map.replace("0", 0, 1));
+		assertEquals(1, map.replace("0", 0).intValue());
+		assertEquals(0, map.remove("0").intValue());
+		assertFalse(map.containsKey("0"));
+		assertEquals(999, map.keySet().size());
+		map.keySet().removeIf(k -> k.length() < 3);
+		assertEquals(900, map.size());
+		for (Map.Entry<String, Integer> entry : map.entrySet()) {
+			entry.setValue(-entry.getValue());
+		}
+		assertEquals(-999, map.get("999").intValue());
+		EquivalenceMap<String, Integer> copy = map.immutableCopy();
+		assertEquals(map, copy);
+		assertFalse(copy.isMutable());
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertEquals(900, copy.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullValue() {
+		Collect.<String>sets().<Integer>mapped().newConcurrentMap().put("a", null);
+	}
+
+	@Test
+	public void testConcurrentWriters() throws InterruptedException {
+		ConcurrentEquivalenceMap<Integer, Integer> map = Collect.setsOf(int.class).mappedTo(int.class).newConcurrentMap();
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread[] threads = new Thread[THREADS];
+		for (int t = 0; t < THREADS; t++) {
+			int offset = t;
+			threads[t] = new Thread(() -> {
+				try {
+					for (int i = offset; i < KEYS; i += THREADS) {
+						map.put(i, i);
+						// a key, once written by this thread, is always visible to it
+						for (int j = offset; j <= i; j += THREADS * 97) {
+							if (map.get(j).intValue() != j) throw new AssertionError("wrong value for " + j);
+						}
+						// every thread increments the same counters
+						map.merge(-1 - (i % 10), 1, Integer::sum);
+					}
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			});
+		}
+		for (Thread thread : threads) thread.start();
+		for (Thread thread : threads) thread.join();
+		if (failure.get() != null) throw new AssertionError(failure.get());
+		assertEquals(KEYS + 10, map.size());
+		for (int i = 0; i < KEYS; i++) {
+			assertEquals(i, map.get(i).intValue());
+		}
+		for (int i = 0; i < 10; i++) {
+			assertEquals(KEYS / 10, map.get(-1 - i).intValue());
+		}
+	}
+
+	@Test
+	public void testCopiesDuringWrites() throws InterruptedException {
+		ConcurrentEquivalenceMap<Integer, Integer> map = Collect.setsOf(int.class).mappedTo(int.class).newConcurrentMap();
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread[] threads = new Thread[THREADS];
+		for (int t = 0; t < THREADS; t++) {
+			int offset = t;
+			threads[t] = new Thread(() -> {
+				try {
+					// repeatedly grow and shrink the map so that copies see both
+					for (int round = 0; round < 5; round++) {
+						for (int i = offset; i < KEYS; i += THREADS) map.put(i, -i);
+						for (int i = offset; i < KEYS; i += THREADS) map.remove(i);
+					}
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			});
+		}
+		for (Thread thread : threads) thread.start();
+		try {
+			boolean running = true;
+			while (running) {
+				running = false;
+				for (Thread thread : threads) running |= thread.isAlive();
+				EquivalenceMap<Integer, Integer> copy = map.immutableCopy();
+				assertTrue(copy.size() <= KEYS);
+				for (Map.Entry<Integer, Integer> entry : copy.entrySet()) {
+					assertEquals(-entry.getKey(), entry.getValue().intValue());
+				}
+			}
+		} finally {
+			for (Thread thread : threads) thread.join();
+		}
+		if (failure.get() != null) throw new AssertionError(failure.get());
+		assertTrue(map.immutableCopy().isEmpty());
+	}
+
+}
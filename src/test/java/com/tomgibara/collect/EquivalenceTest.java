@@ -7,12 +7,18 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Random;
 import java.util.Set;
+import java.util.Spliterator;
 import java.util.TreeSet;
 
 import org.junit.Test;
@@ -380,6 +386,795 @@ public class EquivalenceTest {
 		assertFalse(set.isMutable());
 	}
 
+	@Test
+	public void testHashCounts() {
+		for (int hashCount = 2; hashCount <= 6; hashCount++) {
+			EquivalenceSet<Integer> set = Collect.setsOf(int.class).withHashCount(hashCount).newSet();
+			EquivalenceMap<Integer, Integer> map = Collect.setsOf(int.class).mappedTo(int.class).withHashCount(hashCount).newMap();
+			for (int i = 0; i < 1000; i++) {
+				set.add(i);
+				map.put(i, -i);
+			}
+			assertEquals(1000, set.size());
+			assertEquals(1000, map.size());
+			for (int i = 0; i < 1000; i++) {
+				assertTrue(set.contains(i));
+				assertEquals(-i, map.get(i).intValue());
+			}
+			assertFalse(set.contains(1000));
+			assertFalse(map.containsKey(1000));
+		}
+	}
+
+	@Test
+	public void testBucketSizes() {
+		for (int bucketSize = 1; bucketSize <= 8; bucketSize *= 2) {
+			EquivalenceSet<Integer> set = Collect.setsOf(int.class).withHashCount(2).withBucketSize(bucketSize).newSet();
+			EquivalenceMap<Integer, Integer> map = Collect.setsOf(int.class).mappedTo(int.class).withBucketSize(bucketSize).newMap();
+			for (int i = 0; i < 1000; i++) {
+				set.add(i);
+				map.put(i, -i);
+			}
+			assertEquals(1000, set.size());
+			assertEquals(1000, map.size());
+			for (int i = 0; i < 1000; i++) {
+				assertTrue(set.contains(i));
+				assertEquals(-i, map.get(i).intValue());
+			}
+			for (int i = 0; i < 1000; i += 2) {
+				assertTrue(set.remove(i));
+				assertEquals(-i, map.remove(i).intValue());
+			}
+			for (int i = 0; i < 1000; i++) {
+				assertEquals(i % 2 == 1, set.contains(i));
+				assertEquals(i % 2 == 1, map.containsKey(i));
+			}
+		}
+		assertEquals(1, Collect.sets().withBucketSize(4).singletonSet("X").size());
+	}
+
+	@Test
+	public void testEvictionDepths() {
+		for (int depth = 1; depth <= 8; depth++) {
+			EquivalenceMap<String, Integer> map = Collect.setsOf(String.class).mappedTo(int.class).withEvictionDepth(depth).newMap();
+			for (int i = 0; i < 1000; i++) {
+				map.put(Integer.toString(i), i);
+			}
+			assertEquals(1000, map.size());
+			for (int i = 0; i < 1000; i++) {
+				assertEquals(i, map.get(Integer.toString(i)).intValue());
+			}
+		}
+	}
+
+	@Test
+	public void testStash() {
+		for (int stashSize = 1; stashSize <= 4; stashSize++) {
+			EquivalenceMap<Integer, Integer> map = Collect.setsOf(int.class).withStashSize(stashSize).mappedTo(int.class).newMap();
+			for (int i = 0; i < 1000; i++) {
+				map.put(i, -i);
+			}
+			assertEquals(1000, map.size());
+			for (int i = 0; i < 1000; i++) {
+				assertEquals(-i, map.get(i).intValue());
+			}
+			for (int i = 0; i < 1000; i += 3) {
+				assertEquals(-i, map.remove(i).intValue());
+			}
+			for (int i = 0; i < 1000; i++) {
+				assertEquals(i % 3 != 0, map.containsKey(i));
+			}
+			assertEquals(666, map.size());
+		}
+		assertTrue(Collect.sets().withStashSize(2).emptySet().isEmpty());
+	}
+
+	@Test
+	public void testIncrementalResizing() {
+		for (int rate = 1; rate <= 64; rate *= 4) {
+			EquivalenceSet<Integer> set = Collect.setsOf(int.class).withIncrementalResizing(rate).newSet();
+			EquivalenceMap<Integer, Integer> map = Collect.setsOf(int.class).mappedTo(int.class).withIncrementalResizing(rate).newMap();
+			for (int i = 0; i < 1000; i++) {
+				set.add(i);
+				map.put(i, -i);
+				assertEquals(i + 1, set.size());
+				assertEquals(i + 1, map.size());
+				assertTrue(set.contains(i / 2));
+				assertEquals(-i / 2, map.get(i / 2).intValue());
+				if (i % 100 == 0) {
+					assertEquals(set, set.mutableCopy());
+					assertEquals(map, map.immutableCopy());
+				}
+			}
+			Set<Integer> check = new TreeSet<>();
+			for (Integer i : set) assertTrue(check.add(i));
+			assertEquals(1000, check.size());
+			Map<Integer, Integer> mapCheck = new HashMap<>();
+			for (Entry<Integer, Integer> e : map.entrySet()) mapCheck.put(e.getKey(), e.getValue());
+			assertEquals(map, mapCheck);
+			assertEquals(1000, map.values().size());
+			assertTrue(map.containsValue(-999));
+			for (int i = 0; i < 1000; i += 2) {
+				assertTrue(set.remove(i));
+				assertEquals(-i, map.remove(i).intValue());
+			}
+			for (int i = 0; i < 1000; i++) {
+				assertEquals(i % 2 == 1, set.contains(i));
+				assertEquals(i % 2 == 1, map.containsKey(i));
+			}
+			set.clear();
+			map.clear();
+			assertTrue(set.isEmpty());
+			assertTrue(map.isEmpty());
+			assertNull(set.some());
+		}
+	}
+
+	@Test
+	public void testCompaction() {
+		EquivalenceSet<Integer> set = Collect.setsOf(int.class).newSet();
+		EquivalenceMap<Integer, Integer> map = Collect.setsOf(int.class).mappedTo(int.class).newMap();
+		for (int i = 0; i < 10000; i++) {
+			set.add(i);
+			map.put(i, -i);
+		}
+		for (int i = 0; i < 10000; i++) {
+			if (i % 100 == 0) continue;
+			set.remove(i);
+			map.remove(i);
+		}
+		set.compact();
+		map.keySet().compact();
+		assertEquals(100, set.size());
+		assertEquals(100, map.size());
+		for (int i = 0; i < 10000; i++) {
+			assertEquals(i % 100 == 0, set.contains(i));
+			assertEquals(i % 100 == 0 ? Integer.valueOf(-i) : null, map.get(i));
+		}
+		set.clear();
+		set.compact();
+		assertTrue(set.isEmpty());
+		set.add(1);
+		assertTrue(set.contains(1));
+		try {
+			set.immutableView().compact();
+			fail();
+		} catch (IllegalStateException e) {
+			/* expected */
+		}
+	}
+
+	@Test
+	public void testLowWaterMark() {
+		EquivalenceMap<Integer, Integer> map = Collect.setsOf(int.class).mappedTo(int.class).withLowWaterMark(0.25f).withStashSize(2).newMap();
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 10000; i++) {
+				map.put(i, -i);
+			}
+			for (int i = 0; i < 10000; i++) {
+				assertEquals(-i, map.remove(i).intValue());
+				if (i % 1000 == 0) {
+					for (int j = i + 1; j < 10000; j += 97) {
+						assertEquals(-j, map.get(j).intValue());
+					}
+				}
+			}
+			assertTrue(map.isEmpty());
+		}
+	}
+
+	@Test
+	public void testIncrementalLowWaterMark() {
+		Collect.Sets<Integer> sets = Collect.setsOf(int.class).withIncrementalResizing(4).withLowWaterMark(0.25f);
+		EquivalenceSet<Integer> set = sets.newSet();
+		EquivalenceMap<Integer, Integer> map = sets.mappedTo(int.class).newMap();
+		for (int i = 0; i < 100000; i++) {
+			set.add(i);
+			map.put(i, -i);
+		}
+		// copying completes any migration
+		set.mutableCopy();
+		map.mutableCopy();
+		for (int i = 10; i < 100000; i++) {
+			assertTrue(set.remove(i));
+			assertEquals(-i, map.remove(i).intValue());
+		}
+		for (int i = 0; i < 10; i++) {
+			assertTrue(set.contains(i));
+			assertEquals(-i, map.get(i).intValue());
+		}
+		// shrinking is immediate, so no large table is retained to be split over
+		assertNull(set.spliterator().trySplit());
+		assertNull(map.keySet().spliterator().trySplit());
+	}
+
+	@Test
+	public void testHashCaching() {
+		int[] counts = new int[2];
+		Equivalence<Integer> counting = new Equivalence<Integer>() {
+
+			private final Hasher<Integer> hasher = new Hasher<Integer>() {
+
+				@Override
+				public HashSize getSize() {
+					return HashSize.INT_SIZE;
+				}
+
+				@Override
+				public HashCode hash(Integer value) {
+					return HashCode.fromInt(intHashValue(value));
+				}
+
+				@Override
+				public int intHashValue(Integer value) {
+					counts[0]++;
+					return value;
+				}
+			};
+
+			@Override
+			public boolean isEquivalent(Integer e1, Integer e2) {
+				counts[1]++;
+				return e1.equals(e2);
+			}
+
+			@Override
+			public Hasher<Integer> getHasher() {
+				return hasher;
+			}
+		};
+		Collect.Sets<Integer> sets = Collect.setsOf(int.class).underEquivalence(counting).withHashCaching(true);
+		for (Collect.Sets<Integer> s : Arrays.asList(sets, sets.withStashSize(2).withLowWaterMark(0.25f), sets.withIncrementalResizing(4))) {
+			EquivalenceSet<Integer> set = s.newSet();
+			counts[0] = 0;
+			counts[1] = 0;
+			for (int i = 0; i < 10000; i++) {
+				assertTrue(set.add(i));
+			}
+			// elements are hashed once, irrespective of resizing, and not compared
+			assertEquals(10000, counts[0]);
+			assertTrue(counts[1] < 10);
+			for (int i = 0; i < 10000; i++) {
+				assertTrue(set.contains(i));
+				assertFalse(set.contains(-1 - i));
+			}
+			// comparisons are made only with equivalent elements
+			assertTrue(counts[1] < 10000 + 10);
+			for (int i = 0; i < 10000; i += 2) {
+				assertTrue(set.remove(i));
+			}
+			EquivalenceSet<Integer> copy = set.mutableCopy();
+			for (int i = 0; i < 10000; i++) {
+				assertEquals(i % 2 == 1, set.contains(i));
+				assertEquals(i % 2 == 1, copy.contains(i));
+			}
+		}
+		EquivalenceMap<Integer, Integer> map = sets.mappedTo(int.class).newMap();
+		for (int i = 0; i < 1000; i++) {
+			map.put(i, -i);
+		}
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(-i, map.get(i).intValue());
+		}
+	}
+
+	@Test
+	public void testSlotTagging() {
+		int[] counts = new int[1];
+		Equivalence<Integer> counting = new Equivalence<Integer>() {
+
+			private final Hasher<Integer> hasher = new Hasher<Integer>() {
+
+				@Override
+				public HashSize getSize() {
+					return HashSize.INT_SIZE;
+				}
+
+				@Override
+				public HashCode hash(Integer value) {
+					return HashCode.fromInt(intHashValue(value));
+				}
+
+				@Override
+				public int intHashValue(Integer value) {
+					// spread values into the high bits from which tags are taken
+					return value * 0x2545f491;
+				}
+			};
+
+			@Override
+			public boolean isEquivalent(Integer e1, Integer e2) {
+				counts[0]++;
+				return e1.equals(e2);
+			}
+
+			@Override
+			public Hasher<Integer> getHasher() {
+				return hasher;
+			}
+		};
+		Collect.Sets<Integer> sets = Collect.setsOf(int.class).underEquivalence(counting).withBucketSize(8).withSlotTagging(true);
+		for (Collect.Sets<Integer> s : Arrays.asList(sets, sets.withHashCaching(true), sets.withIncrementalResizing(4))) {
+			EquivalenceSet<Integer> set = s.newSet();
+			for (int i = 0; i < 10000; i++) {
+				assertTrue(set.add(i));
+			}
+			counts[0] = 0;
+			for (int i = 0; i < 10000; i++) {
+				assertFalse(set.contains(-1 - i));
+			}
+			// absent elements are rarely compared, though each search spans many slots
+			assertTrue(counts[0] < 10000);
+			for (int i = 0; i < 10000; i++) {
+				assertTrue(set.contains(i));
+			}
+			for (int i = 0; i < 10000; i += 2) {
+				assertTrue(set.remove(i));
+			}
+			// removal through an iterator bypasses the tags
+			for (Iterator<Integer> it = set.iterator(); it.hasNext(); ) {
+				if (it.next() % 3 == 0) it.remove();
+			}
+			EquivalenceSet<Integer> copy = set.mutableCopy();
+			for (int i = 0; i < 10000; i++) {
+				boolean present = i % 2 == 1 && i % 3 != 0;
+				assertEquals(present, set.contains(i));
+				assertEquals(present, copy.contains(i));
+			}
+			for (int i = 0; i < 10000; i++) {
+				assertEquals(i % 2 == 0 || i % 3 == 0, set.add(i));
+			}
+			assertEquals(10000, set.size());
+			set.clear();
+			for (int i = 0; i < 100; i++) {
+				assertFalse(set.contains(i));
+				assertTrue(set.add(i));
+			}
+		}
+		EquivalenceMap<Integer, Integer> map = sets.mappedTo(int.class).newMap();
+		for (int i = 0; i < 1000; i++) {
+			map.put(i, -i);
+		}
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(-i, map.remove(i).intValue());
+		}
+		assertTrue(map.isEmpty());
+	}
+
+	@Test
+	public void testValueIndexing() {
+		int[] counts = new int[1];
+		Equivalence<Integer> counting = new Equivalence<Integer>() {
+
+			@Override
+			public boolean isEquivalent(Integer e1, Integer e2) {
+				counts[0]++;
+				return e1.equals(e2);
+			}
+
+			@Override
+			public Hasher<Integer> getHasher() {
+				return Equivalence.<Integer>equality().getHasher();
+			}
+		};
+		Collect.Maps<Integer, Integer> maps = Collect.setsOf(int.class).mappedTo(int.class).underEquivalence(counting).withValueIndexing(true);
+		EquivalenceMap<Integer, Integer> map = maps.newMap();
+		Map<Integer, Integer> expected = new HashMap<>();
+		for (int i = 0; i < 10000; i++) {
+			map.put(i, i / 10);
+			expected.put(i, i / 10);
+		}
+		counts[0] = 0;
+		for (int i = 0; i < 2000; i++) {
+			assertEquals(i < 1000, map.containsValue(i));
+		}
+		// values are located without comparing them with every value
+		assertTrue(counts[0] < 10000);
+		assertFalse(map.containsValue("not an integer"));
+
+		// modify the map through each of its views
+		Random r = new Random(0L);
+		for (int n = 0; n < 5000; n++) {
+			int key = r.nextInt(10000);
+			int value = r.nextInt(2000);
+			switch (r.nextInt(6)) {
+			case 0:
+				assertEquals(expected.put(key, value), map.put(key, value));
+				break;
+			case 1:
+				assertEquals(expected.remove(key), map.remove(key));
+				break;
+			case 2:
+				assertEquals(expected.containsValue(value), map.values().remove(value));
+				// the maps may choose different keys from which to remove the value
+				expected.entrySet().removeIf(e -> e.getValue() == value && !map.containsKey(e.getKey()));
+				break;
+			case 3:
+				assertEquals(expected.replace(key, value), map.replace(key, value));
+				break;
+			case 4:
+				assertEquals(expected.keySet().remove(key), map.keySet().remove(key));
+				break;
+			case 5:
+				for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
+					if (entry.getKey() == key) {
+						entry.setValue(value);
+						expected.put(key, value);
+						break;
+					}
+				}
+				break;
+			}
+		}
+		for (Iterator<Integer> it = map.keySet().iterator(); it.hasNext(); ) {
+			int key = it.next();
+			if (key % 7 == 0) {
+				it.remove();
+				expected.remove(key);
+			}
+		}
+		for (Iterator<Map.Entry<Integer, Integer>> it = map.entrySet().iterator(); it.hasNext(); ) {
+			int key = it.next().getKey();
+			if (key % 11 == 0) {
+				it.remove();
+				expected.remove(key);
+			}
+		}
+		for (EquivalenceMap<Integer, Integer> m : Arrays.asList(map, map.mutableCopy(), map.immutableCopy())) {
+			assertEquals(expected, m);
+			for (int i = 0; i < 2000; i++) {
+				assertEquals(expected.containsValue(i), m.containsValue(i));
+			}
+		}
+		map.clear();
+		assertFalse(map.containsValue(0));
+		map.put(0, 0);
+		assertTrue(map.containsValue(0));
+		assertTrue(map.values().remove(0));
+		assertTrue(map.isEmpty());
+
+		// values remain located after the keys through which they were first found are removed
+		for (int i = 0; i < 10000; i++) {
+			map.put(i, i / 10);
+		}
+		for (int i = 0; i < 10000; i++) {
+			if (i % 10 != 9) map.remove(i);
+		}
+		counts[0] = 0;
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(map.values().remove(i));
+		}
+		assertTrue(counts[0] < 10000);
+		assertTrue(map.isEmpty());
+	}
+
+	@Test
+	public void testSetAlgebra() {
+		Collect.Sets<Integer> sets = Collect.setsOf(int.class);
+		testSetAlgebra(sets, sets);
+		testSetAlgebra(sets.withHashCaching(true), sets.withIncrementalResizing(4));
+		testSetAlgebra(sets.withSlotTagging(true).withLowWaterMark(0.25f), sets.withHashCount(2).withBucketSize(4));
+		// sets under distinct equivalences are combined generically
+		testSetAlgebra(sets.underEquivalence(modulo(1000)), sets.underEquivalence(modulo(1000)));
+
+		// elements of the receiving set are retained in preference to equivalent ones
+		Collect.Sets<Integer> mod = Collect.<Integer>sets().underEquivalence(modulo(10));
+		EquivalenceSet<Integer> a = mod.newSet(Arrays.asList(1, 2, 3));
+		EquivalenceSet<Integer> b = mod.newSet(Arrays.asList(12, 13, 14));
+		assertEquals(new HashSet<>(Arrays.asList(1, 2, 3, 14)), a.union(b));
+		assertEquals(new HashSet<>(Arrays.asList(2, 3)), a.intersection(b));
+		assertEquals(new HashSet<>(Arrays.asList(12, 13)), b.intersection(a));
+		assertEquals(new HashSet<>(Arrays.asList(1)), a.difference(b.immutableView()));
+		assertEquals(new HashSet<>(Arrays.asList(1, 14)), a.immutableView().symmetricDifference(b));
+	}
+
+	private void testSetAlgebra(Collect.Sets<Integer> aSets, Collect.Sets<Integer> bSets) {
+		Random r = new Random(0L);
+		for (int test = 0; test < 100; test++) {
+			Set<Integer> aCheck = new HashSet<>();
+			Set<Integer> bCheck = new HashSet<>();
+			int aSize = r.nextInt(500);
+			int bSize = r.nextInt(500);
+			for (int i = 0; i < aSize; i++) aCheck.add(r.nextInt(1000));
+			for (int i = 0; i < bSize; i++) bCheck.add(r.nextInt(1000));
+			EquivalenceSet<Integer> a = aSets.newSet();
+			EquivalenceSet<Integer> b = bSets.newSet();
+			a.addAll(aCheck);
+			b.addAll(bCheck);
+
+			Set<Integer> union = new HashSet<>(aCheck);
+			union.addAll(bCheck);
+			Set<Integer> intersection = new HashSet<>(aCheck);
+			intersection.retainAll(bCheck);
+			Set<Integer> difference = new HashSet<>(aCheck);
+			difference.removeAll(bCheck);
+			Set<Integer> symmetricDifference = new HashSet<>(union);
+			symmetricDifference.removeAll(intersection);
+
+			assertEquals(union, a.union(b));
+			assertEquals(intersection, a.intersection(b));
+			assertEquals(difference, a.difference(b));
+			assertEquals(symmetricDifference, a.symmetricDifference(b));
+			assertEquals(aCheck, a);
+			assertEquals(bCheck, b);
+			assertEquals(aCheck.containsAll(bCheck), a.containsAll(b));
+			assertTrue(a.containsAll(a.intersection(b)));
+
+			// the results are mutable
+			EquivalenceSet<Integer> result = a.union(b);
+			assertTrue(result.isMutable());
+			result.add(-1);
+			assertTrue(result.contains(-1));
+
+			// bulk mutations agree with the results
+			EquivalenceSet<Integer> set = a.mutableCopy();
+			assertEquals(!bCheck.isEmpty() && !aCheck.containsAll(bCheck), set.addAll(b));
+			assertEquals(union, set);
+			set = a.mutableCopy();
+			assertEquals(!intersection.isEmpty(), set.removeAll(b));
+			assertEquals(difference, set);
+			set = a.mutableCopy();
+			assertEquals(intersection.size() != aCheck.size(), set.retainAll(b));
+			assertEquals(intersection, set);
+			set.add(-1);
+			assertTrue(set.contains(-1));
+		}
+	}
+
+	@Test
+	public void testSpliterators() {
+		Collect.Sets<Integer> sets = Collect.setsOf(int.class);
+		testSpliterators(sets);
+		testSpliterators(sets.withIncrementalResizing(4));
+		testSpliterators(sets.withBucketSize(4).withStashSize(2));
+	}
+
+	private void testSpliterators(Collect.Sets<Integer> sets) {
+		int size = 100000;
+		EquivalenceSet<Integer> set = sets.newSet();
+		EquivalenceMap<Integer, Integer> map = sets.mappedTo(int.class).newMap();
+		for (int i = 0; i < size; i++) {
+			set.add(i);
+			map.put(i, i % 10 == 0 ? null : -i);
+		}
+		long sum = (long) size * (size - 1) / 2;
+
+		Spliterator<Integer> spliterator = set.spliterator();
+		assertTrue(spliterator.hasCharacteristics(Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.SIZED));
+		assertEquals(size, spliterator.getExactSizeIfKnown());
+		Spliterator<Integer> prefix = spliterator.trySplit();
+		assertNotNull(prefix);
+		assertFalse(spliterator.hasCharacteristics(Spliterator.SIZED));
+		long[] count = {0L};
+		prefix.forEachRemaining(e -> count[0]++);
+		while (spliterator.tryAdvance(e -> count[0]++));
+		assertEquals(size, count[0]);
+
+		assertEquals(sum, set.parallelStream().mapToLong(Integer::longValue).sum());
+		assertEquals(size, set.parallelStream().distinct().count());
+		assertEquals(sum, map.keySet().parallelStream().mapToLong(Integer::longValue).sum());
+		// null values are not streamed
+		assertEquals(size - size / 10, map.values().parallelStream().count());
+		assertEquals(map.values().stream().mapToLong(Integer::longValue).sum(), map.values().parallelStream().mapToLong(Integer::longValue).sum());
+		assertEquals(size, map.entrySet().parallelStream().filter(e -> map.get(e.getKey()) == e.getValue()).count());
+		assertTrue(map.entrySet().spliterator().hasCharacteristics(Spliterator.DISTINCT | Spliterator.NONNULL));
+		assertFalse(map.values().spliterator().hasCharacteristics(Spliterator.DISTINCT));
+	}
+
+	@Test
+	public void testMapCursor() {
+		Collect.Sets<Integer> sets = Collect.setsOf(int.class);
+		testMapCursor(sets.mappedTo(int.class).newMap());
+		testMapCursor(sets.withIncrementalResizing(4).mappedTo(int.class).newMap());
+		testMapCursor(sets.mappedTo(int.class).withValueIndexing(true).newMap());
+		Map<Integer, Integer> map = new HashMap<>();
+		for (int i = 0; i < 100; i++) map.put(i, i);
+		// perfect maps are immutable
+		EquivalenceMap<Integer, Integer> perfect = sets.mappedTo(int.class).newPerfectMap(map);
+		MapCursor<Integer, Integer> cursor = perfect.cursor();
+		int count = 0;
+		while (cursor.advance()) {
+			assertEquals(cursor.key(), cursor.value());
+			count++;
+		}
+		assertEquals(100, count);
+	}
+
+	private void testMapCursor(EquivalenceMap<Integer, Integer> map) {
+		Map<Integer, Integer> check = new HashMap<>();
+		for (int i = 0; i < 1000; i++) {
+			map.put(i, -i);
+			check.put(i, -i);
+		}
+		map.put(1000, null);
+		check.put(1000, null);
+
+		Map<Integer, Integer> visited = new HashMap<>();
+		map.forEach(visited::put);
+		assertEquals(check, visited);
+
+		MapCursor<Integer, Integer> cursor = map.cursor();
+		try {
+			cursor.key();
+			fail();
+		} catch (IllegalStateException e) {
+			/* expected */
+		}
+		visited.clear();
+		while (cursor.advance()) visited.put(cursor.key(), cursor.value());
+		assertEquals(check, visited);
+		assertFalse(cursor.advance());
+
+		// the cursor is reusable and can replace values
+		cursor.reset();
+		while (cursor.advance()) {
+			if (cursor.value() != null) assertEquals(check.get(cursor.key()), cursor.setValue(cursor.key()));
+		}
+		check.replaceAll((k, v) -> v == null ? null : k);
+		assertEquals(check, map);
+		assertTrue(map.containsValue(999));
+		assertFalse(map.containsValue(-999));
+
+		map.replaceAll((k, v) -> 2 * k);
+		check.replaceAll((k, v) -> 2 * k);
+		assertEquals(check, map);
+		assertTrue(map.containsValue(1998));
+		assertFalse(map.containsValue(-999));
+
+		MapCursor<Integer, Integer> view = map.immutableView().cursor();
+		assertTrue(view.advance());
+		assertEquals(check.get(view.key()), view.value());
+		try {
+			view.setValue(0);
+			fail();
+		} catch (IllegalStateException e) {
+			/* expected */
+		}
+		try {
+			map.immutableCopy().replaceAll((k, v) -> v);
+			fail();
+		} catch (IllegalStateException e) {
+			/* expected */
+		}
+	}
+
+	@Test
+	public void testBulkConstruction() {
+		for (int hashCount = 2; hashCount <= 4; hashCount++) {
+			Collect.Sets<Integer> sets = Collect.setsOf(int.class).withHashCount(hashCount);
+			for (int size : new int[] {0, 1, 10, 1000, 10000}) {
+				List<Integer> list = new ArrayList<>();
+				Map<Integer, Integer> map = new HashMap<>();
+				for (int i = 0; i < size; i++) {
+					list.add(i * 7);
+					map.put(i * 7, -i);
+				}
+				EquivalenceSet<Integer> set = sets.newSet(list);
+				EquivalenceMap<Integer, Integer> eqMap = sets.mappedTo(int.class).newMap(map);
+				assertEquals(size, set.size());
+				assertEquals(map, eqMap);
+				for (int i = 0; i < size; i++) {
+					assertTrue(set.contains(i * 7));
+					assertFalse(set.contains(i * 7 + 1));
+				}
+				// the bulk built collections remain fully mutable
+				set.add(-1);
+				eqMap.put(-1, 1);
+				assertTrue(set.contains(-1));
+				assertEquals(1, eqMap.get(-1).intValue());
+			}
+		}
+		// equivalent elements are consolidated
+		List<Integer> list = new ArrayList<>();
+		Map<Integer, Integer> map = new HashMap<>();
+		for (int i = 0; i < 100; i++) {
+			list.add(i);
+			map.put(i, i);
+		}
+		Collect.Sets<Integer> sets = Collect.<Integer>sets().underEquivalence(modulo(10));
+		assertEquals(10, sets.newSet(list).size());
+		EquivalenceMap<Integer, Integer> eqMap = sets.<Integer>mapped().newMap(map);
+		assertEquals(10, eqMap.size());
+		for (int i = 0; i < 10; i++) {
+			assertEquals(i + 90, eqMap.get(i).intValue());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBulkConstructionWithNull() {
+		Collect.<String>sets().newSet(Arrays.asList("a", null, "b"));
+	}
+
+	@Test
+	public void testPerfectHashing() {
+		for (int size : new int[] {0, 1, 2, 3, 10, 1000, 100000}) {
+			List<String> list = new ArrayList<>();
+			Map<String, Integer> map = new HashMap<>();
+			for (int i = 0; i < size; i++) {
+				list.add("s" + i);
+				map.put("s" + i, i);
+			}
+			EquivalenceSet<String> set = Collect.<String>sets().newPerfectSet(list);
+			EquivalenceMap<String, Integer> pmap = Collect.<String>sets().mappedTo(Integer.class).newPerfectMap(map);
+			assertFalse(set.isMutable());
+			assertFalse(pmap.isMutable());
+			assertEquals(size, set.size());
+			assertEquals(new HashSet<>(list), set);
+			assertEquals(map, pmap);
+			for (int i = 0; i < size; i++) {
+				assertTrue(set.contains("s" + i));
+				assertFalse(set.contains("t" + i));
+				assertEquals(i, pmap.get("s" + i).intValue());
+				assertNull(pmap.get("t" + i));
+			}
+			EquivalenceSet<String> copy = set.mutableCopy();
+			copy.add("t");
+			assertEquals(size + 1, copy.size());
+			assertEquals(map, pmap.mutableCopy());
+		}
+		// equivalent elements are consolidated
+		List<Integer> list = new ArrayList<>();
+		for (int i = 0; i < 100; i++) list.add(i);
+		EquivalenceSet<Integer> set = Collect.<Integer>sets().underEquivalence(modulo(10)).newPerfectSet(list);
+		assertEquals(10, set.size());
+		for (int i = 0; i < 100; i++) assertTrue(set.contains(i));
+		try {
+			set.add(100);
+			fail();
+		} catch (IllegalStateException e) {
+			/* expected */
+		}
+	}
+
+	@Test
+	public void testImperfectHashing() {
+		// inequivalent elements with equal hashes cannot be separated, and share a run of slots
+		Equivalence<Integer> equ = modulo(10);
+		Equivalence<Integer> coarse = new Equivalence<Integer>() {
+			@Override
+			public boolean isEquivalent(Integer e1, Integer e2) {
+				return e1.intValue() == e2.intValue();
+			}
+			@Override
+			public Hasher<Integer> getHasher() {
+				return equ.getHasher();
+			}
+		};
+		List<Integer> list = new ArrayList<>();
+		for (int i = 0; i < 20; i++) list.add(i);
+		EquivalenceSet<Integer> set = Collect.<Integer>sets().underEquivalence(coarse).newPerfectSet(list);
+		assertTrue(set instanceof PerfectEquivalenceSet);
+		assertEquals(20, set.size());
+		assertFalse(set.isMutable());
+		for (int i = 0; i < 20; i++) assertTrue(set.contains(i));
+		assertFalse(set.contains(20));
+
+		// strings ending "Aa" and "BB" share a hash code if their prefixes match
+		List<String> strs = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			strs.add(i + "Aa");
+			strs.add(i + "BB");
+		}
+		Random r = new Random(0L);
+		for (int i = 0; i < 200000; i++) strs.add(Long.toString(r.nextLong(), 36));
+		Map<String, Integer> map = new HashMap<>();
+		for (int i = 0; i < strs.size(); i++) map.put(strs.get(i), i);
+		EquivalenceSet<String> strSet = Collect.<String>sets().newPerfectSet(strs);
+		EquivalenceMap<String, Integer> strMap = Collect.<String>sets().<Integer>mapped().newPerfectMap(map);
+		assertTrue(strSet instanceof PerfectEquivalenceSet);
+		assertTrue(strMap instanceof PerfectEquivalenceMap);
+		assertEquals(map.size(), strSet.size());
+		assertEquals(map, strMap);
+		for (String str : map.keySet()) assertTrue(strSet.contains(str));
+		assertFalse(strSet.contains("1000Aa"));
+		assertFalse(strSet.contains("1C#"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSingleHash() {
+		Collect.sets().withHashCount(1);
+	}
+
 	@Test
 	public void testPuttingNull() {
 		EquivalenceMap<Integer, Integer> map = Collect
@@ -12,6 +12,7 @@ import java.math.BigDecimal;
 import org.junit.Test;
 
 import com.tomgibara.hashing.Hasher;
+import com.tomgibara.streams.StreamSerializer;
 
 public class EquivalencesTest {
 
@@ -31,4 +32,38 @@ public class EquivalencesTest {
 		// check scale invariance
 		assertTrue( e.isEquivalent(ONE, ONE.setScale(3, UNNECESSARY)) );
 	}
+
+	@Test
+	public void testFromSerializer() {
+		StreamSerializer<String> serializer = (str, s) -> {
+			for (int i = 0; i < str.length(); i++) s.writeByte((byte) str.charAt(i));
+		};
+		Equivalence<String> e = Equivalence.fromSerializer(serializer);
+		assertTrue ( e.isEquivalent("", "")                 );
+		assertTrue ( e.isEquivalent("abc", "abc")           );
+		assertFalse( e.isEquivalent("abc", "abd")           );
+		// check that neither serialization may be a prefix of the other
+		assertFalse( e.isEquivalent("abc", "abcd")          );
+		assertFalse( e.isEquivalent("abcd", "abc")          );
+		// check serializations larger than any initial buffer
+		String large = new String(new char[1000]).replace('\0', 'x');
+		assertTrue ( e.isEquivalent(large, large + "")      );
+		assertFalse( e.isEquivalent(large, large + "y")     );
+		// check comparisons nested within serialization
+		Equivalence<String> nested = Equivalence.fromSerializer((str, s) -> {
+			s.writeByte(e.isEquivalent(str, "abc") ? (byte) 1 : (byte) 0);
+			serializer.serialize(str, s);
+		});
+		assertTrue ( nested.isEquivalent("abc", "abc")      );
+		assertFalse( nested.isEquivalent("abc", "abd")      );
+		// check serializations larger than any retained buffer
+		String huge = new String(new char[100000]).replace('\0', 'x');
+		assertTrue ( e.isEquivalent(huge, huge + "")        );
+		assertFalse( e.isEquivalent(huge, huge + "y")       );
+		assertTrue ( e.isEquivalent("abc", "abc")           );
+		// check equivalences share the identity of their serializer
+		assertEquals(e, Equivalence.fromSerializer(serializer));
+		assertEquals(e.hashCode(), Equivalence.fromSerializer(serializer).hashCode());
+		assertFalse(e.equals(nested));
+	}
 }
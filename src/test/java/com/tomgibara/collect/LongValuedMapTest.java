@@ -0,0 +1,92 @@
+package com.tomgibara.collect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LongValuedMapTest {
+
+	@Test
+	public void testCounting() {
+		Collect.Sets<String> sets = Collect.sets();
+		testCounting(sets);
+		testCounting(sets.withHashCount(2).withStashSize(2));
+		testCounting(sets.withBucketSize(4).withLowWaterMark(0.25f));
+	}
+
+	private void testCounting(Collect.Sets<String> sets) {
+		LongValuedEquivalenceMap<String> map = sets.mappedTo(long.class).newLongValuedMap();
+		Map<String, Long> check = new HashMap<>();
+		Random r = new Random(0L);
+		for (int i = 0; i < 50000; i++) {
+			String key = Integer.toString(r.nextInt(3000));
+			switch (r.nextInt(4)) {
+			case 0:
+				assertEquals(check.merge(key, 1L, Long::sum).longValue(), map.increment(key));
+				break;
+			case 1:
+				long delta = r.nextInt(100) - 50;
+				assertEquals(check.merge(key, delta, Long::sum).longValue(), map.addTo(key, delta));
+				break;
+			case 2:
+				Long previous = check.put(key, (long) i);
+				assertEquals(previous == null ? 0L : previous.longValue(), map.putLong(key, i));
+				break;
+			case 3:
+				assertEquals(check.remove(key), map.remove(key));
+				break;
+			}
+		}
+		assertEquals(check, map);
+		for (Map.Entry<String, Long> entry : check.entrySet()) {
+			assertEquals(entry.getValue().longValue(), map.getLong(entry.getKey()));
+		}
+		assertEquals(0L, map.getLong("absent"));
+		assertNull(map.get("absent"));
+		map.compact();
+		assertEquals(check, map);
+	}
+
+	@Test
+	public void testMapMethods() {
+		LongValuedEquivalenceMap<String> map = Collect.<String>sets().mappedTo(long.class).newLongValuedMap();
+		assertNull(map.put("a", 1L));
+		assertEquals(1L, map.putIfAbsent("a", 2L).longValue());
+		assertTrue(map.replace("a", 1L, 3L));
+		assertTrue(map.containsValue(3L));
+		assertFalse(map.remove("a", 1L));
+		for (Map.Entry<String, Long> entry : map.entrySet()) {
+			entry.setValue(5L);
+		}
+		assertEquals(5L, map.getLong("a"));
+		LongValuedEquivalenceMap<String> view = map.immutableView();
+		LongValuedEquivalenceMap<String> copy = map.immutableCopy();
+		map.increment("a");
+		assertEquals(6L, view.getLong("a"));
+		assertEquals(5L, copy.getLong("a"));
+		try {
+			view.increment("a");
+			fail();
+		} catch (IllegalStateException e) {
+			/* expected */
+		}
+		try {
+			copy.putLong("a", 0L);
+			fail();
+		} catch (IllegalStateException e) {
+			/* expected */
+		}
+		LongValuedEquivalenceMap<String> mutable = copy.mutableCopy();
+		assertEquals(6L, mutable.increment("a"));
+		assertEquals(5L, copy.getLong("a"));
+	}
+
+}
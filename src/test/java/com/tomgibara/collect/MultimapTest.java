@@ -0,0 +1,153 @@
+package com.tomgibara.collect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MultimapTest {
+
+	@Test
+	public void testRandomOperations() {
+		Collect.Maps<String, Integer> maps = Collect.setsOf(String.class).mappedTo(int.class);
+		testRandomOperations(maps);
+		testRandomOperations(maps.withHashCount(2).withStashSize(2));
+		testRandomOperations(maps.withBucketSize(4).withLowWaterMark(0.25f));
+	}
+
+	private void testRandomOperations(Collect.Maps<String, Integer> maps) {
+		EquivalenceMultimap<String, Integer> map = maps.newMultimap();
+		Map<String, List<Integer>> check = new HashMap<>();
+		Random r = new Random(0L);
+		for (int i = 0; i < 50000; i++) {
+			String key = Integer.toString(r.nextInt(500));
+			int value = r.nextInt(20);
+			switch (r.nextInt(8)) {
+			case 0:
+			case 1:
+				map.put(key, value);
+				check.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+				break;
+			case 2:
+				List<Integer> values = Arrays.asList(value, value + 1, value + 2);
+				map.putAll(key, values);
+				check.computeIfAbsent(key, k -> new ArrayList<>()).addAll(values);
+				break;
+			case 3:
+				List<Integer> list = check.get(key);
+				boolean removed = list != null && list.remove((Integer) value);
+				if (removed && list.isEmpty()) check.remove(key);
+				assertEquals(removed, map.remove(key, value));
+				break;
+			case 4:
+				if (r.nextInt(10) == 0) {
+					list = check.remove(key);
+					assertEquals(list == null ? 0 : list.size(), map.removeAll(key));
+				}
+				break;
+			case 5:
+				list = check.get(key);
+				assertEquals(list != null && list.contains(value), map.containsEntry(key, value));
+				assertEquals(list == null ? 0 : list.size(), map.valueCount(key));
+				break;
+			case 6:
+				if (r.nextInt(100) == 0) map.compact();
+				break;
+			case 7:
+				if (r.nextInt(1000) == 0) {
+					map.clear();
+					check.clear();
+				}
+				break;
+			}
+		}
+		assertMatches(check, map);
+		assertMatches(check, map.mutableCopy());
+		assertMatches(check, map.immutableCopy());
+
+		// removing a key through the iterator removes its values
+		for (Iterator<String> it = map.keySet().iterator(); it.hasNext(); ) {
+			String key = it.next();
+			if (key.length() < 3) {
+				it.remove();
+				check.remove(key);
+			}
+		}
+		assertMatches(check, map);
+	}
+
+	private static void assertMatches(Map<String, List<Integer>> check, EquivalenceMultimap<String, Integer> map) {
+		assertEquals(check.keySet(), map.keySet());
+		int size = 0;
+		for (Map.Entry<String, List<Integer>> entry : check.entrySet()) {
+			List<Integer> values = new ArrayList<>();
+			map.forEach(entry.getKey(), values::add);
+			values.sort(null);
+			List<Integer> expected = new ArrayList<>(entry.getValue());
+			expected.sort(null);
+			assertEquals(expected, values);
+			size += expected.size();
+		}
+		assertEquals(size, map.size());
+		int[] count = {0};
+		map.forEach((k, v) -> {
+			assertTrue(check.get(k).contains(v));
+			count[0]++;
+		});
+		assertEquals(size, count[0]);
+	}
+
+	@Test
+	public void testValueOrder() {
+		EquivalenceMultimap<String, Integer> map = Collect.setsOf(String.class).mappedTo(int.class).newMultimap();
+		for (int i = 0; i < 100; i++) {
+			map.put("a", i);
+			map.putAll("b", Arrays.asList(i, -i));
+		}
+		List<Integer> values = new ArrayList<>();
+		map.forEach("a", values::add);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, values.get(i).intValue());
+		}
+		assertEquals(200, map.valueCount("b"));
+		assertEquals(300, map.size());
+		assertFalse(map.containsKey("c"));
+	}
+
+	@Test
+	public void testImmutability() {
+		EquivalenceMultimap<String, Integer> map = Collect.setsOf(String.class).mappedTo(int.class).newMultimap();
+		map.put("a", 1);
+		EquivalenceMultimap<String, Integer> view = map.immutableView();
+		assertFalse(view.isMutable());
+		try {
+			view.put("a", 2);
+			fail();
+		} catch (IllegalStateException e) {
+			/* expected */
+		}
+		try {
+			map.immutableCopy().remove("a", 1);
+			fail();
+		} catch (IllegalStateException e) {
+			/* expected */
+		}
+		map.put("a", 2);
+		assertEquals(2, view.valueCount("a"));
+		EquivalenceMultimap<String, Integer> copy = view.mutableCopy();
+		copy.put("a", 3);
+		assertEquals(2, map.valueCount("a"));
+		assertEquals(3, copy.valueCount("a"));
+	}
+
+}
@@ -0,0 +1,214 @@
+package com.tomgibara.collect;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class PrimitiveSetTest {
+
+	@Test
+	public void testIntSet() {
+		Collect.Sets<Integer> sets = Collect.setsOf(int.class);
+		testIntSet(sets);
+		testIntSet(sets.withHashCount(2).withStashSize(4));
+		testIntSet(sets.withBucketSize(4));
+		testIntSet(sets.withLowWaterMark(0.2f));
+	}
+
+	private void testIntSet(Collect.Sets<Integer> sets) {
+		testIntSet(sets.newIntSet());
+	}
+
+	private void testIntSet(IntEquivalenceSet set) {
+		Set<Integer> check = new HashSet<>();
+		Random r = new Random(0L);
+		for (int i = 0; i < 20000; i++) {
+			// a narrow range ensures frequent removals and that zero is exercised
+			int value = r.nextInt(2000) - 1000;
+			if (r.nextBoolean()) {
+				assertEquals(check.add(value), set.addInt(value));
+			} else {
+				assertEquals(check.remove(value), set.removeInt(value));
+			}
+			assertEquals(check.size(), set.size());
+		}
+		for (int value = -1000; value < 1000; value++) {
+			assertEquals(check.contains(value), set.containsInt(value));
+		}
+		assertEquals(check, set);
+		assertEquals(check, new HashSet<>(set));
+		int[] ints = set.toIntArray();
+		Arrays.sort(ints);
+		assertArrayEquals(check.stream().mapToInt(Integer::intValue).sorted().toArray(), ints);
+	}
+
+	@Test
+	public void testLongSet() {
+		LongEquivalenceSet set = Collect.<Long>sets().newLongSet();
+		Set<Long> check = new HashSet<>();
+		Random r = new Random(0L);
+		for (int i = 0; i < 10000; i++) {
+			long value = r.nextLong();
+			// values that differ only in their high bits must be distinguished
+			long other = value ^ (1L << 40);
+			set.addLong(value);
+			set.add(other);
+			check.add(value);
+			check.add(other);
+		}
+		set.addLong(0L);
+		check.add(0L);
+		assertEquals(check, set);
+		for (long value : check) {
+			assertTrue(set.containsLong(value));
+			assertFalse(set.containsLong(value + 1L) && !check.contains(value + 1L));
+		}
+		long[] longs = set.toLongArray();
+		Arrays.sort(longs);
+		assertArrayEquals(check.stream().mapToLong(Long::longValue).sorted().toArray(), longs);
+		set.removeIf(v -> v < 0L);
+		check.removeIf(v -> v < 0L);
+		assertEquals(check, set);
+		set.compact();
+		assertEquals(check, set);
+	}
+
+	@Test
+	public void testDirectSet() {
+		Collect.Sets<Long> sets = Collect.setsOf(long.class);
+		DirectLongEquivalenceSet set = sets.newDirectLongSet();
+		Set<Long> check = new HashSet<>();
+		Random r = new Random(0L);
+		for (int i = 0; i < 10000; i++) {
+			long value = r.nextInt(5000) - 2500;
+			if (r.nextBoolean()) {
+				assertEquals(check.add(value), set.addLong(value));
+			} else {
+				assertEquals(check.remove(value), set.removeLong(value));
+			}
+		}
+		assertEquals(check, set);
+		DirectLongEquivalenceSet copy = set.immutableCopy();
+		LongEquivalenceSet view = set.immutableView();
+		set.close();
+		set.close();
+		assertTrue(set.isEmpty());
+		try {
+			view.containsLong(1L);
+			fail();
+		} catch (IllegalStateException e) {
+			/* expected */
+		}
+		try {
+			set.containsLong(1L);
+			fail();
+		} catch (IllegalStateException e) {
+			/* expected */
+		}
+		try {
+			set.addLong(0L);
+			fail();
+		} catch (IllegalStateException e) {
+			/* expected */
+		}
+		assertEquals(check, copy);
+		copy.close();
+
+		try (DirectIntEquivalenceSet ints = Collect.setsOf(int.class).withBucketSize(4).newDirectIntSet()) {
+			testIntSet(ints);
+		}
+	}
+
+	@Test
+	public void testMappedSet() throws IOException {
+		Path path = Files.createTempFile("collect", ".set");
+		try {
+			IntEquivalenceSet set = Collect.setsOf(int.class).withBucketSize(4).withStashSize(2).newIntSet();
+			Random r = new Random(0L);
+			for (int i = 0; i < 5000; i++) {
+				set.addInt(r.nextInt());
+			}
+			set.addInt(0);
+			Collect.writeIntSet(set.immutableView(), path);
+			IntEquivalenceSet mapped = Collect.mapIntSet(path);
+			assertFalse(mapped.isMutable());
+			assertEquals(set, mapped);
+			for (int value : set.toIntArray()) {
+				assertTrue(mapped.containsInt(value));
+				assertEquals(set.containsInt(value + 1), mapped.containsInt(value + 1));
+			}
+			IntEquivalenceSet copy = mapped.mutableCopy();
+			assertTrue(copy.removeInt(0));
+			assertTrue(mapped.containsInt(0));
+			try {
+				Collect.mapLongSet(path);
+				fail();
+			} catch (IOException e) {
+				/* expected */
+			}
+
+			LongEquivalenceSet longs = Collect.<Long>sets().newLongSet();
+			for (int i = 0; i < 1000; i++) {
+				longs.addLong(r.nextLong());
+			}
+			Collect.writeLongSet(longs, path);
+			assertEquals(longs, Collect.mapLongSet(path));
+
+			// check that an implausible hash count is rejected before mapping
+			byte[] bytes = Files.readAllBytes(path);
+			ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(12, Integer.MAX_VALUE);
+			Files.write(path, bytes);
+			try {
+				Collect.mapLongSet(path);
+				fail();
+			} catch (IOException e) {
+				/* expected */
+			}
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void testMutability() {
+		IntEquivalenceSet set = Collect.setsOf(int.class).newIntSet();
+		for (int i = 0; i < 100; i++) set.addInt(i);
+		IntEquivalenceSet view = set.immutableView();
+		IntEquivalenceSet copy = set.immutableCopy();
+		set.removeInt(0);
+		assertFalse(view.containsInt(0));
+		assertTrue(copy.containsInt(0));
+		assertEquals(99, view.size());
+		assertEquals(100, copy.size());
+		try {
+			view.addInt(0);
+			fail();
+		} catch (IllegalStateException e) {
+			/* expected */
+		}
+		try {
+			copy.removeInt(0);
+			fail();
+		} catch (IllegalStateException e) {
+			/* expected */
+		}
+		IntEquivalenceSet mutable = copy.mutableCopy();
+		assertTrue(mutable.removeInt(0));
+		assertTrue(copy.containsInt(0));
+	}
+
+}
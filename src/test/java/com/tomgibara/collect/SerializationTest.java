@@ -0,0 +1,135 @@
+package com.tomgibara.collect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.tomgibara.hashing.HashCode;
+import com.tomgibara.hashing.HashSize;
+import com.tomgibara.hashing.Hasher;
+import com.tomgibara.streams.StreamBytes;
+import com.tomgibara.streams.StreamDeserializer;
+import com.tomgibara.streams.StreamSerializer;
+import com.tomgibara.streams.Streams;
+
+public class SerializationTest {
+
+	private static final StreamSerializer<Integer> SERIALIZER = (i, s) -> s.writeInt(i);
+	private static final StreamDeserializer<Integer> DESERIALIZER = s -> s.readInt();
+
+	// counts the hashes computed so that rehashing can be detected
+	private int hashes = 0;
+
+	private final Equivalence<Integer> counting = new Scaling(1);
+
+	@Test
+	public void testSetRoundTrip() {
+		Collect.Sets<Integer> sets = Collect.setsOf(Integer.class).underEquivalence(counting).withBucketSize(2).withStashSize(1);
+		EquivalenceSet<Integer> set = sets.newSet();
+		Random r = new Random(0L);
+		for (int i = 0; i < 1000; i++) {
+			set.add(r.nextInt());
+		}
+		StreamBytes bytes = Streams.bytes();
+		sets.writeSet(set.immutableView(), SERIALIZER, bytes.writeStream());
+
+		// reading with the same configuration computes only the hashes of a few samples
+		int before = hashes;
+		EquivalenceSet<Integer> read = sets.readSet(DESERIALIZER, bytes.readStream());
+		assertEquals(before + Cuckoo.LAYOUT_SAMPLES, hashes);
+		assertEquals(set, read);
+		assertTrue(read.isMutable());
+		assertTrue(read.add(Integer.MIN_VALUE));
+
+		// reading with another configuration rehashes the elements
+		before = hashes;
+		EquivalenceSet<Integer> rehashed = sets.withBucketSize(1).readSet(DESERIALIZER, bytes.readStream());
+		assertTrue(hashes > before);
+		assertEquals(set, rehashed);
+	}
+
+	@Test
+	public void testLayoutUnderOtherEquivalence() {
+		Collect.Sets<Integer> sets = Collect.setsOf(Integer.class).underEquivalence(counting);
+		EquivalenceSet<Integer> set = sets.newSet();
+		for (int i = 0; i < 1000; i++) {
+			set.add(i * 3);
+		}
+		StreamBytes bytes = Streams.bytes();
+		sets.writeSet(set, SERIALIZER, bytes.writeStream());
+
+		// an equivalence of the same class that hashes differently cannot reuse the layout
+		Equivalence<Integer> scrambling = new Scaling(0x9e3779b9);
+		int before = hashes;
+		EquivalenceSet<Integer> read = sets.underEquivalence(scrambling).readSet(DESERIALIZER, bytes.readStream());
+		assertTrue(hashes > before);
+		assertEquals(set, read);
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(read.contains(i * 3));
+		}
+	}
+
+	@Test
+	public void testUnorderedSet() {
+		Collect.Sets<Integer> sets = Collect.setsOf(Integer.class);
+		IntEquivalenceSet set = sets.newIntSet();
+		for (int i = -50; i < 50; i++) {
+			set.addInt(i);
+		}
+		StreamBytes bytes = Streams.bytes();
+		sets.writeSet(set, SERIALIZER, bytes.writeStream());
+		assertEquals(set, sets.readSet(DESERIALIZER, bytes.readStream()));
+	}
+
+	@Test
+	public void testMapRoundTrip() {
+		Collect.Maps<Integer, Integer> maps = Collect.setsOf(Integer.class).underEquivalence(counting).withHashCount(2).mappedTo(Integer.class);
+		EquivalenceMap<Integer, Integer> map = maps.newMap();
+		for (int i = 0; i < 500; i++) {
+			map.put(i * 7, i % 10 == 0 ? null : i);
+		}
+		StreamBytes bytes = Streams.bytes();
+		maps.writeMap(map, SERIALIZER, SERIALIZER, bytes.writeStream());
+
+		int before = hashes;
+		EquivalenceMap<Integer, Integer> read = maps.readMap(DESERIALIZER, DESERIALIZER, bytes.readStream());
+		assertEquals(before + Cuckoo.LAYOUT_SAMPLES, hashes);
+		assertEquals(map, read);
+		assertTrue(read.containsKey(70));
+		assertNull(read.get(70));
+		assertFalse(read.containsKey(71));
+
+		EquivalenceMap<Integer, Integer> rehashed = maps.withHashCount(3).readMap(DESERIALIZER, DESERIALIZER, bytes.readStream());
+		assertEquals(map, rehashed);
+	}
+
+	// an equivalence of integers hashed by multiplying them by a factor
+	private final class Scaling implements Equivalence<Integer> {
+
+		private final int factor;
+
+		Scaling(int factor) {
+			this.factor = factor;
+		}
+
+		@Override
+		public boolean isEquivalent(Integer e1, Integer e2) {
+			return e1.equals(e2);
+		}
+
+		@Override
+		public Hasher<Integer> getHasher() {
+			return new Hasher<Integer>() {
+				@Override public HashSize getSize()              { return HashSize.INT_SIZE;                   }
+				@Override public HashCode hash(Integer value)    { return HashCode.fromInt(intHashValue(value)); }
+				@Override public int intHashValue(Integer value) { hashes++; return value * factor;          }
+			};
+		}
+	}
+
+}